@@ -0,0 +1,112 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.benchmark;
+
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.StandInCygwin;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.CygwinKillHelper;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.KillResult;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.KillStrategy;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.KillTimeouts;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.NodeCapabilityCache;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.PsSnapshotSource;
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import hudson.util.LogTaskListener;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures latency of {@link CygwinKillHelper} operations against the stand-in Cygwin.
+ * Processes are started by the in-process {@link Launcher.LocalLauncher}.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class KillHelperBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    public int treeSize;
+
+    @Param({"false", "true"})
+    public boolean persistentShell;
+
+    /**
+     * Source of process snapshots. "none" means that the script walks trees itself.
+     */
+    @Param({"none", "ps"})
+    public String snapshotSource;
+
+    private StandInCygwin cygwin;
+    private NodeCapabilityCache.Entry capabilities;
+    private CygwinKillHelper helper;
+
+    @Setup
+    public void setUp() throws Exception {
+        cygwin = StandInCygwin.create();
+        capabilities = cygwin.createCapabilities("benchmark", treeSize);
+        TaskListener listener = new LogTaskListener(Logger.getLogger(KillHelperBenchmark.class.getName()), Level.FINE);
+        helper = new CygwinKillHelper(listener, new Launcher.LocalLauncher(listener), capabilities,
+                StandInCygwin.getDefaultKillScript(), persistentShell, 
+                "ps".equals(snapshotSource) ? new PsSnapshotSource() : null, null, KillStrategy.TREE, 
+                new KillTimeouts(60, 60, 0));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        capabilities.dispose();
+        cygwin.delete();
+    }
+
+    /**
+     * Cygwin platform check without caching.
+     */
+    @Benchmark
+    public int probe() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        return helper.execCommand("uname", 60, out, out, "-a");
+    }
+
+    /**
+     * Kill of the whole synthetic tree.
+     */
+    @Benchmark
+    public KillResult killTree() throws Exception {
+        return helper.kill(StandInCygwin.ROOT_PID);
+    }
+}
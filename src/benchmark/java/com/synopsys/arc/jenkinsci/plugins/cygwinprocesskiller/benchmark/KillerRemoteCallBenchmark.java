@@ -0,0 +1,120 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.benchmark;
+
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.KillCoalescer;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.KillResult;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the master-side request path of {@code KillerRemoteCall}.
+ * {@code KillerRemoteCall} itself requires a running Jenkins instance and a
+ * remoting channel, so the benchmark drives {@link KillCoalescer}, which
+ * receives all requests of the call. Batches are executed by a stand-in,
+ * which simulates the script duration and reports the whole subtree as signalled.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Threads(16)
+public class KillerRemoteCallBenchmark {
+    /**
+     * Number of processes in each tree. Requests for all processes of the tree are sent concurrently.
+     */
+    @Param({"10", "200"})
+    public int treeSize;
+
+    /**
+     * Simulated duration of the kill script.
+     */
+    @Param({"5"})
+    public int scriptDurationMs;
+
+    private final AtomicInteger nextPid = new AtomicInteger(1);
+    private final AtomicLong launches = new AtomicLong();
+    private KillCoalescer coalescer;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        coalescer = new KillCoalescer(50, 5000);
+        launches.set(0);
+    }
+
+    /**
+     * Sends kill requests for processes of the trees.
+     * Each tree occupies a contiguous range of PIDs, which is reported as signalled.
+     */
+    @Benchmark
+    public KillResult killProcess(LaunchCounters counters) throws InterruptedException {
+        final int pid = nextPid.getAndIncrement();
+        KillResult result = coalescer.kill("benchmark", pid, new KillCoalescer.BatchKiller() {
+            @Override
+            public KillResult kill(int[] pids, Set<String> cookies) throws Exception {
+                launches.incrementAndGet();
+                Thread.sleep(scriptDurationMs);
+
+                int[] signalled = new int[pids.length * treeSize];
+                for (int i = 0; i < pids.length; i++) {
+                    int root = pids[i] - (pids[i] - 1) % treeSize;
+                    for (int j = 0; j < treeSize; j++) {
+                        signalled[i * treeSize + j] = root + j;
+                    }
+                }
+                return new KillResult(true, null, signalled);
+            }
+        });
+        counters.requests++;
+        counters.launches = launches.get();
+        return result;
+    }
+
+    /**
+     * Reports the number of script launches along with the number of requests.
+     */
+    @State(Scope.Thread)
+    @AuxCounters
+    public static class LaunchCounters {
+        public long requests;
+        public long launches;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.benchmark;
+
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.ProcessTreeIndex;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link ProcessTreeIndex} on generated process lists.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ProcessTreeIndexBenchmark {
+    @Param({"1000", "100000"})
+    public int processCount;
+
+    private String psOutput;
+    private ProcessTreeIndex index;
+    private int rootPid;
+
+    @Setup
+    public void setUp() {
+        // Random tree: parent of each process is one of the previous processes
+        Random random = new Random(42);
+        int[] pids = new int[processCount];
+        StringBuilder b = new StringBuilder("      UID     PID    PPID  TTY        STIME COMMAND\n");
+        for (int i = 0; i < processCount; i++) {
+            pids[i] = 1000 + i * 4;
+            int ppid = i == 0 ? 1 : pids[random.nextInt(i)];
+            b.append(" builder ").append(pids[i]).append(' ').append(ppid)
+                    .append(" pty0 10:00:00 /usr/bin/bash\n");
+        }
+        psOutput = b.toString();
+        index = ProcessTreeIndex.parsePsOutput(psOutput);
+        rootPid = pids[0];
+    }
+
+    @Benchmark
+    public ProcessTreeIndex parse() {
+        return ProcessTreeIndex.parsePsOutput(psOutput);
+    }
+
+    @Benchmark
+    public int[] killOrder() {
+        return index.getKillOrder(rootPid);
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller;
+
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.CircuitBreakerPolicy;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.CygwinKillHelper;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.KillStrategy;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.KillTimeouts;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.NodeCapabilityCache;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.NodeCircuitBreaker;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.ProcessSnapshotSource;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.Computer;
+import hudson.model.Hudson;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.Callable;
+import hudson.remoting.VirtualChannel;
+import hudson.util.LogTaskListener;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Killer settings, which are shipped from the master to agents.
+ * Agent-local execution mode uses these settings in order to run the kill
+ * script without a round trip to the master.
+ * Settings are pushed on agent connection and on each configuration change.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+public class AgentKillerSettings implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final Logger LOGGER = Logger.getLogger(AgentKillerSettings.class.getName());
+
+    /**
+     * Settings of the current JVM. Null if the agent-local execution is disabled.
+     */
+    private static volatile AgentKillerSettings current;
+
+    private final String nodeName;
+    private final String killScript;
+    private final String cygwinHome;
+    private final String tmpDir;
+    private final boolean usePersistentShell;
+    private final ProcessSnapshotSource snapshotSource;
+    private final ProcessSnapshotSource winPidSource;
+    private final KillStrategy killStrategy;
+    private final boolean killByCookie;
+    private final KillTimeouts timeouts;
+    private final CircuitBreakerPolicy breakerPolicy;
+
+    /**
+     * Capabilities of the agent.
+     * Values are resolved on-demand within the agent's JVM.
+     */
+    private transient NodeCapabilityCache.Entry capabilities;
+
+    public AgentKillerSettings(String nodeName, String killScript, String cygwinHome, String tmpDir, boolean usePersistentShell,
+            ProcessSnapshotSource snapshotSource, ProcessSnapshotSource winPidSource, KillStrategy killStrategy, 
+            boolean killByCookie, KillTimeouts timeouts, CircuitBreakerPolicy breakerPolicy) {
+        this.nodeName = nodeName;
+        this.killScript = killScript;
+        this.cygwinHome = cygwinHome;
+        this.tmpDir = tmpDir;
+        this.usePersistentShell = usePersistentShell;
+        this.snapshotSource = snapshotSource;
+        this.winPidSource = winPidSource;
+        this.killStrategy = killStrategy;
+        this.killByCookie = killByCookie;
+        this.timeouts = timeouts;
+        this.breakerPolicy = breakerPolicy;
+    }
+
+    /**
+     * Gets name of the node, which has received the settings.
+     * @return Node name ("" for the master)
+     */
+    public String getNodeName() {
+        return nodeName;
+    }
+
+    public String getKillScript() {
+        return killScript;
+    }
+
+    public String getCygwinHome() {
+        return cygwinHome;
+    }
+
+    public String getTmpDir() {
+        return tmpDir;
+    }
+
+    public boolean isUsePersistentShell() {
+        return usePersistentShell;
+    }
+
+    /**
+     * Gets source of process lists for resolution of process trees.
+     * @return Source or null if the kill script walks trees itself
+     */
+    public ProcessSnapshotSource getSnapshotSource() {
+        return snapshotSource;
+    }
+
+    /**
+     * Gets source of Windows PIDs, which are translated to Cygwin PIDs.
+     * @return Source or null if the translation is disabled
+     */
+    public ProcessSnapshotSource getWinPidSource() {
+        return winPidSource;
+    }
+
+    public KillStrategy getKillStrategy() {
+        return killStrategy;
+    }
+
+    /**
+     * Checks that processes with build cookies should be killed along with process trees.
+     */
+    public boolean isKillByCookie() {
+        return killByCookie;
+    }
+
+    public KillTimeouts getTimeouts() {
+        return timeouts;
+    }
+
+    public CircuitBreakerPolicy getBreakerPolicy() {
+        return breakerPolicy;
+    }
+
+    /**
+     * Gets capabilities of the local host.
+     * @return Cache entry with pre-resolved directories
+     */
+    public synchronized NodeCapabilityCache.Entry getCapabilities() {
+        if (capabilities == null) {
+            capabilities = new NodeCapabilityCache.Entry(nodeName);
+            if (cygwinHome != null) {
+                capabilities.setCygwinHome(new FilePath(new File(cygwinHome)));
+            }
+            capabilities.setTmpDir(new FilePath(new File(tmpDir)));
+        }
+        return capabilities;
+    }
+
+    /**
+     * Creates helper, which executes commands on the local host.
+     * @param listener Logger
+     * @return Helper, which uses capabilities of the settings
+     */
+    public CygwinKillHelper createHelper(TaskListener listener) {
+        return new CygwinKillHelper(listener, new Launcher.LocalLauncher(listener), getCapabilities(), 
+                killScript, usePersistentShell, snapshotSource, winPidSource, killStrategy, timeouts);
+    }
+
+    /**
+     * Releases resources, which have been allocated for the settings.
+     */
+    private synchronized void dispose() {
+        if (capabilities != null) {
+            capabilities.dispose();
+        }
+    }
+
+    /**
+     * Gets settings of the current JVM.
+     * @return Settings or null if the agent-local execution is disabled
+     */
+    public static AgentKillerSettings current() {
+        return current;
+    }
+
+    /**
+     * Pushes the current configuration to the node.
+     * @param c Target computer
+     */
+    public static void push(Computer c) {
+        VirtualChannel channel = c.getChannel();
+        Node node = c.getNode();
+        if (channel == null || node == null) {
+            return; // Node is offline
+        }
+
+        try {
+            channel.call(new InstallCall(forNode(node)));
+        } catch (Exception ex) {
+            LOGGER.log(Level.WARNING, "Cannot push Cygwin Process Killer settings to "+c.getName(), ex);
+        }
+    }
+
+    /**
+     * Constructs settings for the specified node.
+     * @param node Target node
+     * @return Settings or null if the agent-local execution should be disabled.
+     */
+    private static AgentKillerSettings forNode(Node node) throws IOException, InterruptedException {
+        CygwinProcessKillerPlugin plugin = CygwinProcessKillerPlugin.Instance();
+        if (!plugin.isEnableProcessKiller() || !plugin.isExecuteOnAgent()) {
+            return null;
+        }
+
+        FilePath root = node.getRootPath();
+        if (root == null) {
+            throw new IOException("Node " + node.getDisplayName() + " seems to be offline");
+        }
+
+        String home = null;
+        CygwinKillerInstallation tool = plugin.getToolInstallation();
+        if (tool != null) {
+            TaskListener listener = new LogTaskListener(LOGGER, Level.WARNING);
+            home = tool.forNode(node, listener).getHome();
+        }
+
+        String tmpDir = CygwinKillHelper.getTmpDir(root).getRemote();
+        return new AgentKillerSettings(node.getNodeName(), plugin.getKillScript(), home, tmpDir, plugin.isUsePersistentShell(),
+                plugin.getSnapshotSource(), plugin.getWinPidSource(), plugin.getEffectiveKillStrategy(), 
+                plugin.isCookieKillEnabled(), plugin.getTimeouts(), plugin.getCircuitBreakerPolicy());
+    }
+
+    /**
+     * Installs settings within the agent's JVM.
+     */
+    private static class InstallCall implements Callable<Void, IOException> {
+        private final AgentKillerSettings settings;
+
+        public InstallCall(AgentKillerSettings settings) {
+            this.settings = settings;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            if (settings != null) {
+                File tmp = new File(settings.getTmpDir());
+                if (!tmp.exists() && !tmp.mkdirs()) {
+                    throw new IOException("Cannot create temporary directory "+tmp);
+                }
+            }
+            AgentKillerSettings previous = current;
+            current = settings;
+            // New settings may fix failures on the agent
+            NodeCircuitBreaker.getInstance().resetAll();
+            if (previous != null) {
+                previous.dispose();
+            }
+            return null;
+        }
+    }
+}
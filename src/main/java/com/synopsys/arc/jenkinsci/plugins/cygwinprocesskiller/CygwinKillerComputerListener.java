@@ -0,0 +1,79 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller;
+
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.NodeCapabilityCache;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.NodeCircuitBreaker;
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.Hudson;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.slaves.ComputerListener;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tracks node state changes in order to keep cached node data up to date.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+@Extension
+public class CygwinKillerComputerListener extends ComputerListener {
+
+    @Override
+    public void onOnline(Computer c, TaskListener listener) throws IOException, InterruptedException {
+        NodeCapabilityCache.getInstance().invalidate(c.getName());
+        NodeCircuitBreaker.getInstance().reset(c.getName());
+        NodeWarmer.prepareAsync(c);
+    }
+
+    @Override
+    public void onOffline(Computer c) {
+        NodeCapabilityCache.getInstance().invalidate(c.getName());
+    }
+
+    /**
+     * Node configuration has been changed.
+     * Properties of nodes may change tool locations, so data of reconfigured
+     * nodes is being dropped and these nodes are being prepared again.
+     * Other nodes and states of circuit breakers are not affected.
+     */
+    @Override
+    public void onConfigurationChange() {
+        NodeCapabilityCache cache = NodeCapabilityCache.getInstance();
+        List<String> nodeNames = new ArrayList<String>();
+        for (Computer c : Hudson.getInstance().getComputers()) {
+            Node node = c.getNode();
+            if (node == null) {
+                continue;
+            }
+            nodeNames.add(node.getNodeName());
+            if (cache.invalidateIfReconfigured(node)) {
+                NodeWarmer.prepareAsync(c);
+            }
+        }
+        cache.retainAll(nodeNames);
+    }
+}
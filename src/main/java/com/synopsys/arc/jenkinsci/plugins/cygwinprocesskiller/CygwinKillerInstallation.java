@@ -64,6 +64,11 @@ public class CygwinKillerInstallation extends ToolInstallation implements NodeSp
         public void setInstallations(CygwinKillerInstallation... installations) {
             super.setInstallations(installations);
             save();
+            CygwinProcessKillerPlugin plugin = CygwinProcessKillerPlugin.Instance();
+            if (plugin != null) {
+                plugin.invalidateToolInstallation();
+            }
+            NodeWarmer.prepareAll();
         }
     }
 }
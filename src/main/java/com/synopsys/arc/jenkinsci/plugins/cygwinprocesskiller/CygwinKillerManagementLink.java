@@ -0,0 +1,114 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller;
+
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.KillMetrics;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.KillScheduler;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.KillTimeouts;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.NodeCapabilityCache;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.SweepHistory;
+import hudson.Extension;
+import hudson.model.Api;
+import hudson.model.ManagementLink;
+import java.util.List;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Management page of the Cygwin Process Killer.
+ * Statistics are also available via the JSON API ({@code /manage/cygwin-process-killer/api/json}).
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+@Extension
+@ExportedBean
+public class CygwinKillerManagementLink extends ManagementLink {
+
+    @Override
+    public String getIconFileName() {
+        return "clock.png";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "cygwin-process-killer";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return Messages.CygwinKillerManagementLink_DisplayName();
+    }
+
+    @Override
+    public String getDescription() {
+        return Messages.CygwinKillerManagementLink_Description();
+    }
+
+    public Api getApi() {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        return new Api(this);
+    }
+
+    @Exported(inline = true)
+    public KillMetrics getMetrics() {
+        return KillMetrics.getInstance();
+    }
+
+    @Exported(inline = true)
+    public KillScheduler getScheduler() {
+        return KillScheduler.getInstance();
+    }
+
+    /**
+     * Gets current timeouts.
+     * Used by the page in order to display adaptive deadlines of nodes.
+     */
+    public KillTimeouts getTimeouts() {
+        return CygwinProcessKillerPlugin.Instance().getTimeouts();
+    }
+
+    /**
+     * Gets readiness of nodes, which have been warmed up.
+     */
+    @Exported(inline = true)
+    public List<NodeCapabilityCache.Entry> getNodes() {
+        return NodeCapabilityCache.getInstance().getEntries();
+    }
+
+    /**
+     * Gets recent results of the orphan reaper.
+     */
+    @Exported(inline = true)
+    public SweepHistory getSweeps() {
+        return SweepHistory.getInstance();
+    }
+
+    /**
+     * Gets query page of the kill history.
+     * The history is not exported here, because it is stored on the disk.
+     */
+    public KillHistoryView getHistory() {
+        return new KillHistoryView();
+    }
+}
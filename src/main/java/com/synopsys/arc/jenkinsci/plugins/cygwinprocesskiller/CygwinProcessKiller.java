@@ -23,22 +23,40 @@
  */
 package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller;
 
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.CircuitBreakerPolicy;
 import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.CygwinKillHelper;
 import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.CygwinKillerException;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.KillCoalescer;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.KillEvent;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.KillMetrics;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.KillOutcome;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.KillPhase;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.KillResult;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.KillScheduler;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.NodeCircuitBreaker;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.RecentKills;
 import hudson.Extension;
 import hudson.model.Hudson;
 import hudson.model.Node;
 import hudson.model.TaskListener;
 import hudson.remoting.Callable;
 import hudson.remoting.Channel;
+import hudson.remoting.VirtualChannel;
 import hudson.slaves.SlaveComputer;
 import hudson.util.LogTaskListener;
 import hudson.util.ProcessKiller;
 import hudson.util.ProcessTree;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import jenkins.model.Jenkins;
 import org.apache.commons.lang.SystemUtils;
 
 /**
@@ -50,6 +68,17 @@ import org.apache.commons.lang.SystemUtils;
 public class CygwinProcessKiller extends ProcessKiller {
     private static final Level KILLER_LOGGING_LEVEL = Level.WARNING;
     private static final String KILLER_LOGGER_NAME = "global";
+    private static final Logger LOGGER = Logger.getLogger(CygwinProcessKiller.class.getName());
+    /**
+     * Kills, which take longer than this threshold, are being reported in the log.
+     */
+    private static final long SLOW_KILL_THRESHOLD_MS = Long.getLong(
+            CygwinProcessKiller.class.getName() + ".slowKillThresholdMs", 10000);
+    private static final RecentKills RECENT_KILLS = new RecentKills(5000);
+    /**
+     * Environment variable, which is set by Jenkins for all processes of the build.
+     */
+    public static final String COOKIE_VARIABLE = "JENKINS_NODE_COOKIE";
 
     @Override
     public boolean kill(ProcessTree.OSProcess process) throws IOException, InterruptedException {       
@@ -57,22 +86,251 @@ public class CygwinProcessKiller extends ProcessKiller {
             return false;
         } 
         
+        int pid = process.getPid();
+        long startTime = System.currentTimeMillis();
+        AgentKillerSettings settings = AgentKillerSettings.current();
+        if (settings != null) {
+            String cookie = settings.isKillByCookie() ? getCookie(process) : null;
+            try {
+                TaskListener listener = new LogTaskListener(Logger.getLogger(KILLER_LOGGER_NAME), KILLER_LOGGING_LEVEL);
+                CygwinKillHelper helper = settings.createHelper(listener);
+                KillReport report = runWithDeadline(new HelperBatchKiller(helper), pid, cookie, 
+                        helper.getTotalDeadlineSec(), settings.getBreakerPolicy(), settings.getNodeName());
+                return checkReport(pid, report, startTime);
+            } catch (ExecutionException ex) {
+                //TODO: log errors in the local log
+                return false;
+            }
+        }
+        
+        // The process may be already killed with the tree of another process
+        if (RECENT_KILLS.isKilled(pid)) {
+            return true;
+        }
+        
+        // The call is asynchronous, deadlines are being controlled by the master
+        // The master decides whether the cookie is being used
+        Future<KillReport> future = SlaveComputer.getChannelToMaster().callAsync(new KillerRemoteCall(pid, getCookie(process)));
         try {
-            KillReport report = SlaveComputer.getChannelToMaster().call(new KillerRemoteCall(process.getPid()));
-            return report.isKilledSuccessfully();
-        } catch (CygwinKillerException ex) {
+            KillReport report = future.get();
+            if (report.isKilledSuccessfully()) {
+                RECENT_KILLS.add(report.signalledPIDs, report.survivorPIDs);
+            }
+            return checkReport(pid, report, startTime);
+        } catch (ExecutionException ex) {
             //TODO: log errors in the local log
             return false;
+        } catch (InterruptedException ex) {
+            future.cancel(true);
+            throw ex;
         }
     }    
+    
+    /**
+     * Gets cookie of the build, which has started the process.
+     * Jenkins reads environments of all processes in order to find the build's 
+     * processes, so the environment is usually cached within the process object.
+     * @param process Process to be killed
+     * @return Environment variable in the {@code NAME=VALUE} format or null if the process has no cookie
+     */
+    private static String getCookie(ProcessTree.OSProcess process) {
+        try {
+            String value = process.getEnvironmentVariables().get(COOKIE_VARIABLE);
+            return value != null ? COOKIE_VARIABLE + "=" + value : null;
+        } catch (RuntimeException ex) { 
+            // Environments of some processes cannot be read
+            LOGGER.log(Level.FINE, "Cannot read environment of the process " + process.getPid(), ex);
+            return null;
+        }
+    }
+    
+    /**
+     * Reports slow and partial kills in the log.
+     * @param pid PID of the requested process
+     * @param report Report of the kill
+     * @param startTime Start time of the request
+     * @return true if the process has been killed
+     */
+    private static boolean checkReport(int pid, KillReport report, long startTime) {
+        long duration = System.currentTimeMillis() - startTime;
+        if (report.isPartial()) {
+            LOGGER.log(Level.WARNING, "Kill of the process {0} has been partial: {1}", 
+                    new Object[] {pid, report});
+        } else if (duration > SLOW_KILL_THRESHOLD_MS) {
+            LOGGER.log(Level.WARNING, "Kill of the process {0} has taken {1} ms: {2}", 
+                    new Object[] {pid, duration, report});
+        }
+        return report.isKilledSuccessfully();
+    }
+    
+    /**
+     * Runs kill request with the deadline of the whole operation.
+     * Request is being merged with other requests for the node by {@link KillCoalescer}, 
+     * batches are executed by {@link KillScheduler}. The deadline includes
+     * the time in the scheduler's queue. Request will be cancelled after the
+     * deadline, so stuck processes do not block the calling thread.
+     * Requests for nodes, where the killer cannot run, are being rejected by {@link NodeCircuitBreaker}.
+     * Results of all requests are being stored in the kill history of the master.
+     * @param killer Performs kills of merged batches
+     * @param pid PID of the requested process
+     * @param cookie Cookie of the process' build in the {@code NAME=VALUE} format. May be null
+     * @param deadlineSec Deadline of the whole request in seconds
+     * @param breakerPolicy Thresholds of the circuit breaker
+     * @param nodeName Name of the node, which is affected by the task
+     * @return Kill report
+     * @throws ExecutionException Kill request has failed
+     * @throws InterruptedException Operation has been interrupted
+     */
+    private static KillReport runWithDeadline(KillCoalescer.BatchKiller killer, int pid, String cookie,
+            int deadlineSec, CircuitBreakerPolicy breakerPolicy, String nodeName) 
+            throws ExecutionException, InterruptedException {
+        NodeCircuitBreaker breaker = NodeCircuitBreaker.getInstance();
+        if (!breaker.tryAcquire(nodeName, breakerPolicy)) {
+            KillReport report = new KillReport(false, Messages.Message_KillerSuspended());
+            recordEvent(nodeName, pid, report, 0);
+            return report;
+        }
+        
+        KillMetrics.NodeMetrics metrics = KillMetrics.getInstance().forNode(nodeName);
+        long startTime = System.currentTimeMillis();
+        Future<KillResult> future = KillCoalescer.getInstance().submit(nodeName, pid, cookie, killer);
+        try {
+            KillReport report = KillReport.fromResult(future.get(deadlineSec, TimeUnit.SECONDS), pid);
+            report.phaseDurations[KillPhase.CALL.ordinal()] = System.currentTimeMillis() - startTime;
+            if (report.isNotApplicable()) {
+                // Nodes, which run another platform, are skipped. It is not a failure of the killer
+                breaker.onAbort(nodeName);
+                return report;
+            }
+            if (report.isKilledSuccessfully()) {
+                metrics.recordSuccess();
+            } else {
+                metrics.recordFailure();
+            }
+            
+            // Failed kills are fine as long as the script has been executed
+            if (report.getExitCode() != KillResult.NO_EXIT_CODE) {
+                breaker.onSuccess(nodeName);
+            } else {
+                breaker.onFailure(nodeName, breakerPolicy, report.getErrorMessage());
+            }
+            recordEvent(nodeName, pid, report, System.currentTimeMillis() - startTime);
+            return report;
+        } catch (TimeoutException ex) {
+            future.cancel(true);
+            metrics.recordTimeout();
+            String message = Messages.Message_KillTimedOut(deadlineSec);
+            breaker.onFailure(nodeName, breakerPolicy, message);
+            KillReport report = new KillReport(false, message);
+            recordEvent(nodeName, pid, report, System.currentTimeMillis() - startTime);
+            return report;
+        } catch (ExecutionException ex) {
+            metrics.recordFailure();
+            breaker.onFailure(nodeName, breakerPolicy, String.valueOf(ex.getCause()));
+            recordEvent(nodeName, pid, new KillReport(false, String.valueOf(ex.getCause())), 
+                    System.currentTimeMillis() - startTime);
+            throw ex;
+        } catch (InterruptedException ex) {
+            future.cancel(true);
+            breaker.onAbort(nodeName);
+            throw ex;
+        } finally {
+            metrics.recordPhase(KillPhase.CALL, startTime);
+        }
+    }
+    
+    /**
+     * Stores result of the request in the kill history.
+     * Agents send events to the master asynchronously, so kills are not delayed by the history.
+     * Events are dropped if there is no master, e.g. on agents, which are being disconnected.
+     * Kills never fail due to the history.
+     * @param nodeName Name of the node
+     * @param pid PID of the requested process
+     * @param report Report of the kill
+     * @param durationMs Duration of the request
+     */
+    private static void recordEvent(String nodeName, int pid, KillReport report, long durationMs) {
+        KillEvent event = new KillEvent(System.currentTimeMillis(), nodeName, pid, report.signalledPIDs.length, 
+                durationMs, report.getExitCode(), 
+                KillOutcome.of(report.isKilledSuccessfully(), report.isPartial(), report.getExitCode()));
+        VirtualChannel channel = SlaveComputer.getChannelToMaster();
+        try {
+            if (channel != null) {
+                channel.callAsync(new RecordEventCall(event));
+            } else if (Jenkins.getInstance() != null) {
+                new RecordEventCall(event).call();
+            } else {
+                LOGGER.log(Level.FINE, "Channel to the master is not available, the kill event of the process {0} on {1} has been dropped", 
+                        new Object[] {pid, nodeName});
+            }
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Cannot store the kill event in the history", ex);
+        } catch (RuntimeException ex) {
+            LOGGER.log(Level.WARNING, "Cannot store the kill event in the history", ex);
+        }
+    }
+    
+    /**
+     * Kills merged batches by the helper.
+     * The platform is being checked once per batch. Only nodes, where the probe
+     * reports another platform, are skipped. Failed probes fail the batch, so
+     * they are handled by the circuit breaker like other failed kills.
+     */
+    private static class HelperBatchKiller implements KillCoalescer.BatchKiller {
+        private final CygwinKillHelper helper;
+
+        public HelperBatchKiller(CygwinKillHelper helper) {
+            this.helper = helper;
+        }
+        
+        @Override
+        public KillResult kill(int[] pids, Set<String> cookies) throws Exception {
+            if (!helper.isCygwin()) {
+                return KillResult.notApplicable(Messages.Message_CygwinCheckFailed());
+            }
+            return helper.kill(pids, cookies);
+        }
+    }
         
+    /**
+     * Report of the kill, which is being returned to the requester.
+     * Report is being passed over the channel, so lists are stored as plain arrays.
+     */
     public static class KillReport implements Serializable {
-        private boolean killedSuccessfully;
-        private String errorMessage;
+        private static final long serialVersionUID = 1L;
+        private static final int[] NO_PIDS = new int[0];
+        
+        private final boolean killedSuccessfully;
+        private final String errorMessage;
+        /**
+         * Sorted list of PIDs, which have been signalled.
+         */
+        private final int[] signalledPIDs;
+        /**
+         * Sorted list of PIDs, which are still alive after the kill.
+         */
+        private final int[] survivorPIDs;
+        private final int exitCode;
+        /**
+         * Durations of phases in milliseconds, indexed by {@link KillPhase#ordinal()}.
+         */
+        private final long[] phaseDurations;
+        private final boolean notApplicable;
 
         public KillReport(boolean killedSuccessfully, String errorMessage) {
+            this(killedSuccessfully, errorMessage, NO_PIDS, NO_PIDS, KillResult.NO_EXIT_CODE, 
+                    KillResult.newPhaseDurations(), false);
+        }
+
+        private KillReport(boolean killedSuccessfully, String errorMessage, int[] signalledPIDs, 
+                int[] survivorPIDs, int exitCode, long[] phaseDurations, boolean notApplicable) {
             this.killedSuccessfully = killedSuccessfully;
             this.errorMessage = errorMessage;
+            this.signalledPIDs = signalledPIDs;
+            this.survivorPIDs = survivorPIDs;
+            this.exitCode = exitCode;
+            this.phaseDurations = phaseDurations;
+            this.notApplicable = notApplicable;
         }
 
         public boolean isKilledSuccessfully() {
@@ -82,13 +340,94 @@ public class CygwinProcessKiller extends ProcessKiller {
         public String getErrorMessage() {
             return errorMessage;
         }
+
+        public int[] getSignalledPIDs() {
+            return signalledPIDs.clone();
+        }
+
+        /**
+         * Checks that the killer is not applicable to the node, e.g. Cygwin is not installed there.
+         */
+        public boolean isNotApplicable() {
+            return notApplicable;
+        }
+
+        public int[] getSurvivorPIDs() {
+            return survivorPIDs.clone();
+        }
+
+        /**
+         * Gets exit code of the kill script.
+         * @return Exit code or {@link KillResult#NO_EXIT_CODE} if the script has not been executed
+         */
+        public int getExitCode() {
+            return exitCode;
+        }
+
+        /**
+         * Gets duration of the phase.
+         * @param phase Kill phase
+         * @return Duration in milliseconds or {@link KillResult#NOT_EXECUTED}
+         */
+        public long getPhaseDuration(KillPhase phase) {
+            return phaseDurations[phase.ordinal()];
+        }
+
+        /**
+         * Checks that some signalled processes have survived the kill.
+         */
+        public boolean isPartial() {
+            return survivorPIDs.length != 0;
+        }
+        
+        /**
+         * Creates report for the requested process.
+         * @param result Result of the batch, which has covered the process
+         * @param pid PID of the requested process
+         * @return Kill report
+         */
+        public static KillReport fromResult(KillResult result, int pid) {
+            boolean killed = result.isSuccess() && !result.isSurvivor(pid);
+            String errorMessage = result.getErrorMessage();
+            if (errorMessage == null && !killed) {
+                errorMessage = Messages.Message_ProcessSurvived(pid);
+            }
+            return new KillReport(killed, errorMessage, result.getSignalledPIDs(), result.getSurvivorPIDs(), 
+                    result.getExitCode(), result.getPhaseDurations(), result.isNotApplicable());
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder b = new StringBuilder();
+            b.append(killedSuccessfully ? "killed" : "failed");
+            if (errorMessage != null) {
+                b.append(" (").append(errorMessage).append(')');
+            }
+            b.append(", signalled=").append(signalledPIDs.length);
+            b.append(", survivors=").append(Arrays.toString(survivorPIDs));
+            b.append(", exitCode=").append(exitCode);
+            for (KillPhase phase : KillPhase.values()) {
+                long duration = phaseDurations[phase.ordinal()];
+                if (duration != KillResult.NOT_EXECUTED) {
+                    b.append(", ").append(phase).append('=').append(duration).append("ms");
+                }
+            }
+            return b.toString();
+        }
     }
     
     public static class KillerRemoteCall implements Callable<KillReport, CygwinKillerException> {
         private final int processPID;
+        private final String cookie;
        
-        public KillerRemoteCall(int processPID) {
+        /**
+         * Constructs call.
+         * @param processPID PID of the process to be killed
+         * @param cookie Cookie of the process' build in the {@code NAME=VALUE} format. May be null
+         */
+        public KillerRemoteCall(int processPID, String cookie) {
             this.processPID = processPID;
+            this.cookie = cookie;
         }
         
         @Override
@@ -102,19 +441,45 @@ public class CygwinProcessKiller extends ProcessKiller {
             TaskListener listener = new LogTaskListener(Logger.getLogger(KILLER_LOGGER_NAME), KILLER_LOGGING_LEVEL);
             String nodeName = Channel.current().getName();        
             Node targetNode = Hudson.getInstance().getNode(nodeName);
+            if (targetNode == null) {
+                // The node has been removed while its processes were being killed
+                return new KillReport(false, Messages.Message_NodeNotFound(nodeName));
+            }
             CygwinKillerInstallation tool = plugin.getToolInstallation();
+            String killCookie = plugin.isCookieKillEnabled() ? cookie : null;
 
-            // Run helper, which checks platform and then runs kill script
-            CygwinKillHelper helper = new CygwinKillHelper(listener, targetNode, tool, processPID);
+            // Run helper, which checks platform and then runs kill script.
+            // Concurrent requests for the node are merged into a single script call
+            CygwinKillHelper helper = new CygwinKillHelper(listener, targetNode, tool);
             
             try {
-                if (!helper.isCygwin()) {
-                   return new KillReport(false, Messages.Message_CygwinCheckFailed());
-                }                    
-                return new KillReport(helper.kill(), null);
-             } catch (Exception ex) {
-                 throw new CygwinKillerException(ex.getMessage());
-             }        
+                return runWithDeadline(new HelperBatchKiller(helper), processPID, killCookie, 
+                        helper.getTotalDeadlineSec(), plugin.getCircuitBreakerPolicy(), nodeName);
+            } catch (ExecutionException ex) {
+                throw new CygwinKillerException(ex.getCause().getMessage());
+            } catch (InterruptedException ex) {
+                throw new CygwinKillerException(ex.getMessage());
+            }        
         }     
     }
+    
+    /**
+     * Stores event of the agent-local kill in the master's history.
+     */
+    public static class RecordEventCall implements Callable<Void, IOException> {
+        private final KillEvent event;
+
+        public RecordEventCall(KillEvent event) {
+            this.event = event;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            CygwinProcessKillerPlugin plugin = CygwinProcessKillerPlugin.Instance();
+            if (plugin != null) {
+                plugin.recordKill(event);
+            }
+            return null;
+        }
+    }
 }
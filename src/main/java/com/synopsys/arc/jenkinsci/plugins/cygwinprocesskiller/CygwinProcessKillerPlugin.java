@@ -23,13 +23,27 @@
  */
 package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller;
 
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.CircuitBreakerPolicy;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.KillEvent;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.KillHistory;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.KillStrategy;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.KillTimeouts;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.NodeCapabilityCache;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.NodeCircuitBreaker;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.ProcessSnapshotSource;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.ProcfsSnapshotSource;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.PsSnapshotSource;
+import hudson.Util;
 import hudson.Plugin;
 import hudson.model.Descriptor;
 import hudson.model.Hudson;
 import hudson.util.IOUtils;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
 import javax.servlet.ServletException;
 import jenkins.model.Jenkins;
 import net.sf.json.JSONObject;
@@ -43,24 +57,253 @@ public class CygwinProcessKillerPlugin extends Plugin {
 
     private String killScript;
     private boolean enableProcessKiller;
+    private boolean executeOnAgent;
+    private boolean usePersistentShell;
+    private Integer probeTimeoutSec;
+    private Integer killTimeoutSec;
+    private Integer gracePeriodSec;
+    private boolean adaptiveTimeouts;
+    private Integer adaptiveFloorSec;
+    private Double safetyFactor;
+    private String procRoot;
+    private KillStrategy killStrategy;
+    private boolean killByCookie;
+    private boolean enableOrphanReaper;
+    private Integer reaperIntervalMin;
+    private Integer reaperNodeLimit;
+    private String reaperAllowlist;
+    private Integer breakerFailureThreshold;
+    private Integer breakerOpenTimeSec;
     private CygwinInstallation cygwinInstallation;
     private transient String defaultKillScript;
+    private transient volatile CygwinKillerInstallation toolInstallation;
+    private transient KillHistory killHistory;
     
     public static final String PLUGIN_NAME="cygwin-process";
     private static final String KILLSCRIPT_NAME="cygwin_killproc.bash";    
+    private static final String HISTORY_FILE_NAME="cygwin-process-killer/kill-history.bin";
     
+    /**
+     * Gets kill script.
+     * @return Configured kill script or the default one if it has not been configured
+     */
     public String getKillScript() {
-        return killScript;
+        return killScript != null ? killScript : defaultKillScript;
     }
     
     public String getDefaultKillScript() {
         return defaultKillScript;
     }
+    
+    /**
+     * Checks that the default kill script is being used.
+     * Line endings are ignored, because browsers submit scripts with CRLF.
+     */
+    public boolean isDefaultKillScript() {
+        if (killScript == null) {
+            return true;
+        }
+        return defaultKillScript != null 
+                && killScript.replace("\r\n", "\n").equals(defaultKillScript.replace("\r\n", "\n"));
+    }
 
     public boolean isEnableProcessKiller() {
         return enableProcessKiller;
     }
 
+    public boolean isExecuteOnAgent() {
+        return executeOnAgent;
+    }
+
+    public boolean isUsePersistentShell() {
+        return usePersistentShell;
+    }
+
+    public int getProbeTimeoutSec() {
+        return probeTimeoutSec != null ? probeTimeoutSec : KillTimeouts.DEFAULT_PROBE_TIMEOUT_SEC;
+    }
+
+    public int getKillTimeoutSec() {
+        return killTimeoutSec != null ? killTimeoutSec : KillTimeouts.DEFAULT_KILL_TIMEOUT_SEC;
+    }
+
+    public int getGracePeriodSec() {
+        return gracePeriodSec != null ? gracePeriodSec : KillTimeouts.DEFAULT_GRACE_PERIOD_SEC;
+    }
+    
+    /**
+     * Gets grace period, which should be passed to the kill script.
+     * Custom kill scripts may not support the grace period option. E.g. copies
+     * of the default script from older versions treat it as a signal specification.
+     * @return Grace period in seconds. 0 for custom kill scripts
+     */
+    public int getEffectiveGracePeriodSec() {
+        return isDefaultKillScript() ? getGracePeriodSec() : 0;
+    }
+    
+    public boolean isAdaptiveTimeouts() {
+        return adaptiveTimeouts;
+    }
+
+    public int getAdaptiveFloorSec() {
+        return adaptiveFloorSec != null ? adaptiveFloorSec : KillTimeouts.DEFAULT_ADAPTIVE_FLOOR_SEC;
+    }
+
+    public double getSafetyFactor() {
+        return safetyFactor != null ? safetyFactor : KillTimeouts.DEFAULT_SAFETY_FACTOR;
+    }
+    
+    /**
+     * Gets procfs directory, which is used for process snapshots.
+     * @return Path on nodes or null if snapshots are taken by ps
+     */
+    public String getProcRoot() {
+        return procRoot;
+    }
+    
+    /**
+     * Gets source of process lists for resolution of process trees.
+     * Trees are resolved by the plugin only if the snapshot does not launch processes.
+     * Otherwise the default kill script takes its own single snapshot by {@code ps}.
+     * Custom kill scripts walk process trees themselves.
+     * @return Snapshot source or null if the kill script walks trees itself
+     */
+    public ProcessSnapshotSource getSnapshotSource() {
+        return isDefaultKillScript() && procRoot != null ? new ProcfsSnapshotSource(procRoot) : null;
+    }
+    
+    /**
+     * Gets source of Windows PIDs, which are translated to Cygwin PIDs before kills.
+     * Translation does not depend on the kill script.
+     * @return Snapshot source
+     */
+    public ProcessSnapshotSource getWinPidSource() {
+        return procRoot != null ? new ProcfsSnapshotSource(procRoot) : new PsSnapshotSource();
+    }
+    
+    /**
+     * Gets configured kill strategy.
+     * @return Strategy. {@link KillStrategy#TREE} if it has not been configured
+     */
+    public KillStrategy getKillStrategy() {
+        return killStrategy != null ? killStrategy : KillStrategy.TREE;
+    }
+    
+    /**
+     * Gets kill strategy, which should be passed to the kill script.
+     * Custom kill scripts may not support process group options.
+     * @return Strategy. {@link KillStrategy#TREE} for custom kill scripts
+     */
+    public KillStrategy getEffectiveKillStrategy() {
+        return isDefaultKillScript() ? getKillStrategy() : KillStrategy.TREE;
+    }
+    
+    public boolean isKillByCookie() {
+        return killByCookie;
+    }
+    
+    /**
+     * Checks that processes with build cookies should be killed along with process trees.
+     * Custom kill scripts may not support the cookie option.
+     */
+    public boolean isCookieKillEnabled() {
+        return killByCookie && isDefaultKillScript();
+    }
+    
+    public boolean isEnableOrphanReaper() {
+        return enableOrphanReaper;
+    }
+    
+    /**
+     * Checks that orphaned processes should be swept on idle nodes.
+     * The reaper requires the {@code -n} option of the default kill script.
+     */
+    public boolean isOrphanReaperEnabled() {
+        return enableProcessKiller && enableOrphanReaper && isDefaultKillScript();
+    }
+
+    public int getReaperIntervalMin() {
+        return reaperIntervalMin != null ? reaperIntervalMin : OrphanReaper.DEFAULT_INTERVAL_MIN;
+    }
+
+    public int getReaperNodeLimit() {
+        return reaperNodeLimit != null ? reaperNodeLimit : OrphanReaper.DEFAULT_NODE_LIMIT;
+    }
+    
+    /**
+     * Gets commands, which are never killed by the orphan reaper.
+     * @return Commands separated by whitespaces or commas
+     */
+    public String getReaperAllowlist() {
+        return reaperAllowlist != null ? reaperAllowlist : OrphanReaper.DEFAULT_ALLOWLIST;
+    }
+    
+    /**
+     * Gets parsed list of commands, which are never killed by the orphan reaper.
+     * @return Modifiable list of commands
+     */
+    public List<String> getReaperAllowlistEntries() {
+        List<String> res = new ArrayList<String>();
+        for (String command : getReaperAllowlist().split("[\\s,]+")) {
+            if (command.length() != 0) {
+                res.add(command);
+            }
+        }
+        return res;
+    }
+    
+    public KillStrategy[] getKillStrategies() {
+        return KillStrategy.values();
+    }
+    
+    public KillTimeouts getTimeouts() {
+        return new KillTimeouts(getProbeTimeoutSec(), getKillTimeoutSec(), getEffectiveGracePeriodSec(), 
+                adaptiveTimeouts, getAdaptiveFloorSec(), getSafetyFactor());
+    }
+
+    public int getBreakerFailureThreshold() {
+        return breakerFailureThreshold != null ? breakerFailureThreshold : CircuitBreakerPolicy.DEFAULT_FAILURE_THRESHOLD;
+    }
+
+    public int getBreakerOpenTimeSec() {
+        return breakerOpenTimeSec != null ? breakerOpenTimeSec : CircuitBreakerPolicy.DEFAULT_OPEN_TIME_SEC;
+    }
+    
+    public CircuitBreakerPolicy getCircuitBreakerPolicy() {
+        return new CircuitBreakerPolicy(getBreakerFailureThreshold(), getBreakerOpenTimeSec());
+    }
+    
+    /**
+     * Gets circuit breaker of the master.
+     * Used by the configuration page in order to display states of nodes.
+     */
+    public NodeCircuitBreaker getCircuitBreaker() {
+        return NodeCircuitBreaker.getInstance();
+    }
+
+    /**
+     * Gets kill history of the master.
+     * History file is being opened on the first access.
+     * @return Kill history
+     * @throws IOException History file cannot be opened
+     */
+    public synchronized KillHistory getKillHistory() throws IOException {
+        if (killHistory == null) {
+            killHistory = new KillHistory(new File(Jenkins.getInstance().getRootDir(), HISTORY_FILE_NAME), 
+                    KillHistory.DEFAULT_CAPACITY);
+        }
+        return killHistory;
+    }
+    
+    /**
+     * Stores the kill in the history.
+     * @param event Kill event
+     * @throws IOException Event cannot be written
+     */
+    public void recordKill(KillEvent event) throws IOException {
+        getKillHistory().append(event);
+    }
+
     public CygwinInstallation getCygwinInstallation() {
         return cygwinInstallation;
     }
@@ -73,9 +316,29 @@ public class CygwinProcessKillerPlugin extends Plugin {
     @Override
     public void configure(StaplerRequest req, JSONObject formData) throws IOException, ServletException, Descriptor.FormException {
         this.enableProcessKiller = formData.getBoolean("enableProcessKiller");
+        this.executeOnAgent = formData.optBoolean("executeOnAgent", false);
+        this.usePersistentShell = formData.optBoolean("usePersistentShell", false);
+        this.probeTimeoutSec = Math.max(1, formData.optInt("probeTimeoutSec", KillTimeouts.DEFAULT_PROBE_TIMEOUT_SEC));
+        this.killTimeoutSec = Math.max(1, formData.optInt("killTimeoutSec", KillTimeouts.DEFAULT_KILL_TIMEOUT_SEC));
+        this.gracePeriodSec = Math.max(0, formData.optInt("gracePeriodSec", KillTimeouts.DEFAULT_GRACE_PERIOD_SEC));
+        this.adaptiveTimeouts = formData.optBoolean("adaptiveTimeouts", false);
+        this.adaptiveFloorSec = Math.max(1, formData.optInt("adaptiveFloorSec", KillTimeouts.DEFAULT_ADAPTIVE_FLOOR_SEC));
+        this.safetyFactor = Math.max(1.0, formData.optDouble("safetyFactor", KillTimeouts.DEFAULT_SAFETY_FACTOR));
+        this.breakerFailureThreshold = Math.max(0, formData.optInt("breakerFailureThreshold", CircuitBreakerPolicy.DEFAULT_FAILURE_THRESHOLD));
+        this.breakerOpenTimeSec = Math.max(1, formData.optInt("breakerOpenTimeSec", CircuitBreakerPolicy.DEFAULT_OPEN_TIME_SEC));
+        this.procRoot = Util.fixEmptyAndTrim(formData.optString("procRoot"));
+        this.killByCookie = formData.optBoolean("killByCookie", false);
+        this.enableOrphanReaper = formData.optBoolean("enableOrphanReaper", false);
+        this.reaperIntervalMin = Math.max(1, formData.optInt("reaperIntervalMin", OrphanReaper.DEFAULT_INTERVAL_MIN));
+        this.reaperNodeLimit = Math.max(1, formData.optInt("reaperNodeLimit", OrphanReaper.DEFAULT_NODE_LIMIT));
+        this.reaperAllowlist = formData.optString("reaperAllowlist", OrphanReaper.DEFAULT_ALLOWLIST);
+        this.killStrategy = KillStrategy.valueOf(formData.optString("killStrategy", KillStrategy.TREE.name()));
         this.killScript = formData.getString("killScript");
         this.cygwinInstallation = req.bindJSON(CygwinInstallation.class, formData.getJSONObject("cygwinInstallation"));
         save();
+        invalidateToolInstallation();
+        NodeCircuitBreaker.getInstance().resetAll();
+        NodeWarmer.prepareAll();
     }
     
     @Override 
@@ -83,6 +346,14 @@ public class CygwinProcessKillerPlugin extends Plugin {
         super.load();
     }
     
+    @Override
+    public synchronized void stop() throws Exception {
+        if (killHistory != null) {
+            killHistory.close();
+            killHistory = null;
+        }
+    }
+    
     @Override
     public void postInitialize() throws Exception {     
         InputStream str = CygwinProcessKillerPlugin.class.getResourceAsStream(KILLSCRIPT_NAME);
@@ -95,7 +366,30 @@ public class CygwinProcessKillerPlugin extends Plugin {
         return CygwinInstallation.DESCRIPTOR;
     }
     
+    /**
+     * Gets tool installation, which is selected in the configuration.
+     * Result is being cached till the next configuration change.
+     * @return Tool installation or null if it is not configured or cannot be found
+     */
     public CygwinKillerInstallation getToolInstallation() {
+        CygwinKillerInstallation res = toolInstallation;
+        if (res == null) {
+            res = findToolInstallation();
+            toolInstallation = res;
+        }
+        return res;
+    }
+    
+    /**
+     * Drops cached tool installation and node-specific data.
+     * Should be invoked on changes of the plugin's or tools' configuration.
+     */
+    public void invalidateToolInstallation() {
+        toolInstallation = null;
+        NodeCapabilityCache.getInstance().invalidateAll();
+    }
+    
+    private CygwinKillerInstallation findToolInstallation() {
         if (cygwinInstallation == null) {
             return null;
         }
@@ -0,0 +1,131 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller;
+
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.KillEvent;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.KillHistory;
+import hudson.Util;
+import hudson.model.Api;
+import java.io.IOException;
+import java.util.List;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.Stapler;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Query page of the kill history.
+ * Events are available via the JSON API 
+ * ({@code /manage/cygwin-process-killer/history/api/json?node=...&limit=...&from=...&to=...}).
+ * Parameters are optional, {@code from} and {@code to} are timestamps in milliseconds.
+ * The master's node is named {@code (master)}.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+@ExportedBean
+public class KillHistoryView {
+    public static final int DEFAULT_LIMIT = 100;
+    public static final int MAX_LIMIT = 10000;
+    public static final String MASTER_NODE_NAME = "(master)";
+
+    public Api getApi() {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        return new Api(this);
+    }
+
+    public KillHistory getHistory() throws IOException {
+        return CygwinProcessKillerPlugin.Instance().getKillHistory();
+    }
+
+    /**
+     * Gets the requested node.
+     * @return Name of the node ("" for the master) or null for all nodes
+     */
+    public String getNode() {
+        String node = getParameter("node");
+        return MASTER_NODE_NAME.equals(node) ? "" : node;
+    }
+
+    public int getLimit() {
+        long limit = getLongParameter("limit", DEFAULT_LIMIT);
+        return (int) Math.max(1, Math.min(limit, MAX_LIMIT));
+    }
+
+    public long getFrom() {
+        return getLongParameter("from", 0);
+    }
+
+    public long getTo() {
+        return getLongParameter("to", Long.MAX_VALUE);
+    }
+
+    /**
+     * Gets events, which match the request.
+     * Time range is used only if one of its bounds is specified.
+     * @return Events, the newest one goes first
+     */
+    @Exported(inline = true)
+    public List<KillEvent> getEvents() throws IOException {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        if (getParameter("from") == null && getParameter("to") == null) {
+            return getHistory().getLast(getNode(), getLimit());
+        }
+        return getHistory().getRange(getNode(), getFrom(), getTo(), getLimit());
+    }
+
+    /**
+     * Gets nodes, which have events in the history.
+     */
+    @Exported
+    public List<String> getNodes() throws IOException {
+        return getHistory().getNodes();
+    }
+
+    @Exported
+    public int getSize() throws IOException {
+        return getHistory().size();
+    }
+
+    @Exported
+    public int getCapacity() throws IOException {
+        return getHistory().getCapacity();
+    }
+
+    private static String getParameter(String name) {
+        StaplerRequest req = Stapler.getCurrentRequest();
+        return req != null ? Util.fixEmptyAndTrim(req.getParameter(name)) : null;
+    }
+
+    private static long getLongParameter(String name, long defaultValue) {
+        String value = getParameter(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException ex) {
+            return defaultValue;
+        }
+    }
+}
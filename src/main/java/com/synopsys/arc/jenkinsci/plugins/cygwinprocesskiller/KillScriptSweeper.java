@@ -0,0 +1,90 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller;
+
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.CygwinKillHelper;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Hudson;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import java.io.IOException;
+
+/**
+ * Removes outdated kill scripts from temporary directories of nodes.
+ * The script, which corresponds to the current configuration, is being kept.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+@Extension
+public class KillScriptSweeper extends AsyncPeriodicWork {
+
+    public KillScriptSweeper() {
+        super("Cygwin Process Killer script sweeper");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return HOUR;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        CygwinProcessKillerPlugin plugin = CygwinProcessKillerPlugin.Instance();
+        if (plugin == null || plugin.getKillScript() == null) {
+            return;
+        }
+
+        String currentScript = CygwinKillHelper.getScriptFileName(plugin.getKillScript());
+        long threshold = System.currentTimeMillis() - getRecurrencePeriod();
+        for (Computer c : Hudson.getInstance().getComputers()) {
+            Node node = c.getNode();
+            FilePath root = node != null ? node.getRootPath() : null;
+            if (root == null) {
+                continue; // Node is offline
+            }
+
+            try {
+                sweep(CygwinKillHelper.getTmpDir(root), currentScript, threshold);
+            } catch (IOException ex) {
+                listener.error("Cannot clean up kill scripts on " + c.getName() + ": " + ex.getMessage());
+            }
+        }
+    }
+
+    private static void sweep(FilePath tmpDir, String currentScript, long threshold)
+            throws IOException, InterruptedException {
+        if (!tmpDir.exists()) {
+            return;
+        }
+
+        String mask = CygwinKillHelper.SCRIPT_FILE_PREFIX + "*" + CygwinKillHelper.SCRIPT_FILE_SUFFIX;
+        for (FilePath file : tmpDir.list(mask)) {
+            if (!file.getName().equals(currentScript) && file.lastModified() < threshold) {
+                file.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller;
+
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.CygwinKillHelper;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.NodeCapabilityCache;
+import hudson.model.Computer;
+import hudson.model.Hudson;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.Callable;
+import hudson.remoting.VirtualChannel;
+import hudson.util.LogTaskListener;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Prepares the killer on connected nodes in advance.
+ * Warm-up pushes settings, probes Cygwin, creates the temporary directory and
+ * stages the kill script, so the first kill after the connection does not
+ * pay for these operations. Warm-up runs in background and never blocks
+ * the node's connection.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+public class NodeWarmer {
+    private static final Logger LOGGER = Logger.getLogger(NodeWarmer.class.getName());
+    private static final AtomicInteger pending = new AtomicInteger();
+
+    private NodeWarmer() {
+        // Static methods only
+    }
+
+    /**
+     * Prepares all online nodes asynchronously.
+     */
+    public static void prepareAll() {
+        for (Computer c : Hudson.getInstance().getComputers()) {
+            prepareAsync(c);
+        }
+    }
+
+    /**
+     * Prepares the node asynchronously.
+     * @param c Target computer
+     */
+    public static void prepareAsync(final Computer c) {
+        pending.incrementAndGet();
+        try {
+            Computer.threadPoolForRemoting.submit(new Runnable() {
+                public void run() {
+                    try {
+                        prepare(c);
+                    } finally {
+                        pending.decrementAndGet();
+                    }
+                }
+            });
+        } catch (RuntimeException ex) {
+            pending.decrementAndGet();
+            throw ex;
+        }
+    }
+
+    /**
+     * Gets number of warm-ups, which have been scheduled, but not finished yet.
+     */
+    public static int getPendingCount() {
+        return pending.get();
+    }
+
+    /**
+     * Pushes settings to the node and then warms up the killer.
+     * @param c Target computer
+     */
+    public static void prepare(Computer c) {
+        AgentKillerSettings.push(c);
+        warmUp(c);
+    }
+
+    private static void warmUp(Computer c) {
+        CygwinProcessKillerPlugin plugin = CygwinProcessKillerPlugin.Instance();
+        VirtualChannel channel = c.getChannel();
+        Node node = c.getNode();
+        if (!plugin.isEnableProcessKiller() || channel == null || node == null) {
+            return;
+        }
+        if (Boolean.TRUE.equals(c.isUnix())) {
+            return; // Nothing to prepare, Cygwin is not expected
+        }
+
+        NodeCapabilityCache.Entry entry = NodeCapabilityCache.getInstance().get(node);
+        try {
+            String error;
+            if (plugin.isExecuteOnAgent()) {
+                error = channel.call(new WarmUpCall());
+            } else {
+                TaskListener listener = new LogTaskListener(LOGGER, Level.FINE);
+                CygwinKillHelper helper = new CygwinKillHelper(listener, node, plugin.getToolInstallation());
+                error = helper.prepare() ? null : Messages.Message_CygwinCheckFailed();
+            }
+            entry.setReady(error == null, error);
+        } catch (Exception ex) {
+            LOGGER.log(Level.FINE, "Cannot warm up Cygwin Process Killer on " + c.getName(), ex);
+            entry.setReady(false, ex.getMessage());
+        }
+    }
+
+    /**
+     * Prepares the agent-local killer.
+     * Returns error message or null if the agent is ready.
+     */
+    private static class WarmUpCall implements Callable<String, IOException> {
+        @Override
+        public String call() throws IOException {
+            AgentKillerSettings settings = AgentKillerSettings.current();
+            if (settings == null) {
+                return Messages.Message_KillerIsDisabled();
+            }
+
+            TaskListener listener = new LogTaskListener(LOGGER, Level.FINE);
+            try {
+                return settings.createHelper(listener).prepare() ? null : Messages.Message_CygwinCheckFailed();
+            } catch (InterruptedException ex) {
+                throw new IOException("Warm-up has been interrupted", ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller;
+
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.CygwinKillHelper;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.KillResult;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.NodeCapabilityCache;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.ProcessTable;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.SweepHistory;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.SweepRecord;
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Hudson;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.Callable;
+import hudson.remoting.VirtualChannel;
+import hudson.util.LogTaskListener;
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Kills Cygwin processes, which have outlived their builds on idle nodes.
+ * Jenkins invokes the killer only during the build teardown, so processes
+ * outside of build trees are not terminated. The reaper takes a single
+ * process snapshot of each idle node and kills processes of the user, which
+ * runs Cygwin commands on the node, except:
+ * <ul>
+ *   <li>processes with allowed commands and their descendants</li>
+ *   <li>the agent's JVM and its Cygwin parents</li>
+ *   <li>the kill script and its parents (e.g. the helper shell)</li>
+ * </ul>
+ * Processes of other users are never killed. Nodes, which have run builds
+ * since the sweep began, are skipped. Idleness is checked again after the
+ * snapshot and right before the kill.
+ * The work runs every minute and skips runs till the configured interval expires.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+@Extension
+public class OrphanReaper extends AsyncPeriodicWork {
+    private static final Logger LOGGER = Logger.getLogger(OrphanReaper.class.getName());
+    public static final int DEFAULT_INTERVAL_MIN = 60;
+    public static final int DEFAULT_NODE_LIMIT = 10;
+    public static final String DEFAULT_ALLOWLIST = "cygrunsrv\nsshd\ncygserver\ncron\nmintty";
+    /**
+     * Minimal idle time of nodes. Teardown kills of recent builds may be still running.
+     */
+    private static final long MIN_IDLE_TIME_MS = Long.getLong(
+            OrphanReaper.class.getName() + ".minIdleTimeSec", 60) * 1000;
+    /**
+     * Snapshot command, which may appear in its own output.
+     */
+    private static final String SNAPSHOT_COMMAND = "ps";
+
+    private volatile long lastSweep;
+    /**
+     * Start times of last sweeps by node names.
+     * Nodes, which have not been swept for the longest time, go first.
+     */
+    private final Map<String, Long> lastSwept = new ConcurrentHashMap<String, Long>();
+
+    public OrphanReaper() {
+        super("Cygwin Process Killer orphan reaper");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return MIN;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        CygwinProcessKillerPlugin plugin = CygwinProcessKillerPlugin.Instance();
+        if (plugin == null || !plugin.isOrphanReaperEnabled()) {
+            return;
+        }
+        long startTime = System.currentTimeMillis();
+        if (startTime - lastSweep < plugin.getReaperIntervalMin() * MIN) {
+            return;
+        }
+        lastSweep = startTime;
+
+        List<Computer> computers = new ArrayList<Computer>();
+        for (Computer c : Hudson.getInstance().getComputers()) {
+            if (isIdleCygwinNode(c, startTime)) {
+                computers.add(c);
+            }
+        }
+        Collections.sort(computers, new Comparator<Computer>() {
+            @Override
+            public int compare(Computer c1, Computer c2) {
+                return Long.signum(getLastSwept(c1) - getLastSwept(c2));
+            }
+        });
+
+        int swept = 0;
+        int reaped = 0;
+        List<String> allowlist = plugin.getReaperAllowlistEntries();
+        allowlist.add(SNAPSHOT_COMMAND);
+        for (Computer c : computers.subList(0, Math.min(computers.size(), plugin.getReaperNodeLimit()))) {
+            lastSwept.put(c.getName(), System.currentTimeMillis());
+            SweepRecord record = sweep(c, plugin, allowlist, startTime, listener);
+            if (record == null) {
+                continue; // Node has become busy
+            }
+            SweepHistory.getInstance().add(record);
+            swept++;
+            reaped += record.getReaped().length;
+            if (record.getError() != null) {
+                listener.error("Cannot sweep orphaned processes on " + c.getName() + ": " + record.getError());
+            }
+        }
+        listener.getLogger().println("Swept " + swept + " of " + computers.size() + " idle nodes in " 
+                + (System.currentTimeMillis() - startTime) + " ms, " + reaped + " processes have been killed");
+    }
+
+    private long getLastSwept(Computer c) {
+        Long res = lastSwept.get(c.getName());
+        return res != null ? res : 0;
+    }
+
+    private static boolean isIdleCygwinNode(Computer c, long sweepStart) {
+        Node node = c.getNode();
+        if (node == null || c.getChannel() == null || Boolean.TRUE.equals(c.isUnix())) {
+            return false;
+        }
+        if (!isIdleSince(c, sweepStart)) {
+            return false;
+        }
+        // Nodes, which have not been checked yet, are probed during the sweep
+        NodeCapabilityCache.Entry entry = NodeCapabilityCache.getInstance().get(node);
+        return !Boolean.FALSE.equals(entry.isCygwin()) && !Boolean.FALSE.equals(entry.isReady());
+    }
+
+    /**
+     * Checks that no executor of the node has run builds since the sweep began.
+     * Finished builds move the idle start time of the node, so they are detected as well.
+     * @param c Node to be checked
+     * @param sweepStart Start time of the sweep
+     */
+    private static boolean isIdleSince(Computer c, long sweepStart) {
+        return c.isIdle() && c.getIdleStartMilliseconds() <= sweepStart - MIN_IDLE_TIME_MS;
+    }
+
+    /**
+     * Sweeps orphaned processes on the node.
+     * @param sweepStart Start time of the sweep of all nodes
+     * @return Record of the sweep or null if the node has run builds since the sweep began
+     */
+    private static SweepRecord sweep(Computer c, CygwinProcessKillerPlugin plugin, List<String> allowlist, 
+            long sweepStart, TaskListener listener) throws InterruptedException {
+        long startTime = System.currentTimeMillis();
+        VirtualChannel channel = c.getChannel();
+        Node node = c.getNode();
+        if (channel == null || node == null || !isIdleSince(c, sweepStart)) {
+            return null; // Node has been disconnected or has run builds
+        }
+
+        try {
+            int agentPid = channel.call(new AgentPidCall());
+            CygwinKillHelper helper = plugin.isExecuteOnAgent() ? null
+                    : new CygwinKillHelper(listener, node, plugin.getToolInstallation());
+            NodeSnapshot snapshot = helper != null ? takeSnapshot(helper) : channel.call(new SnapshotCall());
+            if (snapshot == null) {
+                return SweepRecord.failure(c.getName(), startTime, Messages.Message_CygwinCheckFailed());
+            }
+
+            // Processes of builds, which have started before the snapshot, would be killed
+            if (!isIdleSince(c, sweepStart)) {
+                return null;
+            }
+            ProcessTable table = snapshot.table;
+            int[] orphans = table.findUnprotected(allowlist, agentPid, snapshot.uid);
+            if (orphans.length == 0) {
+                return new SweepRecord(c.getName(), startTime, System.currentTimeMillis() - startTime, 
+                        table.size(), null, 0, null);
+            }
+
+            // Builds may have started while the orphans were being resolved
+            if (!isIdleSince(c, sweepStart)) {
+                return null;
+            }
+            KillResult result = helper != null ? helper.killProcesses(orphans) : channel.call(new KillCall(orphans));
+            int[] signalled = result.getSignalledPIDs();
+            String[] reaped = new String[signalled.length];
+            for (int i = 0; i < signalled.length; i++) {
+                reaped[i] = table.getCommand(signalled[i]) + " (" + signalled[i] + "/" + table.getWinPid(signalled[i]) + ")";
+            }
+            return new SweepRecord(c.getName(), startTime, System.currentTimeMillis() - startTime, 
+                    table.size(), reaped, result.getSurvivorPIDs().length, result.getErrorMessage());
+        } catch (IOException ex) {
+            return SweepRecord.failure(c.getName(), startTime, ex.getMessage());
+        }
+    }
+
+    /**
+     * Takes the process table if Cygwin is available on the node.
+     * @return Snapshot or null if the node does not run Cygwin
+     */
+    private static NodeSnapshot takeSnapshot(CygwinKillHelper helper) throws IOException, InterruptedException {
+        return helper.isCygwin() ? new NodeSnapshot(helper.takeProcessTable(), helper.getUid()) : null;
+    }
+
+    /**
+     * Process table and the user, whose processes may be killed.
+     */
+    private static class NodeSnapshot implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final ProcessTable table;
+        private final int uid;
+
+        public NodeSnapshot(ProcessTable table, int uid) {
+            this.table = table;
+            this.uid = uid;
+        }
+    }
+
+    /**
+     * Gets PID of the agent's JVM.
+     * Returns {@link ProcessTable#NO_PID} if the PID cannot be determined.
+     */
+    private static class AgentPidCall implements Callable<Integer, IOException> {
+        @Override
+        public Integer call() throws IOException {
+            // Format of the name is "pid@hostname" on all known JVMs
+            String name = ManagementFactory.getRuntimeMXBean().getName();
+            int separator = name.indexOf('@');
+            try {
+                return separator > 0 ? Integer.parseInt(name.substring(0, separator)) : ProcessTable.NO_PID;
+            } catch (NumberFormatException ex) {
+                return ProcessTable.NO_PID;
+            }
+        }
+    }
+
+    /**
+     * Takes the process table by the agent-local killer.
+     * Returns null if Cygwin is not available on the agent.
+     */
+    private static class SnapshotCall implements Callable<NodeSnapshot, IOException> {
+        @Override
+        public NodeSnapshot call() throws IOException {
+            AgentKillerSettings settings = AgentKillerSettings.current();
+            if (settings == null) {
+                throw new IOException(Messages.Message_KillerIsDisabled());
+            }
+            try {
+                return takeSnapshot(settings.createHelper(new LogTaskListener(LOGGER, Level.FINE)));
+            } catch (InterruptedException ex) {
+                throw new IOException("Snapshot has been interrupted", ex);
+            }
+        }
+    }
+
+    /**
+     * Kills processes by the agent-local killer.
+     */
+    private static class KillCall implements Callable<KillResult, IOException> {
+        private final int[] cygwinPIDs;
+
+        public KillCall(int[] cygwinPIDs) {
+            this.cygwinPIDs = cygwinPIDs;
+        }
+
+        @Override
+        public KillResult call() throws IOException {
+            AgentKillerSettings settings = AgentKillerSettings.current();
+            if (settings == null) {
+                throw new IOException(Messages.Message_KillerIsDisabled());
+            }
+            try {
+                return settings.createHelper(new LogTaskListener(LOGGER, Level.FINE)).killProcesses(cygwinPIDs);
+            } catch (InterruptedException ex) {
+                throw new IOException("Kill has been interrupted", ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util;
+
+import java.io.Serializable;
+
+/**
+ * Thresholds of {@link NodeCircuitBreaker}.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+public class CircuitBreakerPolicy implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 3;
+    public static final int DEFAULT_OPEN_TIME_SEC = 300;
+
+    private final int failureThreshold;
+    private final int openTimeSec;
+
+    /**
+     * Constructs policy.
+     * @param failureThreshold Number of consecutive failures, which open the circuit. 0 disables the breaker
+     * @param openTimeSec Time before the next attempt
+     */
+    public CircuitBreakerPolicy(int failureThreshold, int openTimeSec) {
+        this.failureThreshold = failureThreshold;
+        this.openTimeSec = openTimeSec;
+    }
+
+    public static CircuitBreakerPolicy getDefault() {
+        return new CircuitBreakerPolicy(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_TIME_SEC);
+    }
+
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    public int getOpenTimeSec() {
+        return openTimeSec;
+    }
+
+    public boolean isEnabled() {
+        return failureThreshold > 0;
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util;
+
+import hudson.Proc;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.io.output.NullOutputStream;
+
+/**
+ * Long-living bash process, which executes commands on the node.
+ * Starting bash under Cygwin is expensive, so the shell is being reused for
+ * all commands of the node.
+ * Commands are passed to the shell's stdin line by line. Each command is
+ * followed by a marker line with the exit code, which is used to split outputs.
+ * Commands are executed one by one, timeouts include the time in the queue,
+ * so callers never wait longer than their deadlines.
+ * The shell is being restarted automatically after failures and timeouts.
+ * A command, which does not start within its timeout, restarts the shell as
+ * well: the shell is stuck in one of the previous commands.
+ * Liveness of the process is not being checked before commands: a shell, which
+ * has died between commands, is restarted and the command is sent again.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+public class CygwinHelperShell {
+    private static final Logger LOGGER = Logger.getLogger(CygwinHelperShell.class.getName());
+    private static final String DONE_MARKER = "__CYGWIN_KILLER_DONE__";
+    private static final String HEALTH_CHECK_COMMAND = "echo ping";
+    private static final int HEALTH_CHECK_TIMEOUT_SEC = 10;
+    /**
+     * Time to wait for the completion of the command after the termination of the shell.
+     */
+    private static final int ABORT_TIMEOUT_SEC = 10;
+    public static final int DEFAULT_QUEUE_SIZE = 64;
+
+    private final String name;
+    private final ProcessFactory factory;
+    private final BlockingQueue<Command> queue;
+    private final Thread worker;
+
+    // Current shell process. Accessed under the lock
+    private Proc proc;
+    private BufferedReader stdout;
+    private OutputStream stdin;
+    private Command current;
+    private volatile boolean closed;
+
+    /**
+     * Constructs shell.
+     * The process will be started on-demand.
+     * @param name Name of the shell (e.g. node name)
+     * @param factory Starts the shell process
+     * @param queueSize Maximum number of pending commands
+     */
+    public CygwinHelperShell(String name, ProcessFactory factory, int queueSize) {
+        this.name = name;
+        this.factory = factory;
+        this.queue = new ArrayBlockingQueue<Command>(queueSize);
+        this.worker = new Thread(new Worker(), "Cygwin helper shell for " + name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Executes command in the shell.
+     * Interruption of the call removes the pending command or terminates the
+     * shell, which runs it.
+     * If the command is still queued after the timeout, it is being cancelled
+     * and the shell is being restarted.
+     * @param commandLine Command line to be executed. Command should not read stdin
+     * @param out Output stream, which receives both stdout and stderr
+     * @param timeout Timeout of the command including the time in the queue
+     * @param unit Timeout unit
+     * @return Exit code of the command
+     * @throws IOException Queue is full, command has failed or timed out
+     * @throws InterruptedException Execution has been interrupted
+     */
+    public int exec(String commandLine, OutputStream out, long timeout, TimeUnit unit)
+            throws IOException, InterruptedException {
+        if (closed) {
+            throw new IOException("Helper shell " + name + " has been closed");
+        }
+
+        Command command = new Command(commandLine, out);
+        if (!queue.offer(command)) {
+            throw new IOException("Command queue of the helper shell " + name + " is full");
+        }
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        try {
+            boolean started = command.started.await(timeout, unit);
+            if (!started || !command.done.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                LOGGER.log(Level.WARNING, "Command {0} has timed out in the helper shell {1}. Restarting the shell",
+                        new Object[] {commandLine, name});
+                abort(command);
+                if (!started) {
+                    // The shell is stuck in one of the previous commands
+                    destroyProcess();
+                }
+                if (!command.done.await(ABORT_TIMEOUT_SEC, TimeUnit.SECONDS)) {
+                    throw new IOException("Helper shell " + name + " does not respond after the timeout of " 
+                            + commandLine);
+                }
+            }
+        } catch (InterruptedException ex) {
+            abort(command);
+            throw ex;
+        }
+
+        if (command.error != null) {
+            throw new IOException("Helper shell " + name + " has failed: " + command.error.getMessage(), command.error);
+        }
+        return command.exitCode;
+    }
+
+    /**
+     * Checks that the shell responds to commands.
+     * Shell will be started if it is not running.
+     * @return true if the shell is healthy
+     */
+    public boolean isHealthy() throws InterruptedException {
+        try {
+            return exec(HEALTH_CHECK_COMMAND, new NullOutputStream(),
+                    HEALTH_CHECK_TIMEOUT_SEC, TimeUnit.SECONDS) == 0;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Terminates the shell and rejects pending commands.
+     */
+    public void close() {
+        closed = true;
+        worker.interrupt();
+        destroyProcess();
+
+        Command command;
+        while ((command = queue.poll()) != null) {
+            command.fail(new IOException("Helper shell has been closed"));
+        }
+    }
+
+    /**
+     * Cancels the pending command or terminates the shell, which runs it.
+     * Commands of other callers are not affected.
+     */
+    private void abort(Command command) {
+        synchronized (this) {
+            command.aborted = true;
+            if (current == command) {
+                destroyProcess(); // Worker will fail on reading and proceed to the next command
+                return;
+            }
+        }
+        if (queue.remove(command)) {
+            command.fail(new IOException("Command has been cancelled before the start"));
+        }
+    }
+
+    /**
+     * Starts the shell if it is not running.
+     * Should be invoked under the lock.
+     * @return true if a new process has been started
+     */
+    private boolean ensureStarted() throws IOException, InterruptedException {
+        if (proc != null) {
+            return false;
+        }
+
+        Proc newProc = factory.start();
+        proc = newProc;
+        stdout = new BufferedReader(new InputStreamReader(newProc.getStdout()));
+        stdin = newProc.getStdin();
+        return true;
+    }
+
+    private synchronized void destroyProcess() {
+        if (proc == null) {
+            return;
+        }
+        try {
+            proc.kill();
+        } catch (Exception ex) {
+            LOGGER.log(Level.FINE, "Cannot kill the helper shell " + name, ex);
+        }
+        proc = null;
+        stdout = null;
+        stdin = null;
+    }
+
+    private int runCommand(Command command) throws IOException, InterruptedException {
+        boolean fresh;
+        BufferedReader reader;
+        synchronized (this) {
+            fresh = ensureStarted();
+            reader = send(command);
+        }
+
+        // Marker is prepended by a line feed, so the last line before it is
+        // either empty or an unterminated part of the output.
+        // Output is being streamed with a delay of one line
+        String pending = null;
+        String line = readLine(reader);
+        if (line == null && !fresh) {
+            // The shell has died after the previous command, the command has not been executed
+            LOGGER.log(Level.FINE, "Helper shell {0} has been terminated, restarting it", name);
+            synchronized (this) {
+                if (command.aborted) {
+                    throw new IOException("Command has been aborted");
+                }
+                destroyProcess();
+                ensureStarted();
+                reader = send(command);
+            }
+            line = readLine(reader);
+        }
+        for (; line != null; line = reader.readLine()) {
+            if (line.startsWith(DONE_MARKER)) {
+                if (pending != null) {
+                    command.out.write(pending.getBytes());
+                }
+                return Integer.parseInt(line.substring(DONE_MARKER.length()).trim());
+            }
+            if (pending != null) {
+                command.out.write((pending + "\n").getBytes());
+            }
+            pending = line;
+        }
+        throw new IOException("Helper shell has been terminated unexpectedly");
+    }
+
+    /**
+     * Sends the command to the shell.
+     * Should be invoked under the lock.
+     * @return Reader of the shell's output
+     */
+    private BufferedReader send(Command command) throws IOException {
+        String line = "{ " + command.commandLine + "; } < /dev/null 2>&1; printf '\\n" + DONE_MARKER + " %d\\n' $?\n";
+        try {
+            stdin.write(line.getBytes());
+            stdin.flush();
+        } catch (IOException ex) {
+            // Output of the dead shell ends immediately
+            LOGGER.log(Level.FINE, "Cannot send the command to the helper shell " + name, ex);
+        }
+        return stdout;
+    }
+
+    /**
+     * Reads the first line of the output.
+     * @return Line or null if the shell has been terminated
+     */
+    private static String readLine(BufferedReader reader) {
+        try {
+            return reader.readLine();
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Starts the shell process.
+     * Process should be started with redirected stdin and stdout.
+     */
+    public interface ProcessFactory {
+        Proc start() throws IOException, InterruptedException;
+    }
+
+    private class Worker implements Runnable {
+        @Override
+        public void run() {
+            while (!closed) {
+                Command command;
+                try {
+                    command = queue.take();
+                } catch (InterruptedException ex) {
+                    continue; // Check for closure
+                }
+
+                synchronized (CygwinHelperShell.this) {
+                    if (command.aborted) {
+                        // The caller has given up
+                        command.fail(new IOException("Command has been cancelled before the start"));
+                        continue;
+                    }
+                    current = command;
+                }
+                command.started.countDown();
+
+                try {
+                    command.complete(runCommand(command));
+                } catch (Exception ex) {
+                    // Next command will restart the shell
+                    destroyProcess();
+                    command.fail(ex);
+                } finally {
+                    synchronized (CygwinHelperShell.this) {
+                        current = null;
+                    }
+                }
+            }
+        }
+    }
+
+    private static class Command {
+        final String commandLine;
+        final OutputStream out;
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        // Accessed under the shell's lock
+        boolean aborted;
+        volatile int exitCode;
+        volatile Exception error;
+
+        Command(String commandLine, OutputStream out) {
+            this.commandLine = commandLine;
+            this.out = out;
+        }
+
+        void complete(int exitCode) {
+            this.exitCode = exitCode;
+            done.countDown();
+        }
+
+        void fail(Exception error) {
+            this.error = error;
+            started.countDown();
+            done.countDown();
+        }
+    }
+}
@@ -28,95 +28,269 @@ import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.CygwinProcessKille
 import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.Messages;
 import hudson.EnvVars;
 import hudson.FilePath;
+import hudson.Launcher;
 import hudson.Launcher.ProcStarter;
 import hudson.Proc;
+import hudson.Util;
 import hudson.model.Node;
 import hudson.model.TaskListener;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
-import org.apache.commons.io.output.ByteArrayOutputStream;
 
 /**
  * Class provides basic Cygwin operations.
- * This class is designed to be launched on the master only.
+ * By default, the class is designed to be launched on the master only.
+ * Agent-local mode uses a local launcher and the settings received from the master.
  * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
  */
-//TODO: Logging
 public class CygwinKillHelper {
     private final TaskListener log;
     private final Node node;
     private final CygwinKillerInstallation tool;
-    private final int processPID;
+    private final NodeCapabilityCache.Entry capabilities;
+    private final Launcher launcher;
+    private final String killScript;
+    private final boolean usePersistentShell;
+    private final ProcessSnapshotSource snapshotSource;
+    private final ProcessSnapshotSource winPidSource;
+    private final KillStrategy killStrategy;
+    private final KillTimeouts timeouts;
   
     // On-demand variables 
     private FilePath tmpDir;
     private FilePath substitutedHome;
+    // Durations of phases, which have been executed by this helper
+    private final long[] phaseDurations = KillResult.newPhaseDurations();
     
-    private final CygwinProcessKillerPlugin plugin = CygwinProcessKillerPlugin.Instance();
     private static final String CYGWIN_START_PREFIX="CYGWIN_";  
+    private static final String SIGNALLED_PREFIX="SIGNALLED";
+    private static final String SURVIVORS_PREFIX="SURVIVORS";
+    private static final String GRACE_PERIOD_OPTION="-g";
+    private static final String NO_TREE_WALK_OPTION="-n";
+    private static final String COOKIE_OPTION="-e";
+    private static final int PROBE_TAIL_SIZE=1024;
+    /**
+     * Exit code of bash, which cannot find the script file.
+     */
+    private static final int SCRIPT_NOT_FOUND_EXIT_CODE=127;
+    /**
+     * Minimal age of the Windows PID map, which may be reloaded after a lookup miss.
+     * Native Windows processes are never found in the map, so they should not cause a reload per kill.
+     */
+    private static final long WINPID_REFRESH_INTERVAL_MS = Long.getLong(
+            CygwinKillHelper.class.getName() + ".winPidRefreshIntervalMs", 1000);
+    /**
+     * Maximum number of resolved PIDs, which are passed to the script.
+     * Windows limits the command line length by 32K characters.
+     * Reports of the script are limited by the same number of PIDs.
+     */
+    private static final int MAX_RESOLVED_PIDS=2000;
+    public static final String SCRIPT_FILE_PREFIX="cygwin_process_killer_";
+    public static final String SCRIPT_FILE_SUFFIX=".sh";
     private static final String CYGWIN_BINARY_PATH="\\bin\\";
-    private static final int WAIT_TIMEOUT_SEC=500;
     
-    public CygwinKillHelper(TaskListener log, Node node, CygwinKillerInstallation tool, int processPID) {
+    public CygwinKillHelper(TaskListener log, Node node, CygwinKillerInstallation tool) {
         this.log = log;
         this.node = node;
         this.tool = tool;
-        this.processPID = processPID;
+        this.capabilities = NodeCapabilityCache.getInstance().get(node);
+        this.launcher = node.createLauncher(log);
+        CygwinProcessKillerPlugin plugin = CygwinProcessKillerPlugin.Instance();
+        this.killScript = plugin.getKillScript();
+        this.usePersistentShell = plugin.isUsePersistentShell();
+        this.snapshotSource = plugin.getSnapshotSource();
+        this.winPidSource = plugin.getWinPidSource();
+        this.killStrategy = plugin.getEffectiveKillStrategy();
+        this.timeouts = plugin.getTimeouts();
+        this.substitutedHome = this.tmpDir = null; // will be retrieved on-demand
+    }
+    
+    /**
+     * Constructs helper for the agent-local execution.
+     * @param log Logger
+     * @param launcher Launcher, which starts processes on the current host
+     * @param capabilities Pre-resolved directories of the host
+     * @param killScript Kill script to be executed
+     * @param usePersistentShell Execute commands in the long-living shell
+     * @param snapshotSource Source of process lists, which are used for resolution of process trees.
+     *      Null if the kill script walks trees itself. Otherwise the script should support the {@code -n} option
+     * @param winPidSource Source of Windows PIDs, which are translated to Cygwin PIDs. Null disables the translation.
+     *      If the snapshot source is specified, Windows PIDs are taken from its snapshots
+     * @param killStrategy Strategy of the kill. Non-default strategies should be supported by the kill script
+     * @param timeouts Deadlines of kill phases
+     */
+    public CygwinKillHelper(TaskListener log, Launcher launcher, NodeCapabilityCache.Entry capabilities, 
+            String killScript, boolean usePersistentShell, ProcessSnapshotSource snapshotSource, 
+            ProcessSnapshotSource winPidSource, KillStrategy killStrategy, KillTimeouts timeouts) {
+        this.log = log;
+        this.node = null;
+        this.tool = null;
+        this.capabilities = capabilities;
+        this.launcher = launcher;
+        this.killScript = killScript;
+        this.usePersistentShell = usePersistentShell;
+        this.snapshotSource = snapshotSource;
+        this.winPidSource = winPidSource;
+        this.killStrategy = killStrategy;
+        this.timeouts = timeouts;
         this.substitutedHome = this.tmpDir = null; // will be retrieved on-demand
     }
     
     /**
      * Checks that Cygwin is available on the host.
-     * @throws IOException
+     * Result of the check is being cached till the node reconnection. Only
+     * completed probes are cached, so failed and timed out probes are repeated by the next kill.
+     * @return true if the host runs Cygwin, false if {@code uname} reports another platform
+     * @throws IOException Probe has failed or timed out, e.g. the tool installation has failed
      * @throws InterruptedException 
      */
-    public boolean isCygwin() throws InterruptedException {        
-        OutputStream str = new ByteArrayOutputStream();
+    public boolean isCygwin() throws IOException, InterruptedException {        
+        Boolean cached = capabilities.isCygwin();
+        if (cached != null) {
+            return cached;
+        }
+        
+        ScriptOutputSink str = new ScriptOutputSink(PROBE_TAIL_SIZE);
+        long startTime = System.currentTimeMillis();
+        int exitCode;
         try { // Catch tool installation exceptions
-            execCommand("uname", str, str, "-a");
+            exitCode = execCommand("uname", timeouts.getProbeDeadlineSec(getMetrics()), str, str, "-a");
         } catch (IOException ex) {
-            logError(Messages.Message_CygwinCheckFailed() + ex.getMessage());
-            return false;
+            // Failures after deadlines should increase next deadlines
+            getMetrics().getModel(KillPhase.PROBE).record(System.currentTimeMillis() - startTime);
+            String msg = Messages.Message_CygwinCheckFailed() + ex.getMessage();
+            logError(msg);
+            throw new IOException(msg, ex);
+        }
+        if (exitCode != 0 || str.getSize() == 0) {
+            // Timed out probes are being killed, so they also have non-zero exit codes
+            getMetrics().getModel(KillPhase.PROBE).record(System.currentTimeMillis() - startTime);
+            String msg = Messages.Message_CygwinCheckFailed() + "uname has exited with code " + exitCode 
+                    + ", output: " + str.getTail();
+            logError(msg);
+            throw new IOException(msg);
         }
-        return str.toString().startsWith(CYGWIN_START_PREFIX);
+        recordPhase(KillPhase.PROBE, startTime);
+        boolean res = str.startsWith(CYGWIN_START_PREFIX);
+        capabilities.setCygwin(res);
+        return res;
     }
 
     private FilePath getTmpDir() throws IOException, InterruptedException {
         if (tmpDir == null) {
-            tmpDir = findTmpDir(node);
+            tmpDir = capabilities.getTmpDir();
+            if (tmpDir == null) {
+                long startTime = System.currentTimeMillis();
+                tmpDir = findTmpDir(node);
+                capabilities.setTmpDir(tmpDir);
+                recordPhase(KillPhase.TMP_DIR, startTime);
+            }
         }
         return tmpDir;
     }
     
+    /**
+     * Resolves node data and stages the kill script in advance.
+     * Used for pre-warming of connected nodes, so the first kill does not pay for the setup.
+     * @return true if the node is ready to kill processes
+     * @throws IOException Node cannot be prepared
+     * @throws InterruptedException Operation has been interrupted
+     */
+    public boolean prepare() throws IOException, InterruptedException {
+        getTmpDir();
+        if (!isCygwin()) {
+            return false;
+        }
+        stageScript(killScript);
+        if (winPidSource != null) {
+            getWinPidMap();
+        }
+        CygwinHelperShell shell = usePersistentShell ? getShell() : null;
+        if (shell != null && !shell.isHealthy()) {
+            throw new IOException("Helper shell does not respond");
+        }
+        return true;
+    }
+    
     /**
      * Executes script on the target host.
      * @param script Script to be executed
+     * @param timeoutSec Timeout of the script execution
      * @param out Output stream, which returns both stderr and stdout
      * @param args Script arguments
      * @return return code of the script
      * @throws IOException
      * @throws InterruptedException 
      */
-    public int execScript(String script, OutputStream out, String ... args) 
+    public int execScript(String script, int timeoutSec, OutputStream out, String ... args) 
             throws IOException, InterruptedException {
-        // Prepare a temp file
-        FilePath tmpFile = getTmpDir().createTempFile("cygwin_process_killer_", ".sh");       
-        tmpFile.write(script, null);
+        FilePath tmpFile = stageScript(script);
   
         String[] cmd = new String[1+args.length];
         cmd[0] = tmpFile.getRemote();
         System.arraycopy(args, 0, cmd, 1, args.length);
     
-        return execCommand("bash", out, out, cmd);     
+        long startTime = System.currentTimeMillis();
+        int res;
+        try {
+            res = execCommand("bash", timeoutSec, out, out, cmd);
+            if (res == SCRIPT_NOT_FOUND_EXIT_CODE && !tmpFile.exists()) {
+                // Staged copy has been removed from the temporary directory
+                capabilities.setStagedScript(null);
+                stageScript(script);
+                res = execCommand("bash", timeoutSec, out, out, cmd);
+            }
+        } catch (IOException ex) {
+            // Failures after deadlines should increase next deadlines
+            getMetrics().getModel(KillPhase.EXECUTION).record(System.currentTimeMillis() - startTime);
+            throw ex;
+        }
+        recordPhase(KillPhase.EXECUTION, startTime);
+        return res;
     }
 
+    /**
+     * Gets staged copy of the script on the target host.
+     * Script is being written only if the node has no copy with the same content.
+     * Existence of the cached copy is being checked only after failed executions.
+     * @param script Script to be staged
+     * @return Path to the script file
+     */
+    private FilePath stageScript(String script) throws IOException, InterruptedException {
+        String fileName = getScriptFileName(script);
+        FilePath scriptFile = getTmpDir().child(fileName);
+        if (!fileName.equals(capabilities.getStagedScript())) {
+            long startTime = System.currentTimeMillis();
+            scriptFile.write(script, null);
+            capabilities.setStagedScript(fileName);
+            recordPhase(KillPhase.STAGING, startTime);
+        }
+        return scriptFile;
+    }
+    
+    /**
+     * Gets name of the staged script file.
+     * Name is derived from the script's content.
+     * @param script Script
+     * @return File name
+     */
+    public static String getScriptFileName(String script) {
+        return SCRIPT_FILE_PREFIX + Util.getDigestOf(script) + SCRIPT_FILE_SUFFIX;
+    }
+    
     /**
      * Executes command with specified arguments.
      * @param command Command to be executed
+     * @param timeoutSec Timeout of the command. Command will be killed after it
      * @param stdout Output stream for STDOUT
      * @param stderr Output stream for STDERR
      * @param args Arguments to be passed
@@ -124,33 +298,349 @@ public class CygwinKillHelper {
      * @throws IOException 
      * @throws InterruptedException Execution has been interrupted
      */
-    public int execCommand(String command, OutputStream stdout, OutputStream stderr, String ... args) throws IOException, InterruptedException {
+    public int execCommand(String command, int timeoutSec, OutputStream stdout, OutputStream stderr, String ... args) 
+            throws IOException, InterruptedException {
+        CygwinHelperShell shell = usePersistentShell ? getShell() : null;
+        if (shell != null) {
+            // Shell merges stderr into stdout
+            return shell.exec(toShellCommand(command, args), stdout, timeoutSec, TimeUnit.SECONDS);
+        }
+        
         String[] cmd = new String[1+args.length];
         cmd[0] = getCygwinBinaryCommand(command);
         System.arraycopy(args, 0, cmd, 1, args.length);
     
-        ProcStarter starter = node.createLauncher(log).launch().cmds(cmd).envs(constructVariables()).stdout(stdout).stderr(stderr).pwd(getTmpDir());
+        ProcStarter starter = launcher.launch().cmds(cmd).envs(constructVariables()).stdout(stdout).stderr(stderr).pwd(getTmpDir());
         Proc proc = starter.start();
-        int resultCode = proc.joinWithTimeout(WAIT_TIMEOUT_SEC, TimeUnit.SECONDS, log);
+        int resultCode = proc.joinWithTimeout(timeoutSec, TimeUnit.SECONDS, log);
         starter.readStdout();
         return resultCode;
     }
 
     /**
-     * Terminates process by PID, which has been provided in the constructor.
+     * Gets the long-living shell of the node.
+     * Shell is being started on-demand with the environment of the Cygwin installation.
+     * @return Shell or null if the capabilities have been invalidated. Commands
+     *      should be launched as separate processes then
+     */
+    private CygwinHelperShell getShell() throws IOException, InterruptedException {
+        final String bash = getCygwinBinaryCommand("bash");
+        final Map<String, String> envVars = constructVariables();
+        final FilePath pwd = getTmpDir();
+        return capabilities.getShell(new CygwinHelperShell.ProcessFactory() {
+            @Override
+            public Proc start() throws IOException, InterruptedException {
+                return launcher.launch().cmds(bash, "--noprofile", "--norc").envs(envVars)
+                        .readStdout().writeStdin().stderr(log.getLogger()).pwd(pwd).start();
+            }
+        });
+    }
+    
+    /**
+     * Constructs command line for the long-living shell.
+     * Commands are being resolved by PATH of the shell.
      */
-    public boolean kill() throws IOException, InterruptedException {
-        OutputStream str = new ByteArrayOutputStream();
-        int res = execScript(plugin.getKillScript(), str, Integer.toString(processPID));
+    private static String toShellCommand(String command, String ... args) {
+        StringBuilder b = new StringBuilder(command);
+        for (String arg : args) {
+            b.append(" '").append(arg.replace("'", "'\\''")).append('\'');
+        }
+        return b.toString();
+    }
+    
+    /**
+     * Terminates process trees by a single invocation of the kill script.
+     * Windows PIDs are translated to Cygwin PIDs if the translation is enabled.
+     * PIDs, which cannot be translated, are passed to the script as is.
+     * @param processPIDs PIDs of the tree roots
+     * @return Result of the kill. PIDs are translated back to Windows PIDs
+     */
+    public KillResult kill(int ... processPIDs) throws IOException, InterruptedException {
+        return kill(processPIDs, Collections.<String>emptySet());
+    }
+    
+    /**
+     * Terminates process trees and processes with build cookies by a single invocation of the kill script.
+     * Processes are found by a single scan of the process environments on the node.
+     * The kill script should support the {@code -e} option if cookies are specified.
+     * @param processPIDs PIDs of the tree roots
+     * @param cookies Environment variables in the {@code NAME=VALUE} format
+     * @return Result of the kill. PIDs are translated back to Windows PIDs
+     */
+    public KillResult kill(int[] processPIDs, Collection<String> cookies) throws IOException, InterruptedException {
+        // Trees and Windows PIDs are resolved from the same snapshot if the plugin resolves trees
+        ProcessTable table = snapshotSource != null ? takeSnapshotTable() : null;
+        WinPidMap pidMap = null;
+        if (winPidSource != null && table != null) {
+            pidMap = table.getWinPidMap();
+            capabilities.setWinPidMap(pidMap);
+        } else if (winPidSource != null) {
+            pidMap = getWinPidMap(processPIDs);
+        }
+        int[] roots = pidMap != null ? toCygwinPIDs(pidMap, processPIDs) : processPIDs;
+        
+        List<String> args = new ArrayList<String>(processPIDs.length + 4);
+        if (killStrategy.getScriptOption() != null) {
+            args.add(killStrategy.getScriptOption());
+        }
+        for (String cookie : cookies) {
+            args.add(COOKIE_OPTION);
+            args.add(cookie);
+        }
+        if (timeouts.getGracePeriodSec() > 0) {
+            args.add(GRACE_PERIOD_OPTION);
+            args.add(Integer.toString(timeouts.getGracePeriodSec()));
+        }
+        int[] targets = table != null ? resolveKillOrder(table, roots) : null;
+        if (targets != null) {
+            args.add(NO_TREE_WALK_OPTION);
+        } else {
+            targets = roots;
+        }
+        for (int pid : targets) {
+            args.add(Integer.toString(pid));
+        }
+        
+        // Custom scripts may print a lot, only limited results and the tail of the output are kept
+        ScriptOutputSink str = new ScriptOutputSink(ScriptOutputSink.DEFAULT_TAIL_SIZE, MAX_RESOLVED_PIDS, 
+                SIGNALLED_PREFIX, SURVIVORS_PREFIX);
+        int res = execScript(killScript, timeouts.getScriptDeadlineSec(getMetrics()), str, 
+                args.toArray(new String[args.size()]));
         
+        int[] signalled = str.getValues(SIGNALLED_PREFIX);
+        int[] survivors = str.getValues(SURVIVORS_PREFIX);
+        getMetrics().recordProcessCount(str.getValueCount(SIGNALLED_PREFIX));
+        if (pidMap != null) {
+            signalled = toWinPIDs(pidMap, signalled, roots, processPIDs);
+            survivors = toWinPIDs(pidMap, survivors, roots, processPIDs);
+        }
         if (res != 0) {
-            logError("CygwinKiller cannot kill the process tree (parent pid="+processPID+")");
+            String msg = "CygwinKiller cannot kill the process tree (parent pids="+Arrays.toString(processPIDs)+")";
+            logError(msg + ". Script output:\n" + str.getTail());
+            return new KillResult(false, msg, signalled, survivors, res, phaseDurations);
         }
-        return res != 0;
+        return new KillResult(true, null, signalled, survivors, res, phaseDurations);
+    }
+    
+    /**
+     * Takes snapshot of Cygwin processes with their Windows PIDs and commands.
+     * The configured Windows PID source is used, so procfs snapshots do not launch processes.
+     * The cached Windows PID map of the node is being refreshed from the same snapshot.
+     * @return Table of processes
+     * @throws IOException Snapshot cannot be retrieved
+     * @throws InterruptedException Operation has been interrupted
+     */
+    public ProcessTable takeProcessTable() throws IOException, InterruptedException {
+        ProcessSnapshotSource source = winPidSource != null ? winPidSource : new PsSnapshotSource();
+        long startTime = System.currentTimeMillis();
+        ProcessTable table = source.takeProcessTable(this);
+        capabilities.setWinPidMap(table.getWinPidMap());
+        recordPhase(KillPhase.SNAPSHOT, startTime);
+        return table;
+    }
+    
+    /**
+     * Gets user ID, which runs Cygwin commands on the node.
+     * The ID is cached till the node reconnects.
+     * @return User ID
+     * @throws IOException ID cannot be retrieved
+     * @throws InterruptedException Operation has been interrupted
+     */
+    public int getUid() throws IOException, InterruptedException {
+        Integer uid = capabilities.getUid();
+        if (uid != null) {
+            return uid;
+        }
+        
+        ScriptOutputSink str = new ScriptOutputSink(PROBE_TAIL_SIZE);
+        int res = execCommand("id", timeouts.getProbeDeadlineSec(getMetrics()), str, str, "-u");
+        try {
+            uid = res == 0 ? Integer.valueOf(str.getTail().trim()) : null;
+        } catch (NumberFormatException ex) {
+            uid = null;
+        }
+        if (uid == null) {
+            throw new IOException("Cannot retrieve the user ID, id has exited with code " + res 
+                    + ", output: " + str.getTail());
+        }
+        capabilities.setUid(uid);
+        return uid;
+    }
+    
+    /**
+     * Terminates processes without walks of process trees.
+     * Kill script should support the {@code -n} option. The script never signals itself and its
+     * parents, so the helper shell survives the kill.
+     * Due to the command line limit, long lists are passed to the script in batches.
+     * @param cygwinPIDs Cygwin PIDs in the kill order
+     * @return Result of the kill with Cygwin PIDs
+     */
+    public KillResult killProcesses(int ... cygwinPIDs) throws IOException, InterruptedException {
+        if (cygwinPIDs.length <= MAX_RESOLVED_PIDS) {
+            return killBatch(cygwinPIDs);
+        }
+        
+        KillResult failed = null;
+        List<Integer> signalled = new ArrayList<Integer>(cygwinPIDs.length);
+        List<Integer> survivors = new ArrayList<Integer>();
+        for (int from = 0; from < cygwinPIDs.length; from += MAX_RESOLVED_PIDS) {
+            KillResult res = killBatch(Arrays.copyOfRange(cygwinPIDs, from, 
+                    Math.min(cygwinPIDs.length, from + MAX_RESOLVED_PIDS)));
+            for (int pid : res.getSignalledPIDs()) {
+                signalled.add(pid);
+            }
+            for (int pid : res.getSurvivorPIDs()) {
+                survivors.add(pid);
+            }
+            if (!res.isSuccess() && failed == null) {
+                failed = res;
+            }
+        }
+        return failed != null 
+                ? new KillResult(false, failed.getErrorMessage(), toArray(signalled), toArray(survivors), 
+                        failed.getExitCode(), phaseDurations)
+                : new KillResult(true, null, toArray(signalled), toArray(survivors), 0, phaseDurations);
+    }
+    
+    private KillResult killBatch(int[] cygwinPIDs) throws IOException, InterruptedException {
+        List<String> args = new ArrayList<String>(cygwinPIDs.length + 3);
+        if (timeouts.getGracePeriodSec() > 0) {
+            args.add(GRACE_PERIOD_OPTION);
+            args.add(Integer.toString(timeouts.getGracePeriodSec()));
+        }
+        args.add(NO_TREE_WALK_OPTION);
+        for (int pid : cygwinPIDs) {
+            args.add(Integer.toString(pid));
+        }
+        
+        ScriptOutputSink str = new ScriptOutputSink(ScriptOutputSink.DEFAULT_TAIL_SIZE, MAX_RESOLVED_PIDS, 
+                SIGNALLED_PREFIX, SURVIVORS_PREFIX);
+        int res = execScript(killScript, timeouts.getScriptDeadlineSec(getMetrics()), str, 
+                args.toArray(new String[args.size()]));
+        int[] signalled = str.getValues(SIGNALLED_PREFIX);
+        int[] survivors = str.getValues(SURVIVORS_PREFIX);
+        if (res != 0) {
+            // Processes may exit between the snapshot and the kill
+            String msg = "CygwinKiller cannot kill all processes (pids="+Arrays.toString(cygwinPIDs)+")";
+            logError(msg + ". Script output:\n" + str.getTail());
+            return new KillResult(false, msg, signalled, survivors, res, phaseDurations);
+        }
+        return new KillResult(true, null, signalled, survivors, res, phaseDurations);
+    }
+    
+    private static int[] toArray(List<Integer> values) {
+        int[] res = new int[values.size()];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = values.get(i);
+        }
+        return res;
+    }
+    
+    /**
+     * Gets map of Windows PIDs, which covers the requested processes.
+     * The cached map is being reloaded if some PIDs are missing, because
+     * they belong to new processes or the map is stale.
+     * @param winPIDs Requested Windows PIDs
+     * @return Map or null if it cannot be retrieved
+     */
+    private WinPidMap getWinPidMap(int ... winPIDs) throws InterruptedException {
+        WinPidMap map = capabilities.getWinPidMap();
+        if (map != null) {
+            boolean missing = false;
+            for (int pid : winPIDs) {
+                missing |= map.toCygwinPid(pid) == WinPidMap.NO_PID;
+            }
+            if (!missing || System.currentTimeMillis() - map.getTimestamp() < WINPID_REFRESH_INTERVAL_MS) {
+                return map;
+            }
+        }
+        
+        long startTime = System.currentTimeMillis();
+        try {
+            map = winPidSource.takeWinPidSnapshot(this);
+        } catch (IOException ex) {
+            logError("Cannot retrieve Windows PIDs: " + ex.getMessage());
+            return map;
+        }
+        capabilities.setWinPidMap(map);
+        recordPhase(KillPhase.WINPID_MAP, startTime);
+        return map;
+    }
+    
+    private static int[] toCygwinPIDs(WinPidMap map, int ... winPIDs) {
+        int[] res = new int[winPIDs.length];
+        for (int i = 0; i < winPIDs.length; i++) {
+            int pid = map.toCygwinPid(winPIDs[i]);
+            res[i] = pid != WinPidMap.NO_PID ? pid : winPIDs[i];
+        }
+        return res;
+    }
+    
+    /**
+     * Translates PIDs reported by the script.
+     * Unknown PIDs are dropped unless they have been passed to the script untranslated,
+     * because they may match Windows PIDs of other processes.
+     * @param map Windows PID map
+     * @param cygwinPIDs Reported PIDs
+     * @param roots PIDs, which have been passed to the script
+     * @param requestedPIDs Requested Windows PIDs with the same indexes as roots
+     * @return Windows PIDs
+     */
+    private static int[] toWinPIDs(WinPidMap map, int[] cygwinPIDs, int[] roots, int[] requestedPIDs) {
+        int[] res = new int[cygwinPIDs.length];
+        int size = 0;
+        for (int pid : cygwinPIDs) {
+            int winPid = map.toWinPid(pid);
+            if (winPid == WinPidMap.NO_PID) {
+                for (int i = 0; i < roots.length; i++) {
+                    if (roots[i] == pid && requestedPIDs[i] == pid) {
+                        winPid = pid;
+                    }
+                }
+            }
+            if (winPid != WinPidMap.NO_PID) {
+                res[size++] = winPid;
+            }
+        }
+        return Arrays.copyOf(res, size);
+    }
+    
+    /**
+     * Takes a single snapshot of the process list for resolution of process trees.
+     * @return Table or null if the script should walk trees itself
+     */
+    private ProcessTable takeSnapshotTable() throws InterruptedException {
+        long startTime = System.currentTimeMillis();
+        ProcessTable table;
+        try {
+            table = snapshotSource.takeProcessTable(this);
+        } catch (IOException ex) {
+            logError("Cannot take the process snapshot: " + ex.getMessage());
+            return null;
+        }
+        recordPhase(KillPhase.SNAPSHOT, startTime);
+        return table;
+    }
+    
+    /**
+     * Resolves process trees from the snapshot of the process list.
+     * @param table Snapshot of the process list
+     * @param processPIDs PIDs of the tree roots
+     * @return PIDs in the kill order or null if the script should walk trees itself
+     */
+    private static int[] resolveKillOrder(ProcessTable table, int ... processPIDs) {
+        int[] order = table.getTreeIndex().getKillOrder(processPIDs);
+        return order.length <= MAX_RESOLVED_PIDS ? order : null;
     }
     
     private String getCygwinBinaryCommand(String commandName) throws IOException, InterruptedException {
-        return tool != null ? getSubstitutedHome().getRemote() + CYGWIN_BINARY_PATH + commandName+".exe" : commandName+".exe"; 
+        String binPath = capabilities.getBinPath();
+        if (binPath == null) {
+            FilePath home = getSubstitutedHome();
+            binPath = home != null ? home.getRemote() + CYGWIN_BINARY_PATH : "";
+            capabilities.setBinPath(binPath);
+        }
+        return binPath + commandName + ".exe"; 
     }
     
     private static FilePath findTmpDir(Node node) throws IOException, InterruptedException {
@@ -163,28 +653,46 @@ public class CygwinKillHelper {
             throw new IllegalArgumentException("Node " + node.getDisplayName() + " seems to be offline");
         }
         
-        FilePath tmpDir = root.child("cygwin_process_killer").child("tmp");
-        if (!tmpDir.exists()) {
-            tmpDir.mkdirs();
-        }
+        FilePath tmpDir = getTmpDir(root);
+        tmpDir.mkdirs();
         return tmpDir;
     }
     
+    /**
+     * Gets temporary directory of the killer.
+     * @param root Root directory of the node
+     * @return Temporary directory, which may not exist
+     */
+    public static FilePath getTmpDir(FilePath root) {
+        return root.child("cygwin_process_killer").child("tmp");
+    }
+    
     private Map<String,String> constructVariables() throws IOException, InterruptedException {
-        Map<String,String> envVars = new TreeMap<String, String>();
-        if (tool != null) {
-            FilePath homePath = getSubstitutedHome();   
+        Map<String,String> envVars = capabilities.getEnvVars();
+        if (envVars != null) {
+            return envVars;
+        }
+        
+        envVars = new TreeMap<String, String>();
+        FilePath homePath = getSubstitutedHome();   
+        if (homePath != null) {
             String overridenPaths = homePath.child("bin").getRemote()+File.pathSeparator+homePath.child("lib").getRemote();
             envVars.put("PATH", overridenPaths);
             envVars.put("CYGWIN_HOME", homePath.getRemote());
         }      
+        envVars = Collections.unmodifiableMap(envVars);
+        capabilities.setEnvVars(envVars);
         return envVars;
     }
 
     private FilePath getSubstitutedHome() throws IOException, InterruptedException {
+        if (substitutedHome == null) {
+            substitutedHome = capabilities.getCygwinHome();
+        }
         if (substitutedHome == null && tool != null) {
             try {
                 substitutedHome = getCygwinHome(null);
+                capabilities.setCygwinHome(substitutedHome);
             } catch (CygwinKillerException ex) {
                 String msg = Messages.Message_InstallationFailed() + ex.getMessage();
                 logError(msg);
@@ -194,6 +702,41 @@ public class CygwinKillHelper {
         return substitutedHome;
     }    
     
+    /**
+     * Gets path on the node.
+     * @param path Absolute path
+     * @return Path, which is bound to the node's channel
+     */
+    public FilePath getNodePath(String path) throws IOException, InterruptedException {
+        return new FilePath(getTmpDir().getChannel(), path);
+    }
+    
+    public KillTimeouts getTimeouts() {
+        return timeouts;
+    }
+    
+    /**
+     * Gets deadline of the whole kill request for the node.
+     * @return Timeout in seconds
+     */
+    public int getTotalDeadlineSec() {
+        return timeouts.getTotalDeadlineSec(getMetrics(), capabilities.isCygwin() != null);
+    }
+    
+    /**
+     * Records duration of the phase in metrics of the node and in results of the helper.
+     */
+    private void recordPhase(KillPhase phase, long startTime) {
+        phaseDurations[phase.ordinal()] = getMetrics().recordPhase(phase, startTime);
+    }
+    
+    /**
+     * Gets metrics of the node.
+     */
+    public KillMetrics.NodeMetrics getMetrics() {
+        return KillMetrics.getInstance().forNode(capabilities.getName());
+    }
+    
     private void logError(String message) {
         log.error("["+CygwinProcessKillerPlugin.PLUGIN_NAME+"] - "+message);
     }
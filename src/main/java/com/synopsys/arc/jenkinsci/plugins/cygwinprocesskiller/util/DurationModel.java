@@ -0,0 +1,90 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Exponentially weighted model of durations.
+ * The model tracks the moving mean and variance, so recent samples have more
+ * weight than old ones. The 99th percentile is estimated under the normal
+ * distribution assumption.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+@ExportedBean
+public class DurationModel {
+    /**
+     * Weight of the new sample.
+     */
+    private static final double ALPHA = 0.1;
+    /**
+     * Z-score of the 99th percentile.
+     */
+    private static final double P99_Z_SCORE = 2.33;
+
+    private long samples;
+    private double mean;
+    private double variance;
+
+    /**
+     * Records duration.
+     * @param durationMs Duration in milliseconds
+     */
+    public synchronized void record(long durationMs) {
+        if (samples == 0) {
+            mean = durationMs;
+            variance = 0;
+        } else {
+            double diff = durationMs - mean;
+            double increment = ALPHA * diff;
+            mean += increment;
+            variance = (1 - ALPHA) * (variance + diff * increment);
+        }
+        samples++;
+    }
+
+    @Exported
+    public synchronized long getSamples() {
+        return samples;
+    }
+
+    /**
+     * Gets moving mean.
+     * @return Duration in milliseconds
+     */
+    @Exported
+    public synchronized long getMeanMs() {
+        return Math.round(mean);
+    }
+
+    /**
+     * Gets estimation of the 99th percentile.
+     * @return Duration in milliseconds
+     */
+    @Exported
+    public synchronized long getP99Ms() {
+        return Math.round(mean + P99_Z_SCORE * Math.sqrt(variance));
+    }
+}
@@ -0,0 +1,533 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Merges concurrent kill requests for the same node.
+ * Jenkins invokes the killer for each process of the tree. Requests join the
+ * open batch of the node, which is executed by {@link KillScheduler} as a single
+ * task after a short window. The batch is submitted to the scheduler only after
+ * the window, so neither requests nor collecting batches occupy scheduler slots
+ * while they wait, and any number of requests may be merged into a single kill script call.
+ * The batch stays open till it gets a slot, so requests, which arrive while
+ * the previous batch is running, are merged as well.
+ * Requests for PIDs, which have been already covered by a recent tree kill,
+ * receive the result of that kill without launching anything. Jenkins enumerates
+ * build processes one by one, so sequential requests for a tree are served
+ * by the result of the first request's tree kill.
+ * State of the node is dropped once it has no batches and retained results.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+public class KillCoalescer {
+    private static final KillCoalescer INSTANCE = new KillCoalescer(KillScheduler.getInstance(), 50, 5000);
+    /**
+     * Dispatches batches after their windows and drops idle nodes.
+     */
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(
+            new NamingThreadFactory(new DaemonThreadFactory(), "CygwinProcessKiller coalescer"));
+
+    private final KillScheduler scheduler;
+    private final long windowMillis;
+    private final long retentionMillis;
+    private final ConcurrentMap<String, NodeQueue> queues = new ConcurrentHashMap<String, NodeQueue>();
+
+    /**
+     * Constructs coalescer, which executes batches by the global scheduler.
+     * @param windowMillis Time to wait for other requests before the kill
+     * @param retentionMillis Time, during which results of completed kills are reused
+     */
+    public KillCoalescer(long windowMillis, long retentionMillis) {
+        this(KillScheduler.getInstance(), windowMillis, retentionMillis);
+    }
+
+    /**
+     * Constructs coalescer.
+     * @param scheduler Scheduler, which executes batches
+     * @param windowMillis Time to wait for other requests before the kill
+     * @param retentionMillis Time, during which results of completed kills are reused
+     */
+    public KillCoalescer(KillScheduler scheduler, long windowMillis, long retentionMillis) {
+        this.scheduler = scheduler;
+        this.windowMillis = windowMillis;
+        this.retentionMillis = retentionMillis;
+    }
+
+    public static KillCoalescer getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Kills the process tree.
+     * The call blocks till the completion of the batch, which covers the process.
+     * @param nodeName Name of the node
+     * @param pid PID of the process to be killed
+     * @param killer Performs kills of merged batches
+     * @return Result of the batch, which has covered the process
+     * @throws InterruptedException Operation has been interrupted
+     */
+    public KillResult kill(String nodeName, int pid, BatchKiller killer) throws InterruptedException {
+        return kill(nodeName, pid, null, killer);
+    }
+
+    /**
+     * Kills the process tree and processes, which have the build's cookie.
+     * The call blocks till the completion of the batch, which covers the process.
+     * @param nodeName Name of the node
+     * @param pid PID of the process to be killed
+     * @param cookie Environment variable of the build in the {@code NAME=VALUE} format. May be null
+     * @param killer Performs kills of merged batches
+     * @return Result of the batch, which has covered the process
+     * @throws InterruptedException Operation has been interrupted
+     */
+    public KillResult kill(String nodeName, int pid, String cookie, BatchKiller killer) throws InterruptedException {
+        Future<KillResult> future = submit(nodeName, pid, cookie, killer);
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            future.cancel(true);
+            throw ex;
+        } catch (ExecutionException ex) {
+            return KillResult.failure(String.valueOf(ex.getCause()));
+        }
+    }
+
+    /**
+     * Submits request for the kill of the process tree and processes, which have the build's cookie.
+     * Cancellation of the returned future removes the request from the pending batch.
+     * The running batch is being interrupted only if all its requests have been cancelled.
+     * @param nodeName Name of the node
+     * @param pid PID of the process to be killed
+     * @param cookie Environment variable of the build in the {@code NAME=VALUE} format. May be null
+     * @param killer Performs kills of merged batches. Killer of the first request in the batch is used
+     * @return Future of the result of the batch, which covers the process
+     */
+    public Future<KillResult> submit(String nodeName, int pid, String cookie, BatchKiller killer) {
+        while (true) {
+            NodeQueue queue = getQueue(nodeName);
+            Request request = new Request(queue, pid, cookie);
+            synchronized (queue) {
+                if (queue.removed) {
+                    continue; // The idle queue has been dropped concurrently
+                }
+                KillResult completed = queue.findCompleted(pid);
+                if (completed != null) {
+                    request.complete(completed);
+                    return request;
+                }
+                Batch batch = queue.open;
+                if (batch == null) {
+                    batch = new Batch();
+                    queue.open = batch;
+                    queue.batches++;
+                    dispatchAfterWindow(queue, batch, killer);
+                }
+                request.batch = batch;
+                batch.requests.add(request);
+            }
+            return request;
+        }
+    }
+
+    /**
+     * Submits the batch to the scheduler after the window.
+     * Should be invoked under the lock.
+     */
+    private void dispatchAfterWindow(final NodeQueue queue, final Batch batch, final BatchKiller killer) {
+        if (windowMillis <= 0) {
+            dispatch(queue, batch, killer);
+            return;
+        }
+        batch.future = TIMER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (queue) {
+                    dispatch(queue, batch, killer);
+                }
+            }
+        }, windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Submits the batch to the scheduler unless all its requests have been cancelled.
+     * Should be invoked under the lock.
+     */
+    private void dispatch(NodeQueue queue, Batch batch, BatchKiller killer) {
+        if (!batch.closed) {
+            batch.future = scheduler.submit(queue.name, new BatchTask(queue, batch, killer));
+        }
+    }
+
+    /**
+     * Closes the batch and kills processes of its live requests.
+     * Batches of the node are executed one by one.
+     */
+    private void runBatch(NodeQueue queue, Batch batch, BatchKiller killer) throws InterruptedException {
+        List<Request> toKill = new ArrayList<Request>();
+        Set<String> cookies = new LinkedHashSet<String>();
+        synchronized (queue) {
+            while (queue.running && !batch.closed) {
+                queue.wait();
+            }
+            if (batch.closed) {
+                queue.finish(batch);
+                return; // All requests have been cancelled
+            }
+            close(queue, batch);
+            queue.running = true;
+
+            // Some processes may be covered by the previous batch
+            for (Request request : batch.requests) {
+                if (request.isDone()) {
+                    continue;
+                }
+                KillResult completed = queue.findCompleted(request.pid);
+                if (completed != null) {
+                    request.complete(completed);
+                } else {
+                    toKill.add(request);
+                    if (request.cookie != null) {
+                        cookies.add(request.cookie);
+                    }
+                }
+            }
+        }
+
+        KillResult result = null;
+        try {
+            if (!toKill.isEmpty()) {
+                int[] pids = new int[toKill.size()];
+                for (int i = 0; i < pids.length; i++) {
+                    pids[i] = toKill.get(i).pid;
+                }
+                try {
+                    result = killer.kill(pids, cookies);
+                } catch (InterruptedException ex) {
+                    throw ex;
+                } catch (Exception ex) {
+                    result = KillResult.failure(ex.getMessage());
+                }
+                synchronized (queue) {
+                    queue.completed.add(new CompletedBatch(pids, result));
+                }
+            }
+        } finally {
+            synchronized (queue) {
+                queue.running = false;
+                queue.finish(batch);
+                queue.notifyAll();
+            }
+            for (Request request : toKill) {
+                request.complete(result != null ? result : KillResult.failure("Kill has been interrupted"));
+            }
+        }
+    }
+
+    /**
+     * Stops acceptance of new requests by the batch.
+     * Should be invoked under the lock.
+     */
+    private static void close(NodeQueue queue, Batch batch) {
+        if (queue.open == batch) {
+            queue.open = null;
+        }
+        batch.closed = true;
+    }
+
+    /**
+     * Gets number of nodes, which have batches or retained results.
+     */
+    int getNodeCount() {
+        return queues.size();
+    }
+
+    private NodeQueue getQueue(String nodeName) {
+        NodeQueue queue = queues.get(nodeName);
+        if (queue == null) {
+            NodeQueue newQueue = new NodeQueue(nodeName);
+            queue = queues.putIfAbsent(nodeName, newQueue);
+            if (queue == null) {
+                queue = newQueue;
+            }
+        }
+        return queue;
+    }
+
+    /**
+     * Performs kill of the merged batch.
+     */
+    public interface BatchKiller {
+        /**
+         * Kills process trees in a single invocation.
+         * @param pids PIDs of the processes to be killed
+         * @param cookies Distinct cookies of the requests. Processes with these
+         *      environment variables should be killed as well
+         * @return Result of the kill
+         */
+        KillResult kill(int[] pids, Set<String> cookies) throws Exception;
+    }
+
+    private class NodeQueue {
+        final String name;
+        Batch open;
+        boolean running;
+        /**
+         * Number of batches, which have not been finished yet.
+         */
+        int batches;
+        boolean removed;
+        final LinkedList<CompletedBatch> completed = new LinkedList<CompletedBatch>();
+
+        NodeQueue(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Finds a recently completed batch, which has covered the process.
+         * Should be invoked under the lock.
+         */
+        KillResult findCompleted(int pid) {
+            removeExpired();
+            for (CompletedBatch b : completed) {
+                if (b.covers(pid)) {
+                    return b.result;
+                }
+            }
+            return null;
+        }
+
+        private void removeExpired() {
+            long now = System.currentTimeMillis();
+            Iterator<CompletedBatch> it = completed.iterator();
+            while (it.hasNext()) {
+                if (now - it.next().timestamp > retentionMillis) {
+                    it.remove();
+                }
+            }
+        }
+
+        /**
+         * Marks the batch as finished and drops the idle queue after the retention of results.
+         * Should be invoked under the lock.
+         */
+        void finish(Batch batch) {
+            if (batch.finished) {
+                return;
+            }
+            batch.finished = true;
+            if (--batches == 0) {
+                TIMER.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        removeIfIdle();
+                    }
+                }, retentionMillis + 1, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private synchronized void removeIfIdle() {
+            removeExpired();
+            if (!removed && batches == 0 && completed.isEmpty()) {
+                removed = true;
+                queues.remove(name, this);
+            }
+        }
+    }
+
+    /**
+     * Scheduler task, which executes the batch.
+     */
+    private class BatchTask implements Callable<Void> {
+        private final NodeQueue queue;
+        private final Batch batch;
+        private final BatchKiller killer;
+
+        BatchTask(NodeQueue queue, Batch batch, BatchKiller killer) {
+            this.queue = queue;
+            this.batch = batch;
+            this.killer = killer;
+        }
+
+        @Override
+        public Void call() {
+            try {
+                runBatch(queue, batch, killer);
+            } catch (InterruptedException ex) {
+                // All requests have been cancelled, remaining ones should not wait forever
+                synchronized (queue) {
+                    close(queue, batch);
+                    queue.finish(batch);
+                }
+                for (Request request : batch.requests) {
+                    request.complete(KillResult.failure("Kill has been interrupted"));
+                }
+            }
+            return null;
+        }
+    }
+
+    private static class Batch {
+        final List<Request> requests = new ArrayList<Request>();
+        Future<?> future;
+        boolean closed;
+        boolean finished;
+    }
+
+    private static class CompletedBatch {
+        final long timestamp = System.currentTimeMillis();
+        final int[] requestedPIDs;
+        final KillResult result;
+
+        CompletedBatch(int[] requestedPIDs, KillResult result) {
+            this.requestedPIDs = requestedPIDs;
+            this.result = result;
+        }
+
+        boolean covers(int pid) {
+            if (!result.isSuccess()) {
+                return false; // Failed kills should be retried
+            }
+            for (int requested : requestedPIDs) {
+                if (requested == pid) {
+                    return true;
+                }
+            }
+            return result.isSignalled(pid);
+        }
+    }
+
+    private static class Request implements Future<KillResult> {
+        final NodeQueue queue;
+        final int pid;
+        final String cookie;
+        final CountDownLatch done = new CountDownLatch(1);
+        // Accessed under the queue's lock
+        Batch batch;
+        private volatile KillResult result;
+        private volatile boolean cancelled;
+
+        Request(NodeQueue queue, int pid, String cookie) {
+            this.queue = queue;
+            this.pid = pid;
+            this.cookie = cookie;
+        }
+
+        synchronized boolean complete(KillResult result) {
+            if (isDone()) {
+                return false;
+            }
+            this.result = result;
+            done.countDown();
+            return true;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            synchronized (queue) {
+                synchronized (this) {
+                    if (isDone()) {
+                        return false;
+                    }
+                    cancelled = true;
+                    done.countDown();
+                }
+
+                if (batch != null && !batch.closed) {
+                    batch.requests.remove(this);
+                }
+                if (batch != null && isCancelled(batch)) {
+                    if (!batch.closed) {
+                        // The batch has not been started, so its task will not finish it
+                        close(queue, batch);
+                        queue.finish(batch);
+                        queue.notifyAll();
+                        batch.future.cancel(true);
+                    } else {
+                        batch.future.cancel(mayInterruptIfRunning);
+                    }
+                }
+            }
+            return true;
+        }
+
+        private static boolean isCancelled(Batch batch) {
+            for (Request request : batch.requests) {
+                if (!request.isCancelled()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        @Override
+        public KillResult get() throws InterruptedException {
+            done.await();
+            return getResult();
+        }
+
+        @Override
+        public KillResult get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+            if (!done.await(timeout, unit)) {
+                throw new TimeoutException("Kill of the process " + pid + " has timed out");
+            }
+            return getResult();
+        }
+
+        private KillResult getResult() {
+            if (cancelled) {
+                throw new CancellationException("Kill of the process " + pid + " has been cancelled");
+            }
+            return result;
+        }
+    }
+}
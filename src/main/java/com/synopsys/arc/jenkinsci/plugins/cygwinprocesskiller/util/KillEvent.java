@@ -0,0 +1,107 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util;
+
+import java.io.Serializable;
+import java.util.Date;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Single entry of the kill history.
+ * Events of agent-local kills are being sent to the master, so the class is serializable.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+@ExportedBean
+public class KillEvent implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long timestamp;
+    private final String node;
+    private final int pid;
+    private final int processCount;
+    private final long durationMs;
+    private final int exitCode;
+    private final KillOutcome outcome;
+
+    /**
+     * Constructs event.
+     * @param timestamp Completion time of the kill
+     * @param node Name of the node ("" for the master)
+     * @param pid PID of the requested process
+     * @param processCount Number of signalled processes
+     * @param durationMs Duration of the request
+     * @param exitCode Exit code of the kill script or {@link KillResult#NO_EXIT_CODE}
+     * @param outcome Outcome of the request
+     */
+    public KillEvent(long timestamp, String node, int pid, int processCount, long durationMs, 
+            int exitCode, KillOutcome outcome) {
+        this.timestamp = timestamp;
+        this.node = node;
+        this.pid = pid;
+        this.processCount = processCount;
+        this.durationMs = durationMs;
+        this.exitCode = exitCode;
+        this.outcome = outcome;
+    }
+
+    @Exported
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public Date getTime() {
+        return new Date(timestamp);
+    }
+
+    @Exported
+    public String getNode() {
+        return node;
+    }
+
+    @Exported
+    public int getPid() {
+        return pid;
+    }
+
+    @Exported
+    public int getProcessCount() {
+        return processCount;
+    }
+
+    @Exported
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    @Exported
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    @Exported
+    public KillOutcome getOutcome() {
+        return outcome;
+    }
+}
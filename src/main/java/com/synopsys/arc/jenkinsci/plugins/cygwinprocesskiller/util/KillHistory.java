@@ -0,0 +1,459 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persistent history of kills, which is stored in a ring file with fixed-size binary records.
+ * The first record of the file is a header with the number of appended events.
+ * Event N is stored in the slot {@code N % capacity}, so the file never grows
+ * above {@code (capacity + 1) * RECORD_SIZE} bytes and the oldest events are
+ * being overwritten.
+ * Timestamps of all slots and sequence numbers of each node's events are kept
+ * in memory, so queries read only the returned records. The index is being
+ * rebuilt by a sequential scan when the file is opened.
+ * Events are stamped by the master's clock, timestamps never decrease within the file.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+public class KillHistory implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(KillHistory.class.getName());
+    public static final int RECORD_SIZE = 64;
+    public static final int DEFAULT_CAPACITY = Integer.getInteger(KillHistory.class.getName() + ".capacity", 100000);
+    private static final int MAGIC = 0x434B4831; // "CKH1"
+    private static final int VERSION = 1;
+    private static final int SCAN_BUFFER_RECORDS = 1024;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // Header layout
+    private static final int HEADER_CAPACITY = 12;
+    private static final int HEADER_COUNT = 16;
+    // Record layout
+    private static final int PID = 8;
+    private static final int PROCESS_COUNT = 12;
+    private static final int DURATION = 16;
+    private static final int EXIT_CODE = 20;
+    private static final int OUTCOME = 24;
+    private static final int NAME_LENGTH = 25;
+    private static final int NAME_HASH = 26;
+    private static final int NAME = 30;
+    /**
+     * Longer node names are truncated, nodes are distinguished by hashes of full names.
+     */
+    private static final int MAX_NAME_BYTES = RECORD_SIZE - NAME;
+
+    private final int capacity;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+
+    // All fields below are accessed under the lock
+    /**
+     * Timestamps of events by slots.
+     */
+    private final long[] timestamps;
+    /**
+     * Node indexes by slots. Used for removals of overwritten events.
+     */
+    private final NodeIndex[] owners;
+    private final Map<String, NodeIndex> nodes = new HashMap<String, NodeIndex>();
+    private long count;
+    private long lastTimestamp;
+
+    /**
+     * Opens the history.
+     * The file is being recreated if it has an incompatible format or capacity.
+     * @param path Path to the history file
+     * @param capacity Maximum number of events
+     * @throws IOException File cannot be opened
+     */
+    public KillHistory(File path, int capacity) throws IOException {
+        this.capacity = Math.max(1, capacity);
+        this.timestamps = new long[this.capacity];
+        this.owners = new NodeIndex[this.capacity];
+
+        File dir = path.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Cannot create directory " + dir);
+        }
+        this.file = new RandomAccessFile(path, "rw");
+        this.channel = file.getChannel();
+        if (readHeader()) {
+            load();
+        } else {
+            if (channel.size() != 0) {
+                LOGGER.log(Level.WARNING, "Kill history {0} has an incompatible format and will be recreated", path);
+            }
+            channel.truncate(0);
+            writeHeader();
+        }
+    }
+
+    /**
+     * Appends event to the history.
+     * Timestamp of the event is replaced by the append time.
+     * @param event Event to be stored
+     * @return Stored event
+     * @throws IOException Event cannot be written
+     */
+    public synchronized KillEvent append(KillEvent event) throws IOException {
+        long timestamp = Math.max(System.currentTimeMillis(), lastTimestamp);
+        String node = event.getNode() != null ? event.getNode() : "";
+        byte[] name = truncate(node);
+
+        buffer.clear();
+        buffer.putLong(timestamp);
+        buffer.putInt(event.getPid());
+        buffer.putInt(event.getProcessCount());
+        buffer.putInt((int) Math.min(event.getDurationMs(), Integer.MAX_VALUE));
+        buffer.putInt(event.getExitCode());
+        buffer.put((byte) event.getOutcome().ordinal());
+        buffer.put((byte) name.length);
+        buffer.putInt(node.hashCode());
+        buffer.put(name);
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) 0);
+        }
+        buffer.flip();
+        write(buffer, getOffset(count));
+
+        count++;
+        buffer.clear();
+        buffer.putLong(count);
+        buffer.flip();
+        write(buffer, HEADER_COUNT);
+
+        index(count - 1, timestamp, getKey(name, node.hashCode()), node);
+        return new KillEvent(timestamp, node, event.getPid(), event.getProcessCount(), event.getDurationMs(),
+                event.getExitCode(), event.getOutcome());
+    }
+
+    /**
+     * Gets the most recent events.
+     * @param node Name of the node or null for all nodes
+     * @param limit Maximum number of events
+     * @return Events, the newest one goes first
+     */
+    public synchronized List<KillEvent> getLast(String node, int limit) throws IOException {
+        NodeIndex index = node != null ? nodes.get(getKey(node)) : null;
+        if (node != null && index == null) {
+            return Collections.emptyList();
+        }
+
+        int size = size(index);
+        List<KillEvent> res = new ArrayList<KillEvent>(Math.max(0, Math.min(limit, size)));
+        for (int i = size - 1; i >= 0 && res.size() < limit; i--) {
+            res.add(read(getSeq(index, i)));
+        }
+        return res;
+    }
+
+    /**
+     * Gets events within the time range.
+     * Bounds of the range are located by binary searches over in-memory timestamps.
+     * @param node Name of the node or null for all nodes
+     * @param from Start of the range (inclusive)
+     * @param to End of the range (inclusive)
+     * @param limit Maximum number of events. The most recent events are returned
+     * @return Events, the newest one goes first
+     */
+    public synchronized List<KillEvent> getRange(String node, long from, long to, int limit) throws IOException {
+        NodeIndex index = node != null ? nodes.get(getKey(node)) : null;
+        if (node != null && index == null) {
+            return Collections.emptyList();
+        }
+
+        // Find the first event after the range
+        int low = 0;
+        int high = size(index);
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (getTimestamp(getSeq(index, middle)) <= to) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        List<KillEvent> res = new ArrayList<KillEvent>();
+        for (int i = low - 1; i >= 0 && res.size() < limit; i--) {
+            long seq = getSeq(index, i);
+            if (getTimestamp(seq) < from) {
+                break;
+            }
+            res.add(read(seq));
+        }
+        return res;
+    }
+
+    /**
+     * Gets nodes, which have events in the history.
+     * @return Sorted names. Long names may be truncated for events of previous sessions
+     */
+    public synchronized List<String> getNodes() {
+        List<String> res = new ArrayList<String>(nodes.size());
+        for (NodeIndex index : nodes.values()) {
+            res.add(index.name);
+        }
+        Collections.sort(res);
+        return res;
+    }
+
+    /**
+     * Gets number of events, which are stored in the history.
+     */
+    public synchronized int size() {
+        return size(null);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        file.close();
+    }
+
+    private boolean readHeader() throws IOException {
+        if (channel.size() < RECORD_SIZE) {
+            return false;
+        }
+        buffer.clear();
+        read(buffer, 0);
+        buffer.flip();
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getInt() != RECORD_SIZE 
+                || buffer.getInt(HEADER_CAPACITY) != capacity) {
+            return false;
+        }
+        // The file may be shorter than the header states, e.g. after a crash or a manual truncation
+        long storedCount = buffer.getLong(HEADER_COUNT);
+        if (storedCount < 0 || channel.size() < (Math.min(storedCount, capacity) + 1) * RECORD_SIZE) {
+            return false;
+        }
+        count = storedCount;
+        return true;
+    }
+
+    private void writeHeader() throws IOException {
+        buffer.clear();
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(RECORD_SIZE);
+        buffer.putInt(capacity);
+        buffer.putLong(count);
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) 0);
+        }
+        buffer.flip();
+        write(buffer, 0);
+    }
+
+    /**
+     * Rebuilds the index by a sequential scan of stored events.
+     */
+    private void load() throws IOException {
+        ByteBuffer scan = ByteBuffer.allocate(RECORD_SIZE * SCAN_BUFFER_RECORDS);
+        long seq = getFirstSeq();
+        while (seq < count) {
+            int slot = (int) (seq % capacity);
+            int n = (int) Math.min(Math.min(count - seq, capacity - slot), SCAN_BUFFER_RECORDS);
+            scan.clear();
+            scan.limit(n * RECORD_SIZE);
+            read(scan, getOffset(seq));
+            for (int i = 0; i < n; i++) {
+                int offset = i * RECORD_SIZE;
+                String name = getName(scan, offset);
+                lastTimestamp = Math.max(lastTimestamp, scan.getLong(offset));
+                index(seq + i, scan.getLong(offset), getKey(name, scan.getInt(offset + NAME_HASH)), name);
+            }
+            seq += n;
+        }
+    }
+
+    private void index(long seq, long timestamp, String key, String name) {
+        int slot = (int) (seq % capacity);
+        NodeIndex overwritten = owners[slot];
+        if (overwritten != null) {
+            overwritten.removeFirst();
+            if (overwritten.size == 0) {
+                nodes.remove(overwritten.key);
+            }
+        }
+
+        NodeIndex index = nodes.get(key);
+        if (index == null) {
+            index = new NodeIndex(key, name);
+            nodes.put(key, index);
+        }
+        // Full names of the current session replace truncated names
+        if (name.length() > index.name.length()) {
+            index.name = name;
+        }
+        index.add(seq);
+        owners[slot] = index;
+        timestamps[slot] = timestamp;
+        lastTimestamp = Math.max(lastTimestamp, timestamp);
+    }
+
+    private KillEvent read(long seq) throws IOException {
+        buffer.clear();
+        read(buffer, getOffset(seq));
+        KillOutcome outcome = KillOutcome.fromOrdinal(buffer.get(OUTCOME));
+        return new KillEvent(buffer.getLong(0), owners[(int) (seq % capacity)].name, buffer.getInt(PID), 
+                buffer.getInt(PROCESS_COUNT), buffer.getInt(DURATION), buffer.getInt(EXIT_CODE), 
+                outcome != null ? outcome : KillOutcome.NOT_EXECUTED);
+    }
+
+    private int size(NodeIndex index) {
+        return index != null ? index.size : (int) Math.min(count, capacity);
+    }
+
+    /**
+     * Gets sequence number of the event.
+     * @param index Index of the node or null for all nodes
+     * @param i Position of the event, the oldest one has 0
+     */
+    private long getSeq(NodeIndex index, int i) {
+        return index != null ? index.get(i) : getFirstSeq() + i;
+    }
+
+    private long getFirstSeq() {
+        return Math.max(0, count - capacity);
+    }
+
+    private long getTimestamp(long seq) {
+        return timestamps[(int) (seq % capacity)];
+    }
+
+    /**
+     * Gets offset of the event's record. The header occupies the first record.
+     */
+    private long getOffset(long seq) {
+        return (seq % capacity + 1) * RECORD_SIZE;
+    }
+
+    private void read(ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            if (channel.read(dst, position + dst.position()) < 0) {
+                throw new IOException("Unexpected end of the kill history");
+            }
+        }
+    }
+
+    private void write(ByteBuffer src, long position) throws IOException {
+        while (src.hasRemaining()) {
+            channel.write(src, position + src.position());
+        }
+    }
+
+    private static String getName(ByteBuffer record, int offset) {
+        int length = Math.min(record.get(offset + NAME_LENGTH) & 0xFF, MAX_NAME_BYTES);
+        byte[] name = new byte[length];
+        for (int i = 0; i < length; i++) {
+            name[i] = record.get(offset + NAME + i);
+        }
+        return new String(name, UTF8);
+    }
+
+    /**
+     * Encodes the node name.
+     * Names are truncated on boundaries of UTF-8 characters.
+     */
+    private static byte[] truncate(String node) {
+        byte[] name = node.getBytes(UTF8);
+        if (name.length <= MAX_NAME_BYTES) {
+            return name;
+        }
+        int length = MAX_NAME_BYTES;
+        while (length > 0 && (name[length] & 0xC0) == 0x80) {
+            length--;
+        }
+        return Arrays.copyOf(name, length);
+    }
+
+    private static String getKey(String node) {
+        return getKey(truncate(node), node.hashCode());
+    }
+
+    private static String getKey(byte[] truncatedName, int hash) {
+        return getKey(new String(truncatedName, UTF8), hash);
+    }
+
+    private static String getKey(String truncatedName, int hash) {
+        return hash + ":" + truncatedName;
+    }
+
+    /**
+     * Sequence numbers of the node's events in the append order.
+     */
+    private static class NodeIndex {
+        final String key;
+        String name;
+        long[] seqs = new long[16];
+        int head;
+        int size;
+
+        NodeIndex(String key, String name) {
+            this.key = key;
+            this.name = name;
+        }
+
+        void add(long seq) {
+            if (size == seqs.length) {
+                long[] grown = new long[seqs.length * 2];
+                for (int i = 0; i < size; i++) {
+                    grown[i] = get(i);
+                }
+                seqs = grown;
+                head = 0;
+            }
+            seqs[(head + size) % seqs.length] = seq;
+            size++;
+        }
+
+        long get(int i) {
+            return seqs[(head + i) % seqs.length];
+        }
+
+        void removeFirst() {
+            head = (head + 1) % seqs.length;
+            size--;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Collects latencies and outcomes of kills for each node.
+ * Metrics are being stored in memory and reset on Jenkins restart.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+@ExportedBean
+public class KillMetrics {
+    private static final KillMetrics INSTANCE = new KillMetrics();
+
+    private final ConcurrentMap<String, NodeMetrics> nodes = new ConcurrentHashMap<String, NodeMetrics>();
+
+    public static KillMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Gets metrics of the node.
+     * @param nodeName Name of the node ("" for the master)
+     * @return Metrics. Will be created if they do not exist
+     */
+    public NodeMetrics forNode(String nodeName) {
+        NodeMetrics metrics = nodes.get(nodeName);
+        if (metrics == null) {
+            NodeMetrics newMetrics = new NodeMetrics(nodeName);
+            metrics = nodes.putIfAbsent(nodeName, newMetrics);
+            if (metrics == null) {
+                metrics = newMetrics;
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Gets metrics of the node if they exist.
+     * @param nodeName Name of the node
+     * @return Metrics or null
+     */
+    public NodeMetrics getNode(String nodeName) {
+        return nodes.get(nodeName);
+    }
+
+    @Exported(inline = true)
+    public List<NodeMetrics> getNodes() {
+        List<NodeMetrics> res = new ArrayList<NodeMetrics>(nodes.values());
+        Collections.sort(res);
+        return res;
+    }
+
+    /**
+     * Drops all collected metrics.
+     */
+    public void reset() {
+        nodes.clear();
+    }
+
+    /**
+     * Kill metrics of a single node.
+     */
+    @ExportedBean
+    public static class NodeMetrics implements Comparable<NodeMetrics> {
+        private final String name;
+        private final Map<KillPhase, LatencyHistogram> phases = new EnumMap<KillPhase, LatencyHistogram>(KillPhase.class);
+        private final Map<KillPhase, DurationModel> models = new EnumMap<KillPhase, DurationModel>(KillPhase.class);
+        private final LatencyHistogram processesPerKill = new LatencyHistogram(LatencyHistogram.COUNT_BOUNDS);
+        private final AtomicLong succeeded = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong timedOut = new AtomicLong();
+
+        NodeMetrics(String name) {
+            this.name = name;
+            for (KillPhase phase : KillPhase.values()) {
+                phases.put(phase, new LatencyHistogram(LatencyHistogram.LATENCY_BOUNDS_MS));
+                models.put(phase, new DurationModel());
+            }
+        }
+
+        /**
+         * Records duration of the phase.
+         * @param phase Kill phase
+         * @param startTime Start time of the phase, {@link System#currentTimeMillis()}
+         * @return Recorded duration in milliseconds
+         */
+        public long recordPhase(KillPhase phase, long startTime) {
+            long duration = System.currentTimeMillis() - startTime;
+            phases.get(phase).record(duration);
+            models.get(phase).record(duration);
+            return duration;
+        }
+
+        public void recordProcessCount(int processCount) {
+            processesPerKill.record(processCount);
+        }
+
+        public void recordSuccess() {
+            succeeded.incrementAndGet();
+        }
+
+        public void recordFailure() {
+            failed.incrementAndGet();
+        }
+
+        public void recordTimeout() {
+            timedOut.incrementAndGet();
+        }
+
+        @Exported
+        public String getName() {
+            return name;
+        }
+
+        @Exported
+        public long getSucceeded() {
+            return succeeded.get();
+        }
+
+        @Exported
+        public long getFailed() {
+            return failed.get();
+        }
+
+        @Exported
+        public long getTimedOut() {
+            return timedOut.get();
+        }
+
+        @Exported(inline = true)
+        public LatencyHistogram getProcessesPerKill() {
+            return processesPerKill;
+        }
+
+        public LatencyHistogram getPhase(KillPhase phase) {
+            return phases.get(phase);
+        }
+
+        /**
+         * Gets moving model of the phase duration.
+         * Unlike histograms, models also receive durations of failed phases.
+         * @param phase Kill phase
+         * @return Duration model
+         */
+        public DurationModel getModel(KillPhase phase) {
+            return models.get(phase);
+        }
+
+        @Exported(inline = true)
+        public List<PhaseMetrics> getPhases() {
+            List<PhaseMetrics> res = new ArrayList<PhaseMetrics>(phases.size());
+            for (Map.Entry<KillPhase, LatencyHistogram> entry : phases.entrySet()) {
+                res.add(new PhaseMetrics(entry.getKey(), entry.getValue(), models.get(entry.getKey())));
+            }
+            return res;
+        }
+
+        @Override
+        public int compareTo(NodeMetrics o) {
+            return name.compareTo(o.name);
+        }
+    }
+
+    /**
+     * Latency of a single phase.
+     */
+    @ExportedBean
+    public static class PhaseMetrics {
+        private final KillPhase phase;
+        private final LatencyHistogram latency;
+        private final DurationModel model;
+
+        PhaseMetrics(KillPhase phase, LatencyHistogram latency, DurationModel model) {
+            this.phase = phase;
+            this.latency = latency;
+            this.model = model;
+        }
+
+        @Exported
+        public String getPhase() {
+            return phase.name();
+        }
+
+        @Exported(inline = true)
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        @Exported(inline = true)
+        public DurationModel getModel() {
+            return model;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util;
+
+/**
+ * Outcome of the kill request, which is stored in the kill history.
+ * Ordinals are persisted, so new values should be added to the end.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+public enum KillOutcome {
+    /**
+     * The requested process has been killed.
+     */
+    KILLED,
+    /**
+     * The requested process has been killed, but other signalled processes have survived.
+     */
+    PARTIAL,
+    /**
+     * The kill script has been executed, but the requested process has not been killed.
+     */
+    FAILED,
+    /**
+     * The kill script has not been executed (e.g. timeouts, suspended nodes, missing Cygwin).
+     */
+    NOT_EXECUTED;
+
+    /**
+     * Gets outcome of the kill.
+     * @param killed The requested process has been killed
+     * @param partial Some signalled processes have survived the kill
+     * @param exitCode Exit code of the kill script or {@link KillResult#NO_EXIT_CODE}
+     * @return Outcome
+     */
+    public static KillOutcome of(boolean killed, boolean partial, int exitCode) {
+        if (killed) {
+            return partial ? PARTIAL : KILLED;
+        }
+        return exitCode != KillResult.NO_EXIT_CODE ? FAILED : NOT_EXECUTED;
+    }
+
+    /**
+     * Gets outcome by the persisted ordinal.
+     * @param ordinal Ordinal of the outcome
+     * @return Outcome or null if the ordinal is unknown
+     */
+    public static KillOutcome fromOrdinal(int ordinal) {
+        KillOutcome[] values = values();
+        return ordinal >= 0 && ordinal < values.length ? values[ordinal] : null;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util;
+
+/**
+ * Phases of the kill operation, which are measured by {@link KillMetrics}.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+public enum KillPhase {
+    /**
+     * Whole handling of the kill request on the master or in the agent-local mode.
+     */
+    CALL,
+    /**
+     * Cygwin platform check.
+     */
+    PROBE,
+    /**
+     * Resolution of the temporary directory.
+     */
+    TMP_DIR,
+    /**
+     * Retrieval of Windows PIDs, which are translated to Cygwin PIDs.
+     */
+    WINPID_MAP,
+    /**
+     * Retrieval of the process list and resolution of process trees.
+     */
+    SNAPSHOT,
+    /**
+     * Upload of the kill script.
+     */
+    STAGING,
+    /**
+     * Execution of the kill script including signal delivery.
+     */
+    EXECUTION
+}
@@ -0,0 +1,189 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Result of a single kill script invocation.
+ * The result is being passed over the channel, so all lists are stored as plain arrays.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+public class KillResult implements Serializable {
+    private static final long serialVersionUID = 2L;
+    private static final int[] NO_PIDS = new int[0];
+    /**
+     * Exit code for results, which have not been produced by the script.
+     */
+    public static final int NO_EXIT_CODE = -1;
+    /**
+     * Duration of phases, which have not been executed.
+     */
+    public static final long NOT_EXECUTED = -1;
+
+    private final boolean success;
+    private final String errorMessage;
+    /**
+     * Sorted list of PIDs, which have been signalled by the script.
+     */
+    private final int[] signalledPIDs;
+    /**
+     * Sorted list of PIDs, which are still alive after the kill.
+     */
+    private final int[] survivorPIDs;
+    private final int exitCode;
+    /**
+     * Durations of phases in milliseconds, indexed by {@link KillPhase#ordinal()}.
+     */
+    private final long[] phaseDurations;
+    /**
+     * The killer is not applicable to the node, e.g. Cygwin is not installed there.
+     */
+    private final boolean notApplicable;
+
+    public KillResult(boolean success, String errorMessage, int[] signalledPIDs) {
+        this(success, errorMessage, signalledPIDs, null, NO_EXIT_CODE, null);
+    }
+
+    /**
+     * Constructs result.
+     * @param success Script has completed successfully
+     * @param errorMessage Error message. Null for successful kills
+     * @param signalledPIDs PIDs, which have been signalled by the script
+     * @param survivorPIDs PIDs, which are still alive after the kill
+     * @param exitCode Exit code of the script
+     * @param phaseDurations Durations of phases indexed by {@link KillPhase#ordinal()}.
+     *      {@link #NOT_EXECUTED} for skipped phases
+     */
+    public KillResult(boolean success, String errorMessage, int[] signalledPIDs, int[] survivorPIDs,
+            int exitCode, long[] phaseDurations) {
+        this(success, errorMessage, signalledPIDs, survivorPIDs, exitCode, phaseDurations, false);
+    }
+
+    private KillResult(boolean success, String errorMessage, int[] signalledPIDs, int[] survivorPIDs,
+            int exitCode, long[] phaseDurations, boolean notApplicable) {
+        this.success = success;
+        this.errorMessage = errorMessage;
+        this.signalledPIDs = sortedCopy(signalledPIDs);
+        this.survivorPIDs = sortedCopy(survivorPIDs);
+        this.exitCode = exitCode;
+        this.phaseDurations = phaseDurations != null ? phaseDurations.clone() : newPhaseDurations();
+        this.notApplicable = notApplicable;
+    }
+
+    public static KillResult failure(String errorMessage) {
+        return new KillResult(false, errorMessage, null);
+    }
+
+    /**
+     * Creates result for nodes, where the killer is not applicable.
+     * Such results are not failures of the killer, so they do not affect circuit breakers.
+     * @param errorMessage Reason, e.g. Cygwin is not installed on the node
+     * @return Unsuccessful result
+     */
+    public static KillResult notApplicable(String errorMessage) {
+        return new KillResult(false, errorMessage, null, null, NO_EXIT_CODE, null, true);
+    }
+
+    /**
+     * Creates array of phase durations, in which all phases are not executed.
+     */
+    public static long[] newPhaseDurations() {
+        long[] res = new long[KillPhase.values().length];
+        Arrays.fill(res, NOT_EXECUTED);
+        return res;
+    }
+
+    private static int[] sortedCopy(int[] pids) {
+        if (pids == null || pids.length == 0) {
+            return NO_PIDS;
+        }
+        int[] res = pids.clone();
+        Arrays.sort(res);
+        return res;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public boolean isNotApplicable() {
+        return notApplicable;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public int[] getSignalledPIDs() {
+        return signalledPIDs.clone();
+    }
+
+    public int[] getSurvivorPIDs() {
+        return survivorPIDs.clone();
+    }
+
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    /**
+     * Gets duration of the phase.
+     * @param phase Kill phase
+     * @return Duration in milliseconds or {@link #NOT_EXECUTED}
+     */
+    public long getPhaseDuration(KillPhase phase) {
+        return phaseDurations[phase.ordinal()];
+    }
+
+    public long[] getPhaseDurations() {
+        return phaseDurations.clone();
+    }
+
+    /**
+     * Checks that the process has been signalled by the script.
+     * @param pid PID of the process
+     * @return true if the PID has been reported by the script
+     */
+    public boolean isSignalled(int pid) {
+        return Arrays.binarySearch(signalledPIDs, pid) >= 0;
+    }
+
+    /**
+     * Checks that the process has survived the kill.
+     * @param pid PID of the process
+     * @return true if the PID has been reported as alive after the kill
+     */
+    public boolean isSurvivor(int pid) {
+        return Arrays.binarySearch(survivorPIDs, pid) >= 0;
+    }
+
+    /**
+     * Checks that some signalled processes have survived the kill.
+     */
+    public boolean isPartial() {
+        return survivorPIDs.length != 0;
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Executes kill tasks with bounded concurrency.
+ * Number of running tasks is limited both globally and per node. Pending tasks
+ * are being dispatched in the round-robin order across nodes, so a slow node
+ * does not delay kills on other nodes.
+ * Limits can be changed by the {@code maxConcurrentKills} and {@code maxKillsPerNode}
+ * system properties with the class name prefix.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+@ExportedBean
+public class KillScheduler {
+    private static final KillScheduler INSTANCE = new KillScheduler(
+            Integer.getInteger(KillScheduler.class.getName() + ".maxConcurrentKills", 16),
+            Integer.getInteger(KillScheduler.class.getName() + ".maxKillsPerNode", 4));
+
+    private final int maxConcurrent;
+    private final int maxPerNode;
+    private final ExecutorService executor = Executors.newCachedThreadPool(
+            new NamingThreadFactory(new DaemonThreadFactory(), "CygwinProcessKiller"));
+    private final LatencyHistogram waitTime = new LatencyHistogram(LatencyHistogram.LATENCY_BOUNDS_MS);
+
+    // All fields below are accessed under the lock
+    private final Map<String, NodeQueue> queues = new HashMap<String, NodeQueue>();
+    /**
+     * Nodes with pending tasks in the round-robin order.
+     */
+    private final LinkedList<NodeQueue> ready = new LinkedList<NodeQueue>();
+    private int running;
+    private int queued;
+
+    /**
+     * Constructs scheduler.
+     * @param maxConcurrent Maximum number of running tasks
+     * @param maxPerNode Maximum number of running tasks for a single node
+     */
+    public KillScheduler(int maxConcurrent, int maxPerNode) {
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.maxPerNode = Math.max(1, maxPerNode);
+    }
+
+    public static KillScheduler getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Submits kill task.
+     * Cancellation of the returned future removes the pending task or interrupts the running one.
+     * @param <T> Type of the task result
+     * @param nodeName Name of the node, which is affected by the task
+     * @param task Task to be executed
+     * @return Future of the task
+     */
+    public <T> Future<T> submit(String nodeName, Callable<T> task) {
+        ScheduledTask<T> scheduled;
+        synchronized (this) {
+            NodeQueue queue = queues.get(nodeName);
+            if (queue == null) {
+                queue = new NodeQueue(nodeName);
+                queues.put(nodeName, queue);
+            }
+            scheduled = new ScheduledTask<T>(task, queue);
+            if (queue.pending.isEmpty()) {
+                ready.add(queue);
+            }
+            queue.pending.add(scheduled);
+            queued++;
+        }
+        dispatch();
+        return scheduled;
+    }
+
+    /**
+     * Starts pending tasks while limits allow.
+     */
+    private void dispatch() {
+        List<ScheduledTask<?>> toStart = new ArrayList<ScheduledTask<?>>();
+        synchronized (this) {
+            while (running < maxConcurrent) {
+                NodeQueue queue = pollReadyQueue();
+                if (queue == null) {
+                    break; // All nodes with pending tasks have reached the limit
+                }
+
+                ScheduledTask<?> task = queue.pending.poll();
+                queued--;
+                if (!queue.pending.isEmpty()) {
+                    ready.add(queue); // Go to the end of the round
+                }
+                if (task.isCancelled()) {
+                    if (queue.running == 0 && queue.pending.isEmpty()) {
+                        queues.remove(queue.name);
+                    }
+                    continue;
+                }
+
+                queue.running++;
+                running++;
+                toStart.add(task);
+            }
+        }
+
+        for (ScheduledTask<?> task : toStart) {
+            waitTime.record(System.currentTimeMillis() - task.submitTime);
+            executor.execute(task);
+        }
+    }
+
+    /**
+     * Retrieves the first node, which has not reached the limit.
+     * Should be invoked under the lock.
+     */
+    private NodeQueue pollReadyQueue() {
+        Iterator<NodeQueue> it = ready.iterator();
+        while (it.hasNext()) {
+            NodeQueue queue = it.next();
+            if (queue.running < maxPerNode) {
+                it.remove();
+                return queue;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes the cancelled task from the queue, so it is not counted as pending.
+     */
+    private synchronized void onCancelled(ScheduledTask<?> task) {
+        NodeQueue queue = task.queue;
+        if (!queue.pending.remove(task)) {
+            return; // Already dispatched
+        }
+        queued--;
+        if (queue.pending.isEmpty()) {
+            ready.remove(queue);
+            if (queue.running == 0) {
+                queues.remove(queue.name);
+            }
+        }
+    }
+
+    private void onCompleted(NodeQueue queue) {
+        synchronized (this) {
+            running--;
+            queue.running--;
+            if (queue.running == 0 && queue.pending.isEmpty()) {
+                queues.remove(queue.name);
+            }
+        }
+        dispatch();
+    }
+
+    @Exported
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    @Exported
+    public int getMaxPerNode() {
+        return maxPerNode;
+    }
+
+    /**
+     * Gets number of running tasks.
+     */
+    @Exported
+    public synchronized int getRunning() {
+        return running;
+    }
+
+    /**
+     * Gets number of pending tasks (queue depth).
+     */
+    @Exported
+    public synchronized int getQueued() {
+        return queued;
+    }
+
+    /**
+     * Gets time between submission and start of tasks.
+     */
+    @Exported(inline = true)
+    public LatencyHistogram getWaitTime() {
+        return waitTime;
+    }
+
+    /**
+     * Gets states of nodes with running or pending tasks.
+     */
+    @Exported(inline = true)
+    public synchronized List<NodeState> getNodes() {
+        List<NodeState> res = new ArrayList<NodeState>(queues.size());
+        for (NodeQueue queue : queues.values()) {
+            res.add(new NodeState(queue.name, queue.running, queue.pending.size()));
+        }
+        Collections.sort(res);
+        return res;
+    }
+
+    /**
+     * Queue of a single node.
+     */
+    private static class NodeQueue {
+        final String name;
+        final LinkedList<ScheduledTask<?>> pending = new LinkedList<ScheduledTask<?>>();
+        int running;
+
+        NodeQueue(String name) {
+            this.name = name;
+        }
+    }
+
+    private class ScheduledTask<T> extends FutureTask<T> {
+        final long submitTime = System.currentTimeMillis();
+        final NodeQueue queue;
+
+        ScheduledTask(Callable<T> callable, NodeQueue queue) {
+            super(callable);
+            this.queue = queue;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean res = super.cancel(mayInterruptIfRunning);
+            if (res) {
+                onCancelled(this);
+            }
+            return res;
+        }
+
+        @Override
+        public void run() {
+            try {
+                super.run();
+            } finally {
+                onCompleted(queue);
+            }
+        }
+    }
+
+    /**
+     * Snapshot of the node's queue.
+     */
+    @ExportedBean
+    public static class NodeState implements Comparable<NodeState> {
+        private final String name;
+        private final int running;
+        private final int queued;
+
+        public NodeState(String name, int running, int queued) {
+            this.name = name;
+            this.running = running;
+            this.queued = queued;
+        }
+
+        @Exported
+        public String getName() {
+            return name;
+        }
+
+        @Exported
+        public int getRunning() {
+            return running;
+        }
+
+        @Exported
+        public int getQueued() {
+            return queued;
+        }
+
+        @Override
+        public int compareTo(NodeState o) {
+            return name.compareTo(o.name);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util;
+
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.Messages;
+
+/**
+ * Defines how process trees are being signalled by the default kill script.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+public enum KillStrategy {
+    /**
+     * Each process of the tree is being signalled separately.
+     */
+    TREE(null),
+    /**
+     * Process groups, whose leaders belong to the tree, are signalled by a single kill.
+     * Other processes of the tree are being signalled separately.
+     */
+    PROCESS_GROUP("-p"),
+    /**
+     * Process groups of sessions, whose leaders belong to the tree, are signalled by a single kill.
+     * Other processes of the tree are being signalled separately.
+     */
+    SESSION("-s");
+
+    private final String scriptOption;
+
+    private KillStrategy(String scriptOption) {
+        this.scriptOption = scriptOption;
+    }
+
+    /**
+     * Gets option of the kill script, which enables the strategy.
+     * @return Option or null if the script should use its default behavior
+     */
+    public String getScriptOption() {
+        return scriptOption;
+    }
+
+    public String getDisplayName() {
+        switch (this) {
+            case PROCESS_GROUP:
+                return Messages.KillStrategy_ProcessGroup();
+            case SESSION:
+                return Messages.KillStrategy_Session();
+            default:
+                return Messages.KillStrategy_Tree();
+        }
+    }
+}
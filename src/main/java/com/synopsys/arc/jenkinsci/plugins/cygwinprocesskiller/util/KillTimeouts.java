@@ -0,0 +1,181 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util;
+
+import java.io.Serializable;
+
+/**
+ * Deadlines of kill phases.
+ * Adaptive deadlines are derived from duration models of the node: the
+ * estimated 99th percentile is multiplied by the safety factor and limited
+ * by the floor and the configured timeout, which acts as a ceiling.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+public class KillTimeouts implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final int DEFAULT_PROBE_TIMEOUT_SEC = 30;
+    public static final int DEFAULT_KILL_TIMEOUT_SEC = 60;
+    public static final int DEFAULT_GRACE_PERIOD_SEC = 5;
+    public static final int DEFAULT_ADAPTIVE_FLOOR_SEC = 5;
+    public static final double DEFAULT_SAFETY_FACTOR = 3;
+    /**
+     * Number of samples, which are required for adaptive deadlines.
+     * Configured timeouts are used before that.
+     */
+    public static final int MIN_ADAPTIVE_SAMPLES = 5;
+
+    private final int probeTimeoutSec;
+    private final int killTimeoutSec;
+    private final int gracePeriodSec;
+    private final boolean adaptive;
+    private final int adaptiveFloorSec;
+    private final double safetyFactor;
+
+    /**
+     * Constructs fixed timeouts.
+     * @param probeTimeoutSec Timeout of the Cygwin platform check
+     * @param killTimeoutSec Timeout of the kill script, excluding the grace period
+     * @param gracePeriodSec Time between SIGTERM and SIGKILL. 0 disables SIGTERM
+     */
+    public KillTimeouts(int probeTimeoutSec, int killTimeoutSec, int gracePeriodSec) {
+        this(probeTimeoutSec, killTimeoutSec, gracePeriodSec, false, DEFAULT_ADAPTIVE_FLOOR_SEC, DEFAULT_SAFETY_FACTOR);
+    }
+
+    /**
+     * Constructs timeouts.
+     * @param probeTimeoutSec Timeout of the Cygwin platform check. Ceiling of the adaptive deadline
+     * @param killTimeoutSec Timeout of the kill script, excluding the grace period. Ceiling of the adaptive deadline
+     * @param gracePeriodSec Time between SIGTERM and SIGKILL. 0 disables SIGTERM
+     * @param adaptive Derive deadlines from durations, which have been observed on the node
+     * @param adaptiveFloorSec Minimal adaptive deadline
+     * @param safetyFactor Multiplier of the estimated 99th percentile
+     */
+    public KillTimeouts(int probeTimeoutSec, int killTimeoutSec, int gracePeriodSec, 
+            boolean adaptive, int adaptiveFloorSec, double safetyFactor) {
+        this.probeTimeoutSec = probeTimeoutSec;
+        this.killTimeoutSec = killTimeoutSec;
+        this.gracePeriodSec = gracePeriodSec;
+        this.adaptive = adaptive;
+        this.adaptiveFloorSec = adaptiveFloorSec;
+        this.safetyFactor = safetyFactor;
+    }
+
+    public static KillTimeouts getDefault() {
+        return new KillTimeouts(DEFAULT_PROBE_TIMEOUT_SEC, DEFAULT_KILL_TIMEOUT_SEC, DEFAULT_GRACE_PERIOD_SEC);
+    }
+
+    public int getProbeTimeoutSec() {
+        return probeTimeoutSec;
+    }
+
+    public int getKillTimeoutSec() {
+        return killTimeoutSec;
+    }
+
+    public int getGracePeriodSec() {
+        return gracePeriodSec;
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    public int getAdaptiveFloorSec() {
+        return adaptiveFloorSec;
+    }
+
+    public double getSafetyFactor() {
+        return safetyFactor;
+    }
+
+    /**
+     * Gets deadline of the Cygwin platform check on the node.
+     * @param metrics Metrics of the node
+     * @return Timeout in seconds
+     */
+    public int getProbeDeadlineSec(KillMetrics.NodeMetrics metrics) {
+        return getDeadlineSec(metrics.getModel(KillPhase.PROBE), probeTimeoutSec);
+    }
+
+    /**
+     * Gets deadline of the kill script on the node including the grace period.
+     * Observed durations already include the grace period, so it is applied to limits only.
+     * @param metrics Metrics of the node
+     * @return Timeout in seconds
+     */
+    public int getScriptDeadlineSec(KillMetrics.NodeMetrics metrics) {
+        if (!adaptive) {
+            return getScriptTimeoutSec();
+        }
+        DurationModel model = metrics.getModel(KillPhase.EXECUTION);
+        if (model.getSamples() < MIN_ADAPTIVE_SAMPLES) {
+            return getScriptTimeoutSec();
+        }
+        return clamp(model.getP99Ms(), adaptiveFloorSec + gracePeriodSec, getScriptTimeoutSec());
+    }
+
+    private int getDeadlineSec(DurationModel model, int ceilingSec) {
+        if (!adaptive || model.getSamples() < MIN_ADAPTIVE_SAMPLES) {
+            return ceilingSec;
+        }
+        return clamp(model.getP99Ms(), adaptiveFloorSec, ceilingSec);
+    }
+
+    private int clamp(long p99Ms, int floorSec, int ceilingSec) {
+        long deadlineSec = (long) Math.ceil(p99Ms * safetyFactor / 1000);
+        return (int) Math.max(Math.min(floorSec, ceilingSec), Math.min(deadlineSec, ceilingSec));
+    }
+
+    /**
+     * Gets deadline of the kill script including the grace period.
+     * @return Timeout in seconds
+     */
+    public int getScriptTimeoutSec() {
+        return killTimeoutSec + gracePeriodSec;
+    }
+
+    /**
+     * Gets deadline of the whole kill operation.
+     * @return Timeout in seconds
+     */
+    public int getTotalTimeoutSec() {
+        return probeTimeoutSec + getScriptTimeoutSec();
+    }
+
+    /**
+     * Gets deadline of the whole kill operation on the node.
+     * The deadline is a sum of deadlines of phases, which are going to run.
+     * Probe results are cached, so the probe is skipped once it has completed.
+     * Its model rarely gets enough samples, and the configured probe timeout
+     * would otherwise dominate the adaptive total.
+     * @param metrics Metrics of the node
+     * @param probeCached Result of the Cygwin platform check is cached for the node
+     * @return Timeout in seconds, which does not exceed {@link #getTotalTimeoutSec()}
+     */
+    public int getTotalDeadlineSec(KillMetrics.NodeMetrics metrics, boolean probeCached) {
+        int probeDeadlineSec = probeCached ? 0 : getProbeDeadlineSec(metrics);
+        return Math.min(probeDeadlineSec + getScriptDeadlineSec(metrics), getTotalTimeoutSec());
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Lock-free histogram with fixed bucket bounds.
+ * Percentiles are estimated by upper bounds of buckets.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+@ExportedBean
+public class LatencyHistogram {
+    /**
+     * Default bounds for durations in milliseconds.
+     */
+    public static final long[] LATENCY_BOUNDS_MS = {1, 2, 5, 10, 20, 50, 100, 200, 500,
+        1000, 2000, 5000, 10000, 30000, 60000, 120000, 300000};
+    /**
+     * Default bounds for numbers of processes.
+     */
+    public static final long[] COUNT_BOUNDS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000};
+
+    private final long[] bounds;
+    // The last bucket collects values above the highest bound
+    private final AtomicLongArray buckets;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram(long[] bounds) {
+        this.bounds = bounds.clone();
+        this.buckets = new AtomicLongArray(bounds.length + 1);
+    }
+
+    public void record(long value) {
+        int i = 0;
+        while (i < bounds.length && value > bounds[i]) {
+            i++;
+        }
+        buckets.incrementAndGet(i);
+        count.incrementAndGet();
+        sum.addAndGet(value);
+
+        long currentMax;
+        while (value > (currentMax = max.get())) {
+            if (max.compareAndSet(currentMax, value)) {
+                break;
+            }
+        }
+    }
+
+    @Exported
+    public long getCount() {
+        return count.get();
+    }
+
+    @Exported
+    public long getMax() {
+        return max.get();
+    }
+
+    @Exported
+    public long getMean() {
+        long c = count.get();
+        return c != 0 ? sum.get() / c : 0;
+    }
+
+    @Exported
+    public long getP50() {
+        return getPercentile(0.5);
+    }
+
+    @Exported
+    public long getP90() {
+        return getPercentile(0.9);
+    }
+
+    @Exported
+    public long getP99() {
+        return getPercentile(0.99);
+    }
+
+    /**
+     * Gets bucket counters.
+     * @return Counters. The last element counts values above the highest bound
+     */
+    @Exported
+    public long[] getBuckets() {
+        long[] res = new long[buckets.length()];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = buckets.get(i);
+        }
+        return res;
+    }
+
+    @Exported
+    public long[] getBounds() {
+        return bounds.clone();
+    }
+
+    /**
+     * Estimates percentile.
+     * @param fraction Percentile in the [0,1] range
+     * @return Upper bound of the bucket, which contains the percentile.
+     *      Maximum value for the last bucket
+     */
+    public long getPercentile(double fraction) {
+        long[] snapshot = getBuckets();
+        long total = 0;
+        for (long c : snapshot) {
+            total += c;
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long threshold = (long) Math.ceil(total * fraction);
+        long accumulated = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            accumulated += snapshot[i];
+            if (accumulated >= threshold) {
+                return i < bounds.length ? Math.min(bounds[i], getMax()) : getMax();
+            }
+        }
+        return getMax();
+    }
+}
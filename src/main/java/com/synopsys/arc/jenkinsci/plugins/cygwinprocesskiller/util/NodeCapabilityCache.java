@@ -0,0 +1,331 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util;
+
+import hudson.FilePath;
+import hudson.model.Node;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Master-side cache of the Cygwin capabilities of nodes.
+ * Stores results of the platform probe and resolved directories, so they
+ * are not retrieved again for each killed process.
+ * Entries should be invalidated on node reconnection and on configuration changes.
+ * Each entry remembers the node instance, for which it has been created. Jenkins
+ * replaces node instances on reconfiguration, so changed nodes can be found
+ * without dropping data of other nodes.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+public class NodeCapabilityCache {
+    private static final NodeCapabilityCache INSTANCE = new NodeCapabilityCache();
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    public static NodeCapabilityCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Gets cache entry for the node.
+     * @param node Target node
+     * @return Entry for the node. Entry will be created if it does not exist.
+     */
+    public Entry get(Node node) {
+        String key = getKey(node);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            Entry newEntry = new Entry(key, node);
+            entry = entries.putIfAbsent(key, newEntry);
+            if (entry == null) {
+                entry = newEntry;
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Drops cached data for the specified node.
+     * @param nodeName Name of the node ("" for the master)
+     */
+    public void invalidate(String nodeName) {
+        Entry entry = entries.remove(nodeName);
+        if (entry != null) {
+            entry.dispose();
+        }
+    }
+
+    /**
+     * Drops cached data of the node if it has been resolved for another node configuration.
+     * @param node Current node instance
+     * @return true if the data has been dropped
+     */
+    public boolean invalidateIfReconfigured(Node node) {
+        String key = getKey(node);
+        Entry entry = entries.get(key);
+        if (entry == null || entry.isResolvedFor(node)) {
+            return false;
+        }
+        if (entries.remove(key, entry)) {
+            entry.dispose();
+        }
+        return true;
+    }
+
+    /**
+     * Drops cached data of removed nodes.
+     * @param nodeNames Names of existing nodes
+     */
+    public void retainAll(Collection<String> nodeNames) {
+        for (String nodeName : entries.keySet()) {
+            if (!nodeNames.contains(nodeName)) {
+                invalidate(nodeName);
+            }
+        }
+    }
+
+    /**
+     * Drops cached data for all nodes.
+     */
+    public void invalidateAll() {
+        for (String nodeName : entries.keySet()) {
+            invalidate(nodeName);
+        }
+    }
+
+    /**
+     * Gets all cached entries.
+     * @return Entries sorted by node names
+     */
+    public List<Entry> getEntries() {
+        List<Entry> res = new ArrayList<Entry>(entries.values());
+        Collections.sort(res);
+        return res;
+    }
+
+    private static String getKey(Node node) {
+        return node.getNodeName();
+    }
+
+    /**
+     * Cached capabilities of a single node.
+     */
+    @ExportedBean
+    public static class Entry implements Comparable<Entry> {
+        private final String name;
+        private volatile Boolean cygwin;
+        private volatile Boolean ready;
+        private volatile String warmUpError;
+        private volatile FilePath cygwinHome;
+        private volatile FilePath tmpDir;
+        private volatile String stagedScript;
+        private volatile WinPidMap winPidMap;
+        private volatile Integer uid;
+        private volatile String binPath;
+        private volatile Map<String, String> envVars;
+        private CygwinHelperShell shell;
+        private boolean disposed;
+        private final WeakReference<Node> node;
+
+        public Entry(String name) {
+            this(name, null);
+        }
+
+        Entry(String name, Node node) {
+            this.name = name;
+            this.node = new WeakReference<Node>(node);
+        }
+
+        @Exported
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Checks that the killer has been pre-warmed on the node.
+         * @return Result of the warm-up or null if it has not been completed yet
+         */
+        @Exported
+        public Boolean isReady() {
+            return ready;
+        }
+
+        /**
+         * Gets the reason of the failed warm-up.
+         * @return Error message or null if the node is ready
+         */
+        @Exported
+        public String getWarmUpError() {
+            return warmUpError;
+        }
+
+        /**
+         * Records result of the warm-up.
+         * @param ready true if the node is ready to kill processes
+         * @param warmUpError Error message for failed warm-ups
+         */
+        public void setReady(boolean ready, String warmUpError) {
+            this.warmUpError = warmUpError;
+            this.ready = ready;
+        }
+
+        /**
+         * Gets result of the Cygwin probe.
+         * @return Result of the probe or null if it has not been performed yet
+         */
+        public Boolean isCygwin() {
+            return cygwin;
+        }
+
+        public void setCygwin(boolean cygwin) {
+            this.cygwin = cygwin;
+        }
+
+        public FilePath getCygwinHome() {
+            return cygwinHome;
+        }
+
+        public void setCygwinHome(FilePath cygwinHome) {
+            this.cygwinHome = cygwinHome;
+        }
+
+        public FilePath getTmpDir() {
+            return tmpDir;
+        }
+
+        public void setTmpDir(FilePath tmpDir) {
+            this.tmpDir = tmpDir;
+        }
+
+        /**
+         * Gets path to Cygwin binaries.
+         * @return Path with a trailing separator, empty string if binaries
+         *      should be resolved by PATH or null if it has not been resolved yet
+         */
+        public String getBinPath() {
+            return binPath;
+        }
+
+        public void setBinPath(String binPath) {
+            this.binPath = binPath;
+        }
+
+        /**
+         * Gets environment variables for Cygwin commands.
+         * @return Unmodifiable map or null if it has not been constructed yet
+         */
+        public Map<String, String> getEnvVars() {
+            return envVars;
+        }
+
+        public void setEnvVars(Map<String, String> envVars) {
+            this.envVars = envVars;
+        }
+
+        /**
+         * Gets name of the kill script file, which has been staged on the node.
+         * @return File name or null if the script has not been staged yet
+         */
+        public String getStagedScript() {
+            return stagedScript;
+        }
+
+        public void setStagedScript(String stagedScript) {
+            this.stagedScript = stagedScript;
+        }
+
+        /**
+         * Gets the last snapshot of Windows PIDs.
+         * @return Map or null if it has not been retrieved yet
+         */
+        public WinPidMap getWinPidMap() {
+            return winPidMap;
+        }
+
+        public void setWinPidMap(WinPidMap winPidMap) {
+            this.winPidMap = winPidMap;
+        }
+
+        /**
+         * Gets user ID, which runs Cygwin commands on the node.
+         * @return User ID or null if it has not been retrieved yet
+         */
+        public Integer getUid() {
+            return uid;
+        }
+
+        public void setUid(Integer uid) {
+            this.uid = uid;
+        }
+
+        /**
+         * Gets the long-living shell of the node.
+         * Disposed entries do not create shells, because nobody would close them.
+         * @param factory Starts the shell process if the shell does not exist
+         * @return Shell instance or null if the entry has been disposed
+         */
+        public synchronized CygwinHelperShell getShell(CygwinHelperShell.ProcessFactory factory) {
+            if (shell == null && !disposed) {
+                shell = new CygwinHelperShell(name, factory,
+                        CygwinHelperShell.DEFAULT_QUEUE_SIZE);
+            }
+            return shell;
+        }
+
+        /**
+         * Checks that the entry has been created for the specified node instance.
+         */
+        boolean isResolvedFor(Node node) {
+            return this.node.get() == node;
+        }
+
+        @Override
+        public int compareTo(Entry o) {
+            return name.compareTo(o.name);
+        }
+
+        /**
+         * Releases resources of the entry.
+         */
+        public void dispose() {
+            CygwinHelperShell toClose;
+            synchronized (this) {
+                toClose = shell;
+                shell = null;
+                disposed = true;
+            }
+            if (toClose != null) {
+                toClose.close();
+            }
+        }
+    }
+}
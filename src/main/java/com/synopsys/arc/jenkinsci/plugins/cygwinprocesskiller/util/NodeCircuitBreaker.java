@@ -0,0 +1,243 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Stops kill attempts on nodes, where the killer cannot run.
+ * Failed platform checks, broken installations and hung commands are being
+ * repeated for each process otherwise. After the configured number of
+ * consecutive failures the circuit opens, and requests are being rejected
+ * without any calls to the node. After the open time a single request is
+ * being let through (half-open state). Its success closes the circuit,
+ * its failure opens the circuit again.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+@ExportedBean
+public class NodeCircuitBreaker {
+    private static final NodeCircuitBreaker INSTANCE = new NodeCircuitBreaker();
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final ConcurrentMap<String, Circuit> circuits = new ConcurrentHashMap<String, Circuit>();
+
+    public static NodeCircuitBreaker getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Checks that the request can be executed.
+     * Callers, which have received true, should report the outcome.
+     * @param nodeName Name of the node
+     * @param policy Thresholds of the breaker
+     * @return false if the request should be rejected
+     */
+    public boolean tryAcquire(String nodeName, CircuitBreakerPolicy policy) {
+        if (!policy.isEnabled()) {
+            return true;
+        }
+        Circuit circuit = circuits.get(nodeName);
+        return circuit == null || circuit.tryAcquire(policy);
+    }
+
+    /**
+     * Reports that the killer works on the node.
+     * @param nodeName Name of the node
+     */
+    public void onSuccess(String nodeName) {
+        Circuit circuit = circuits.get(nodeName);
+        if (circuit != null) {
+            circuit.onSuccess();
+        }
+    }
+
+    /**
+     * Reports that the killer cannot run on the node.
+     * @param nodeName Name of the node
+     * @param policy Thresholds of the breaker
+     * @param error Description of the failure
+     */
+    public void onFailure(String nodeName, CircuitBreakerPolicy policy, String error) {
+        if (!policy.isEnabled()) {
+            return;
+        }
+        Circuit circuit = circuits.get(nodeName);
+        if (circuit == null) {
+            Circuit newCircuit = new Circuit(nodeName);
+            circuit = circuits.putIfAbsent(nodeName, newCircuit);
+            if (circuit == null) {
+                circuit = newCircuit;
+            }
+        }
+        circuit.onFailure(policy, error);
+    }
+
+    /**
+     * Reports that the request has been aborted without a result.
+     * Allows other requests to probe the half-open circuit.
+     * @param nodeName Name of the node
+     */
+    public void onAbort(String nodeName) {
+        Circuit circuit = circuits.get(nodeName);
+        if (circuit != null) {
+            circuit.onAbort();
+        }
+    }
+
+    /**
+     * Closes the circuit of the node.
+     * @param nodeName Name of the node
+     */
+    public void reset(String nodeName) {
+        circuits.remove(nodeName);
+    }
+
+    /**
+     * Closes all circuits.
+     */
+    public void resetAll() {
+        circuits.clear();
+    }
+
+    /**
+     * Gets states of nodes, which have recent failures.
+     */
+    @Exported(inline = true)
+    public List<Circuit> getCircuits() {
+        List<Circuit> res = new ArrayList<Circuit>(circuits.values());
+        Collections.sort(res);
+        return res;
+    }
+
+    /**
+     * State of the node's circuit.
+     */
+    @ExportedBean
+    public static class Circuit implements Comparable<Circuit> {
+        private final String name;
+        private State state = State.CLOSED;
+        private int failures;
+        private long openedAt;
+        private long openTimeMillis;
+        private boolean probing;
+        private String lastError;
+
+        Circuit(String name) {
+            this.name = name;
+        }
+
+        synchronized boolean tryAcquire(CircuitBreakerPolicy policy) {
+            switch (state) {
+                case OPEN:
+                    if (System.currentTimeMillis() - openedAt < policy.getOpenTimeSec() * 1000L) {
+                        return false;
+                    }
+                    state = State.HALF_OPEN;
+                    probing = true;
+                    return true;
+                case HALF_OPEN:
+                    if (probing) {
+                        return false;
+                    }
+                    probing = true;
+                    return true;
+                default:
+                    return true;
+            }
+        }
+
+        synchronized void onSuccess() {
+            state = State.CLOSED;
+            failures = 0;
+            probing = false;
+        }
+
+        synchronized void onFailure(CircuitBreakerPolicy policy, String error) {
+            failures++;
+            lastError = error;
+            probing = false;
+            if (state == State.HALF_OPEN || failures >= policy.getFailureThreshold()) {
+                state = State.OPEN;
+                openedAt = System.currentTimeMillis();
+                openTimeMillis = policy.getOpenTimeSec() * 1000L;
+            }
+        }
+
+        synchronized void onAbort() {
+            probing = false;
+        }
+
+        @Exported
+        public String getName() {
+            return name;
+        }
+
+        @Exported
+        public synchronized State getState() {
+            return state;
+        }
+
+        /**
+         * Gets number of consecutive failures.
+         */
+        @Exported
+        public synchronized int getFailures() {
+            return failures;
+        }
+
+        @Exported
+        public synchronized String getLastError() {
+            return lastError;
+        }
+
+        /**
+         * Gets time till the next attempt.
+         * @return Time in seconds. 0 if the circuit accepts requests
+         */
+        @Exported
+        public synchronized long getRetryInSec() {
+            if (state != State.OPEN) {
+                return 0;
+            }
+            long remaining = openedAt + openTimeMillis - System.currentTimeMillis();
+            return remaining > 0 ? (remaining + 999) / 1000 : 0;
+        }
+
+        @Override
+        public int compareTo(Circuit o) {
+            return name.compareTo(o.name);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Retrieves the process list of the node.
+ * Sources are being shipped to agents within settings, so implementations
+ * should be serializable.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+public interface ProcessSnapshotSource extends Serializable {
+    /**
+     * Takes snapshot of processes on the node.
+     * @param helper Helper of the node, which executes commands and resolves paths
+     * @return Index of process trees
+     * @throws IOException Snapshot cannot be retrieved
+     * @throws InterruptedException Operation has been interrupted
+     */
+    ProcessTreeIndex takeSnapshot(CygwinKillHelper helper) throws IOException, InterruptedException;
+
+    /**
+     * Takes snapshot of Windows PIDs of Cygwin processes on the node.
+     * @param helper Helper of the node, which executes commands and resolves paths
+     * @return Mapping between Windows and Cygwin PIDs
+     * @throws IOException Snapshot cannot be retrieved
+     * @throws InterruptedException Operation has been interrupted
+     */
+    WinPidMap takeWinPidSnapshot(CygwinKillHelper helper) throws IOException, InterruptedException;
+
+    /**
+     * Takes snapshot of processes with their Windows PIDs and commands.
+     * @param helper Helper of the node, which executes commands and resolves paths
+     * @return Table of processes
+     * @throws IOException Snapshot cannot be retrieved
+     * @throws InterruptedException Operation has been interrupted
+     */
+    ProcessTable takeProcessTable(CygwinKillHelper helper) throws IOException, InterruptedException;
+}
@@ -0,0 +1,313 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Snapshot of Cygwin processes with their Windows PIDs, owners and commands.
+ * Used for searches of orphaned processes, which requires more data than
+ * {@link ProcessTreeIndex}. Commands are stored as lower-case base names
+ * without the {@code .exe} suffix.
+ * Tables are being returned from agents, so the class is serializable.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+public class ProcessTable implements Serializable {
+    private static final long serialVersionUID = 1L;
+    public static final int NO_PID = -1;
+    public static final int NO_UID = -1;
+    private static final int PS_NUMERIC_COLUMNS = 4;
+    private static final int PS_WINPID_COLUMN = 3;
+    private static final int PS_UID_COLUMN = 5;
+    private static final String EXE_SUFFIX = ".exe";
+
+    /**
+     * Sorted list of PIDs.
+     */
+    private final int[] pids;
+    // Indexed by positions in pids
+    private final int[] ppids;
+    private final int[] winPids;
+    private final int[] uids;
+    private final String[] commands;
+
+    private ProcessTable(int[] pids, int[] ppids, int[] winPids, int[] uids, String[] commands) {
+        this.pids = pids;
+        this.ppids = ppids;
+        this.winPids = winPids;
+        this.uids = uids;
+        this.commands = commands;
+    }
+
+    /**
+     * Builds table from process attributes.
+     * Duplicated PIDs are being ignored.
+     * @param pids Cygwin PIDs
+     * @param ppids Parent PIDs
+     * @param winPids Windows PIDs. {@link #NO_PID} if unknown
+     * @param uids User IDs of process owners. {@link #NO_UID} if unknown
+     * @param commands Commands or paths to executables. May contain nulls
+     * @param size Number of processes to be taken from arrays
+     * @return Table
+     */
+    public static ProcessTable build(int[] pids, int[] ppids, int[] winPids, int[] uids, String[] commands, 
+            int size) {
+        // Sort positions by PID in a single primitive array
+        long[] order = new long[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = ((long) pids[i] << 32) | i;
+        }
+        Arrays.sort(order);
+
+        int[] sortedPids = new int[size];
+        int[] sortedPpids = new int[size];
+        int[] sortedWinPids = new int[size];
+        int[] sortedUids = new int[size];
+        String[] sortedCommands = new String[size];
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            int pid = (int) (order[i] >> 32);
+            if (n > 0 && sortedPids[n - 1] == pid) {
+                continue;
+            }
+            int index = (int) order[i];
+            sortedPids[n] = pid;
+            sortedPpids[n] = ppids[index];
+            sortedWinPids[n] = winPids[index];
+            sortedUids[n] = uids[index];
+            sortedCommands[n] = getBaseName(commands[index]);
+            n++;
+        }
+        return new ProcessTable(Arrays.copyOf(sortedPids, n), Arrays.copyOf(sortedPpids, n),
+                Arrays.copyOf(sortedWinPids, n), Arrays.copyOf(sortedUids, n), Arrays.copyOf(sortedCommands, n));
+    }
+
+    /**
+     * Parses output of Cygwin's {@code ps}.
+     * Columns are {@code PID PPID PGID WINPID TTY UID STIME COMMAND}. The first
+     * column may contain a status flag, so the first character of each line
+     * is skipped. STIME may contain spaces, so the command is taken by the
+     * last path separator or as the last token of the line.
+     * @param output Output of the command
+     * @return Table
+     */
+    public static ProcessTable parsePsOutput(CharSequence output) {
+        int capacity = 256;
+        int[] pids = new int[capacity];
+        int[] ppids = new int[capacity];
+        int[] winPids = new int[capacity];
+        int[] uids = new int[capacity];
+        String[] commands = new String[capacity];
+        int size = 0;
+
+        long[] columns = new long[PS_NUMERIC_COLUMNS];
+        for (String line : output.toString().split("\n")) {
+            String[] tokens = line.length() > 1 ? line.substring(1).trim().split("\\s+") : new String[0];
+            if (tokens.length <= PS_NUMERIC_COLUMNS) {
+                continue;
+            }
+            boolean numeric = true;
+            for (int i = 0; i < PS_NUMERIC_COLUMNS && numeric; i++) {
+                columns[i] = parsePid(tokens[i]);
+                numeric = columns[i] != NO_PID;
+            }
+            if (!numeric) {
+                continue; // Header
+            }
+
+            if (size == capacity) {
+                capacity *= 2;
+                pids = Arrays.copyOf(pids, capacity);
+                ppids = Arrays.copyOf(ppids, capacity);
+                winPids = Arrays.copyOf(winPids, capacity);
+                uids = Arrays.copyOf(uids, capacity);
+                commands = Arrays.copyOf(commands, capacity);
+            }
+            pids[size] = (int) columns[0];
+            ppids[size] = (int) columns[1];
+            winPids[size] = (int) columns[PS_WINPID_COLUMN];
+            uids[size] = tokens.length > PS_UID_COLUMN + 1 ? (int) parsePid(tokens[PS_UID_COLUMN]) : NO_UID;
+            commands[size] = line.indexOf('/') >= 0 ? line : tokens[tokens.length - 1];
+            size++;
+        }
+        return build(pids, ppids, winPids, uids, commands, size);
+    }
+
+    /**
+     * Gets number of processes in the table.
+     */
+    public int size() {
+        return pids.length;
+    }
+
+    /**
+     * Gets Windows PID of the process.
+     * @param pid Cygwin PID
+     * @return Windows PID or {@link #NO_PID} if the process is unknown
+     */
+    public int getWinPid(int pid) {
+        int i = Arrays.binarySearch(pids, pid);
+        return i >= 0 ? winPids[i] : NO_PID;
+    }
+
+    /**
+     * Gets user ID of the process owner.
+     * @param pid Cygwin PID
+     * @return User ID or {@link #NO_UID} if the owner or the process is unknown
+     */
+    public int getUid(int pid) {
+        int i = Arrays.binarySearch(pids, pid);
+        return i >= 0 ? uids[i] : NO_UID;
+    }
+
+    /**
+     * Gets command of the process.
+     * @param pid Cygwin PID
+     * @return Base name of the executable or null if the process is unknown
+     */
+    public String getCommand(int pid) {
+        int i = Arrays.binarySearch(pids, pid);
+        return i >= 0 ? commands[i] : null;
+    }
+
+    /**
+     * Gets index of process trees, which is built from the table.
+     */
+    public ProcessTreeIndex getTreeIndex() {
+        return ProcessTreeIndex.build(pids, ppids, pids.length);
+    }
+
+    /**
+     * Gets map of Windows PIDs, which is built from the table.
+     */
+    public WinPidMap getWinPidMap() {
+        int[] cygwinPids = new int[pids.length];
+        int[] mappedWinPids = new int[pids.length];
+        int size = 0;
+        for (int i = 0; i < pids.length; i++) {
+            if (winPids[i] != NO_PID) {
+                cygwinPids[size] = pids[i];
+                mappedWinPids[size] = winPids[i];
+                size++;
+            }
+        }
+        return WinPidMap.build(cygwinPids, mappedWinPids, size);
+    }
+
+    /**
+     * Finds processes of the user, which are not protected from the kill.
+     * Processes of other users and processes with unknown owners are never returned.
+     * Protected processes are:
+     * <ul>
+     *   <li>processes with allowed commands and their descendants</li>
+     *   <li>the process with the specified Windows PID and its ancestors</li>
+     * </ul>
+     * @param allowedCommands Base names of executables, which should not be killed
+     * @param protectedWinPid Windows PID of the process, which runs the caller (e.g. the agent's JVM)
+     * @param uid User ID of the caller
+     * @return Cygwin PIDs in the bottom-up order
+     */
+    public int[] findUnprotected(Collection<String> allowedCommands, int protectedWinPid, int uid) {
+        Set<String> allowed = new HashSet<String>();
+        for (String command : allowedCommands) {
+            allowed.add(getBaseName(command));
+        }
+
+        int n = pids.length;
+        ProcessTreeIndex tree = getTreeIndex();
+        boolean[] protectedProcesses = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            if (uids[i] != uid || uid == NO_UID) {
+                protectedProcesses[i] = true;
+            }
+            if (commands[i] != null && allowed.contains(commands[i])) {
+                for (int pid : tree.getSubtree(pids[i])) {
+                    protectedProcesses[Arrays.binarySearch(pids, pid)] = true;
+                }
+            }
+            if (winPids[i] == protectedWinPid && protectedWinPid != NO_PID) {
+                // Ancestors may be already protected as descendants of allowed processes, so the walk 
+                // stops only at missing parents (e.g. Cygwin's init). Reused PIDs may form cycles
+                int j = i;
+                for (int steps = 0; j >= 0 && steps < n; steps++) {
+                    protectedProcesses[j] = true;
+                    j = Arrays.binarySearch(pids, ppids[j]);
+                }
+            }
+        }
+
+        int[] roots = new int[n];
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            if (!protectedProcesses[i]) {
+                roots[count++] = pids[i];
+            }
+        }
+
+        // Kill order includes whole subtrees, so descendants of allowed processes are filtered again
+        int[] order = tree.getKillOrder(Arrays.copyOf(roots, count));
+        int size = 0;
+        for (int pid : order) {
+            if (!protectedProcesses[Arrays.binarySearch(pids, pid)]) {
+                order[size++] = pid;
+            }
+        }
+        return Arrays.copyOf(order, size);
+    }
+
+    /**
+     * Gets normalized base name of the executable.
+     * @param command Command or path to the executable
+     * @return Lower-case base name without the {@code .exe} suffix
+     */
+    private static String getBaseName(String command) {
+        if (command == null) {
+            return null;
+        }
+        String name = command.trim();
+        int separator = Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\'));
+        name = name.substring(separator + 1).toLowerCase(Locale.ENGLISH);
+        return name.endsWith(EXE_SUFFIX) ? name.substring(0, name.length() - EXE_SUFFIX.length()) : name;
+    }
+
+    private static long parsePid(String value) {
+        if (value.length() == 0 || value.length() > 10) {
+            return NO_PID;
+        }
+        long res = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return NO_PID;
+            }
+            res = res * 10 + (c - '0');
+        }
+        return res <= Integer.MAX_VALUE ? res : NO_PID;
+    }
+}
@@ -0,0 +1,355 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util;
+
+import java.util.Arrays;
+
+/**
+ * Index of the process tree, which is built from a single process list snapshot.
+ * The index is stored in primitive arrays: PIDs are sorted, children of each
+ * process are stored in a compressed adjacency list. Subtree of any process
+ * is being retrieved in time, which is linear to the subtree size.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+public final class ProcessTreeIndex {
+    /**
+     * Returned for processes, which are missing in the snapshot.
+     */
+    public static final int NO_PID = -1;
+    private static final int[] NO_PIDS = new int[0];
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Sorted list of PIDs.
+     */
+    private final int[] pids;
+    /**
+     * Parent PIDs, indexed by positions in {@link #pids}.
+     */
+    private final int[] ppids;
+    /**
+     * Children of the process i are stored in
+     * {@code childIndices[childOffsets[i]..childOffsets[i+1]-1]}.
+     */
+    private final int[] childOffsets;
+    private final int[] childIndices;
+
+    private ProcessTreeIndex(int[] pids, int[] ppids, int[] childOffsets, int[] childIndices) {
+        this.pids = pids;
+        this.ppids = ppids;
+        this.childOffsets = childOffsets;
+        this.childIndices = childIndices;
+    }
+
+    /**
+     * Builds index from PID/PPID pairs.
+     * Duplicated PIDs are being ignored.
+     * @param pids PIDs of processes
+     * @param ppids Parent PIDs of processes
+     * @param size Number of pairs to be taken from arrays
+     * @return Created index
+     */
+    public static ProcessTreeIndex build(int[] pids, int[] ppids, int size) {
+        // Sort pairs by PID in a single primitive array
+        long[] pairs = new long[size];
+        for (int i = 0; i < size; i++) {
+            pairs[i] = ((long) pids[i] << 32) | (ppids[i] & 0xFFFFFFFFL);
+        }
+        Arrays.sort(pairs);
+
+        int[] sortedPids = new int[size];
+        int[] sortedPpids = new int[size];
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            int pid = (int) (pairs[i] >> 32);
+            if (n > 0 && sortedPids[n - 1] == pid) {
+                continue;
+            }
+            sortedPids[n] = pid;
+            sortedPpids[n] = (int) pairs[i];
+            n++;
+        }
+        if (n != size) {
+            sortedPids = Arrays.copyOf(sortedPids, n);
+            sortedPpids = Arrays.copyOf(sortedPpids, n);
+        }
+
+        // Count children, then fill the adjacency list
+        int[] parentIndices = new int[n];
+        int[] childOffsets = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            int parent = Arrays.binarySearch(sortedPids, sortedPpids[i]);
+            parentIndices[i] = parent != i ? parent : -1;
+            if (parentIndices[i] >= 0) {
+                childOffsets[parentIndices[i] + 1]++;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            childOffsets[i + 1] += childOffsets[i];
+        }
+        int[] childIndices = new int[childOffsets[n]];
+        int[] cursors = Arrays.copyOf(childOffsets, n);
+        for (int i = 0; i < n; i++) {
+            if (parentIndices[i] >= 0) {
+                childIndices[cursors[parentIndices[i]]++] = i;
+            }
+        }
+        return new ProcessTreeIndex(sortedPids, sortedPpids, childOffsets, childIndices);
+    }
+
+    /**
+     * Parses output of the {@code ps -f} command.
+     * The first column of Cygwin's output may contain a status flag, so the
+     * first character of each line is being skipped. PID and PPID are taken
+     * from the first pair of numeric columns after UID, so wide PIDs and user
+     * names with spaces do not break the parsing. Lines without such pair
+     * (e.g. the header) are being ignored.
+     * @param output Output of the command
+     * @return Created index
+     */
+    public static ProcessTreeIndex parsePsOutput(CharSequence output) {
+        int capacity = 256;
+        int[] pids = new int[capacity];
+        int[] ppids = new int[capacity];
+        int size = 0;
+
+        int length = output.length();
+        int lineStart = 0;
+        while (lineStart < length) {
+            int lineEnd = lineStart;
+            while (lineEnd < length && output.charAt(lineEnd) != '\n') {
+                lineEnd++;
+            }
+
+            // Tokenize the line. Numeric tokens are parsed on the fly
+            int pos = lineStart + 1;
+            int tokenNumber = 0;
+            long previous = NO_PID;
+            while (pos < lineEnd) {
+                char c = output.charAt(pos);
+                if (Character.isWhitespace(c)) {
+                    pos++;
+                    continue;
+                }
+
+                long value = 0;
+                while (pos < lineEnd && !Character.isWhitespace(c = output.charAt(pos))) {
+                    if (value >= 0 && c >= '0' && c <= '9' && value <= Integer.MAX_VALUE) {
+                        value = value * 10 + (c - '0');
+                    } else {
+                        value = NO_PID;
+                    }
+                    pos++;
+                }
+                if (value > Integer.MAX_VALUE) {
+                    value = NO_PID;
+                }
+
+                if (tokenNumber > 1 && previous != NO_PID && value != NO_PID) {
+                    if (size == capacity) {
+                        capacity *= 2;
+                        pids = Arrays.copyOf(pids, capacity);
+                        ppids = Arrays.copyOf(ppids, capacity);
+                    }
+                    pids[size] = (int) previous;
+                    ppids[size] = (int) value;
+                    size++;
+                    break;
+                }
+                // UID is never taken as PID
+                previous = tokenNumber > 0 ? value : NO_PID;
+                tokenNumber++;
+            }
+            lineStart = lineEnd + 1;
+        }
+        return build(pids, ppids, size);
+    }
+
+    /**
+     * Gets number of processes in the snapshot.
+     */
+    public int size() {
+        return pids.length;
+    }
+
+    public boolean contains(int pid) {
+        return Arrays.binarySearch(pids, pid) >= 0;
+    }
+
+    /**
+     * Gets parent of the process.
+     * @param pid PID of the process
+     * @return Parent PID or {@link #NO_PID} if the process is missing in the snapshot
+     */
+    public int getParent(int pid) {
+        int i = Arrays.binarySearch(pids, pid);
+        return i >= 0 ? ppids[i] : NO_PID;
+    }
+
+    /**
+     * Gets direct children of the process.
+     * @param pid PID of the process
+     * @return Sorted list of children PIDs
+     */
+    public int[] getChildren(int pid) {
+        int i = Arrays.binarySearch(pids, pid);
+        if (i < 0) {
+            return NO_PIDS;
+        }
+        int[] res = new int[childOffsets[i + 1] - childOffsets[i]];
+        for (int j = 0; j < res.length; j++) {
+            res[j] = pids[childIndices[childOffsets[i] + j]];
+        }
+        return res;
+    }
+
+    /**
+     * Gets the whole subtree of the process.
+     * @param pid PID of the subtree root
+     * @return PIDs in the bottom-up order, the root is the last one.
+     *      Only the root if the process is missing in the snapshot
+     */
+    public int[] getSubtree(int pid) {
+        return getKillOrder(pid);
+    }
+
+    /**
+     * Gets kill order for process trees.
+     * Children always precede their parents, so processes do not get re-parented
+     * during the kill. Each process is being listed once even if trees overlap.
+     * Roots, which are missing in the snapshot, are being listed as is.
+     * Working arrays grow with the result, so small subtrees of large snapshots are cheap.
+     * @param roots PIDs of the tree roots
+     * @return PIDs in the bottom-up order
+     */
+    public int[] getKillOrder(int... roots) {
+        int[] order = new int[Math.max(INITIAL_CAPACITY, roots.length)];
+        int count = 0;
+        IndexSet visited = new IndexSet();
+        // Stack of positions with the number of already visited children
+        int[] stack = new int[INITIAL_CAPACITY];
+        int[] cursors = new int[INITIAL_CAPACITY];
+
+        for (int root : roots) {
+            int rootIndex = Arrays.binarySearch(pids, root);
+            if (rootIndex < 0) {
+                if (!contains(order, count, root)) {
+                    order = ensureCapacity(order, count + 1);
+                    order[count++] = root;
+                }
+                continue;
+            }
+            if (!visited.add(rootIndex)) {
+                continue;
+            }
+
+            // Iterative post-order traversal
+            int depth = 0;
+            stack[0] = rootIndex;
+            cursors[0] = childOffsets[rootIndex];
+            while (depth >= 0) {
+                int current = stack[depth];
+                if (cursors[depth] < childOffsets[current + 1]) {
+                    int child = childIndices[cursors[depth]++];
+                    if (visited.add(child)) {
+                        depth++;
+                        stack = ensureCapacity(stack, depth + 1);
+                        cursors = ensureCapacity(cursors, depth + 1);
+                        stack[depth] = child;
+                        cursors[depth] = childOffsets[child];
+                    }
+                } else {
+                    order = ensureCapacity(order, count + 1);
+                    order[count++] = pids[current];
+                    depth--;
+                }
+            }
+        }
+        return count == order.length ? order : Arrays.copyOf(order, count);
+    }
+
+    private static int[] ensureCapacity(int[] array, int size) {
+        return size <= array.length ? array : Arrays.copyOf(array, Math.max(size, array.length * 2));
+    }
+
+    private static boolean contains(int[] array, int size, int value) {
+        for (int i = 0; i < size; i++) {
+            if (array[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Hash set of positions in the index.
+     * The set grows with the number of added positions.
+     */
+    private static final class IndexSet {
+        private static final int EMPTY = -1;
+        private int[] table = newTable(INITIAL_CAPACITY * 2);
+        private int size;
+
+        /**
+         * Adds the position.
+         * @return false if the position is already in the set
+         */
+        boolean add(int value) {
+            if (size * 2 >= table.length) {
+                int[] old = table;
+                table = newTable(old.length * 2);
+                for (int v : old) {
+                    if (v != EMPTY) {
+                        insert(table, v);
+                    }
+                }
+            }
+            if (!insert(table, value)) {
+                return false;
+            }
+            size++;
+            return true;
+        }
+
+        private static boolean insert(int[] table, int value) {
+            int mask = table.length - 1;
+            int hash = value * 0x9E3779B9;
+            int i = (hash ^ (hash >>> 16)) & mask;
+            while (table[i] != EMPTY) {
+                if (table[i] == value) {
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+            table[i] = value;
+            return true;
+        }
+
+        private static int[] newTable(int capacity) {
+            int[] res = new int[capacity];
+            Arrays.fill(res, EMPTY);
+            return res;
+        }
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util;
+
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Takes process snapshots from a procfs directory without process launches.
+ * All entries are being read by a single call to the node.
+ * Parent PIDs are taken from {@code <pid>/ppid} files (Cygwin layout) or
+ * from {@code <pid>/stat} files (Linux layout). Windows PIDs are taken from
+ * {@code <pid>/winpid} files. Owners are taken from {@code <pid>/uid} files
+ * (Cygwin layout) or from {@code <pid>/status} files (Linux layout). Commands are taken from {@code <pid>/exename}
+ * files (Cygwin layout) or from {@code <pid>/comm} files (Linux layout).
+ * Cygwin's {@code /proc} is emulated by the Cygwin DLL, so the directory is
+ * accessible only if the node's JVM can read it via the file system.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+public class ProcfsSnapshotSource implements ProcessSnapshotSource {
+    private static final long serialVersionUID = 1L;
+
+    private final String procRoot;
+
+    /**
+     * Constructs source.
+     * @param procRoot Path to the procfs directory on the node
+     */
+    public ProcfsSnapshotSource(String procRoot) {
+        this.procRoot = procRoot;
+    }
+
+    public String getProcRoot() {
+        return procRoot;
+    }
+
+    @Override
+    public ProcessTreeIndex takeSnapshot(CygwinKillHelper helper) throws IOException, InterruptedException {
+        return takeSnapshot(helper.getNodePath(procRoot));
+    }
+
+    /**
+     * Takes snapshot from the procfs directory.
+     * @param root procfs directory
+     * @return Index of process trees
+     */
+    public static ProcessTreeIndex takeSnapshot(FilePath root) throws IOException, InterruptedException {
+        int[][] pairs = root.act(new ReadProcfs());
+        return ProcessTreeIndex.build(pairs[0], pairs[1], pairs[0].length);
+    }
+
+    @Override
+    public WinPidMap takeWinPidSnapshot(CygwinKillHelper helper) throws IOException, InterruptedException {
+        int[][] pairs = helper.getNodePath(procRoot).act(new ReadWinPids());
+        return WinPidMap.build(pairs[0], pairs[1], pairs[0].length);
+    }
+
+    @Override
+    public ProcessTable takeProcessTable(CygwinKillHelper helper) throws IOException, InterruptedException {
+        return helper.getNodePath(procRoot).act(new ReadProcessTable());
+    }
+
+    /**
+     * Reads PID/PPID pairs on the node.
+     * Returns two arrays in order to keep the response compact.
+     */
+    private static class ReadProcfs implements FilePath.FileCallable<int[][]> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public int[][] invoke(File root, VirtualChannel channel) throws IOException, InterruptedException {
+            String[] entries = root.list();
+            if (entries == null) {
+                throw new IOException("Cannot list the procfs directory " + root);
+            }
+
+            int[] pids = new int[entries.length];
+            int[] ppids = new int[entries.length];
+            int size = 0;
+            byte[] buffer = new byte[1024];
+            for (String entry : entries) {
+                int pid = parseInt(entry);
+                if (pid < 0) {
+                    continue; // Not a process
+                }
+
+                // Processes may exit during the scan
+                int ppid = readPpid(new File(root, entry), buffer);
+                if (ppid >= 0) {
+                    pids[size] = pid;
+                    ppids[size] = ppid;
+                    size++;
+                }
+            }
+            return new int[][] {Arrays.copyOf(pids, size), Arrays.copyOf(ppids, size)};
+        }
+    }
+
+    /**
+     * Reads PIDs, parent PIDs, Windows PIDs, owners and commands on the node.
+     * The table is being built on the node, so only the compact result is transferred.
+     */
+    private static class ReadProcessTable implements FilePath.FileCallable<ProcessTable> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public ProcessTable invoke(File root, VirtualChannel channel) throws IOException, InterruptedException {
+            String[] entries = root.list();
+            if (entries == null) {
+                throw new IOException("Cannot list the procfs directory " + root);
+            }
+
+            int[] pids = new int[entries.length];
+            int[] ppids = new int[entries.length];
+            int[] winPids = new int[entries.length];
+            int[] uids = new int[entries.length];
+            String[] commands = new String[entries.length];
+            int size = 0;
+            byte[] buffer = new byte[1024];
+            for (String entry : entries) {
+                int pid = parseInt(entry);
+                if (pid < 0) {
+                    continue; // Not a process
+                }
+
+                // Processes may exit during the scan
+                File processDir = new File(root, entry);
+                int ppid = readPpid(processDir, buffer);
+                if (ppid < 0) {
+                    continue;
+                }
+                int length = readFile(new File(processDir, "winpid"), buffer);
+                int winPid = length >= 0 ? parseInt(new String(buffer, 0, length).trim()) : -1;
+                int uid = readUid(processDir, buffer);
+                length = readFile(new File(processDir, "exename"), buffer);
+                if (length < 0) {
+                    length = readFile(new File(processDir, "comm"), buffer);
+                }
+
+                pids[size] = pid;
+                ppids[size] = ppid;
+                winPids[size] = winPid >= 0 ? winPid : ProcessTable.NO_PID;
+                uids[size] = uid >= 0 ? uid : ProcessTable.NO_UID;
+                commands[size] = length >= 0 ? new String(buffer, 0, length).trim() : null;
+                size++;
+            }
+            return ProcessTable.build(pids, ppids, winPids, uids, commands, size);
+        }
+    }
+
+    /**
+     * Reads parent PID of the process.
+     * @return Parent PID or -1 if the process has exited
+     */
+    private static int readPpid(File processDir, byte[] buffer) {
+        int length = readFile(new File(processDir, "ppid"), buffer);
+        if (length >= 0) {
+            return parseInt(new String(buffer, 0, length).trim());
+        }
+
+        // Linux: "pid (comm) state ppid ...", comm may contain spaces and brackets
+        length = readFile(new File(processDir, "stat"), buffer);
+        if (length < 0) {
+            return -1;
+        }
+        String stat = new String(buffer, 0, length);
+        int commEnd = stat.lastIndexOf(')');
+        if (commEnd < 0) {
+            return -1;
+        }
+        String[] fields = stat.substring(commEnd + 1).trim().split(" ", 3);
+        return fields.length >= 2 ? parseInt(fields[1]) : -1;
+    }
+
+    /**
+     * Reads user ID of the process owner.
+     * @return User ID or -1 if it cannot be read
+     */
+    private static int readUid(File processDir, byte[] buffer) {
+        int length = readFile(new File(processDir, "uid"), buffer);
+        if (length >= 0) {
+            return parseInt(new String(buffer, 0, length).trim());
+        }
+
+        // Linux: "Uid:" line with real, effective, saved and file system IDs
+        length = readFile(new File(processDir, "status"), buffer);
+        if (length < 0) {
+            return -1;
+        }
+        String status = new String(buffer, 0, length);
+        int start = status.indexOf("\nUid:");
+        if (start < 0) {
+            return -1;
+        }
+        String[] fields = status.substring(start + "\nUid:".length()).trim().split("\\s+", 2);
+        return parseInt(fields[0]);
+    }
+
+    /**
+     * Reads PID/WINPID pairs on the node.
+     */
+    private static class ReadWinPids implements FilePath.FileCallable<int[][]> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public int[][] invoke(File root, VirtualChannel channel) throws IOException, InterruptedException {
+            String[] entries = root.list();
+            if (entries == null) {
+                throw new IOException("Cannot list the procfs directory " + root);
+            }
+
+            int[] pids = new int[entries.length];
+            int[] winPids = new int[entries.length];
+            int size = 0;
+            byte[] buffer = new byte[64];
+            for (String entry : entries) {
+                int pid = parseInt(entry);
+                if (pid < 0) {
+                    continue; // Not a process
+                }
+
+                // Processes may exit during the scan
+                int length = readFile(new File(new File(root, entry), "winpid"), buffer);
+                int winPid = length >= 0 ? parseInt(new String(buffer, 0, length).trim()) : -1;
+                if (winPid >= 0) {
+                    pids[size] = pid;
+                    winPids[size] = winPid;
+                    size++;
+                }
+            }
+            return new int[][] {Arrays.copyOf(pids, size), Arrays.copyOf(winPids, size)};
+        }
+    }
+
+    /**
+     * Reads the beginning of the file.
+     * @return Number of read bytes or -1 if the file cannot be read
+     */
+    private static int readFile(File file, byte[] buffer) {
+        FileInputStream str = null;
+        try {
+            str = new FileInputStream(file);
+            int length = 0;
+            int read;
+            while (length < buffer.length && (read = str.read(buffer, length, buffer.length - length)) > 0) {
+                length += read;
+            }
+            return length;
+        } catch (IOException ex) {
+            return -1;
+        } finally {
+            if (str != null) {
+                try {
+                    str.close();
+                } catch (IOException ex) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    private static int parseInt(String value) {
+        if (value.length() == 0 || value.length() > 10) {
+            return -1;
+        }
+        long res = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            res = res * 10 + (c - '0');
+        }
+        return res <= Integer.MAX_VALUE ? (int) res : -1;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Takes process snapshots by Cygwin's {@code ps}.
+ * Trees and Windows PIDs are being taken from a single process list, so
+ * each snapshot launches {@code ps} once.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+public class PsSnapshotSource implements ProcessSnapshotSource {
+    private static final long serialVersionUID = 1L;
+    /**
+     * Maximal size of the process list. Each process takes about 80 bytes.
+     */
+    private static final int MAX_OUTPUT_SIZE = Integer.getInteger(
+            PsSnapshotSource.class.getName() + ".maxOutputKb", 4096) * 1024;
+
+    @Override
+    public ProcessTreeIndex takeSnapshot(CygwinKillHelper helper) throws IOException, InterruptedException {
+        return takeProcessTable(helper).getTreeIndex();
+    }
+
+    @Override
+    public WinPidMap takeWinPidSnapshot(CygwinKillHelper helper) throws IOException, InterruptedException {
+        return takeProcessTable(helper).getWinPidMap();
+    }
+
+    @Override
+    public ProcessTable takeProcessTable(CygwinKillHelper helper) throws IOException, InterruptedException {
+        // The default format contains PPID and WINPID. "ps -W" would also list 
+        // native Windows processes, which have no Cygwin PIDs
+        LimitedOutputStream str = new LimitedOutputStream(MAX_OUTPUT_SIZE);
+        int res = helper.execCommand("ps", helper.getTimeouts().getKillTimeoutSec(), str, str);
+        if (str.isTruncated()) {
+            throw new IOException("The process list exceeds " + MAX_OUTPUT_SIZE + " bytes");
+        }
+        if (res != 0) {
+            throw new IOException("Cannot retrieve the process list. Output:\n" + str.toString());
+        }
+        return ProcessTable.parsePsOutput(str.toString());
+    }
+
+    /**
+     * Output stream, which drops bytes above the limit.
+     */
+    private static class LimitedOutputStream extends ByteArrayOutputStream {
+        private final int limit;
+        private boolean truncated;
+
+        public LimitedOutputStream(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            if (count < limit) {
+                super.write(b);
+            } else {
+                truncated = true;
+            }
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            int accepted = Math.min(len, limit - count);
+            if (accepted > 0) {
+                super.write(b, off, accepted);
+            }
+            truncated |= accepted < len;
+        }
+
+        public synchronized boolean isTruncated() {
+            return truncated;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Processes, which have been recently killed on the node.
+ * Jenkins invokes the killer for each process of the tree, though the whole
+ * tree is being killed by the first request. Requests for such processes
+ * can be answered without calls to the master.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+public class RecentKills {
+    private final long retentionMillis;
+    private final LinkedList<Entry> entries = new LinkedList<Entry>();
+
+    /**
+     * Constructs the list.
+     * @param retentionMillis Time, during which killed PIDs are being kept
+     */
+    public RecentKills(long retentionMillis) {
+        this.retentionMillis = retentionMillis;
+    }
+
+    /**
+     * Adds processes of the completed kill.
+     * @param signalledPIDs Sorted list of signalled PIDs
+     * @param survivorPIDs Sorted list of PIDs, which are alive after the kill
+     */
+    public synchronized void add(int[] signalledPIDs, int[] survivorPIDs) {
+        if (signalledPIDs.length != 0) {
+            entries.add(new Entry(signalledPIDs, survivorPIDs));
+        }
+    }
+
+    /**
+     * Checks that the process has been killed recently.
+     * @param pid PID of the process
+     * @return true if the process has been signalled and has not survived the kill
+     */
+    public synchronized boolean isKilled(int pid) {
+        long now = System.currentTimeMillis();
+        Iterator<Entry> it = entries.iterator();
+        while (it.hasNext()) {
+            Entry e = it.next();
+            if (now - e.timestamp > retentionMillis) {
+                it.remove();
+            } else if (Arrays.binarySearch(e.signalledPIDs, pid) >= 0) {
+                return Arrays.binarySearch(e.survivorPIDs, pid) < 0;
+            }
+        }
+        return false;
+    }
+
+    private static class Entry {
+        final long timestamp = System.currentTimeMillis();
+        final int[] signalledPIDs;
+        final int[] survivorPIDs;
+
+        Entry(int[] signalledPIDs, int[] survivorPIDs) {
+            this.signalledPIDs = signalledPIDs;
+            this.survivorPIDs = survivorPIDs;
+        }
+    }
+}
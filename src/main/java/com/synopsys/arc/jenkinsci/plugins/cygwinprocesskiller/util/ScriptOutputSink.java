@@ -0,0 +1,262 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Output stream, which processes output of commands without buffering all of it.
+ * The sink keeps the first bytes of the output for prefix checks and a ring
+ * buffer with the last bytes for diagnostics. Lines starting with result
+ * prefixes (e.g. {@code SIGNALLED 123 456}) are being parsed while the output
+ * arrives, so the memory usage does not depend on the output size.
+ * Number of stored values is limited as well, values beyond the limit are only counted.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+public class ScriptOutputSink extends OutputStream {
+    /**
+     * Default size of the diagnostic tail.
+     */
+    public static final int DEFAULT_TAIL_SIZE = Integer.getInteger(
+            ScriptOutputSink.class.getName() + ".tailSizeKb", 16) * 1024;
+    private static final int HEAD_SIZE = 256;
+    private static final int NO_PREFIX = -1;
+    private static final long NO_VALUE = -1;
+
+    private final byte[] head = new byte[HEAD_SIZE];
+    private final byte[] tail;
+    private long size;
+
+    private final byte[][] prefixes;
+    private final int maxValues;
+    private final int[][] values;
+    private final int[] valueCounts;
+    private final boolean[] matching;
+
+    // State of the current line
+    private int linePos;
+    private int activePrefix = NO_PREFIX;
+    private boolean skipLine;
+    private long currentValue = NO_VALUE;
+    private boolean malformedValue;
+
+    /**
+     * Constructs sink without limits of stored values.
+     * @param tailSize Number of last bytes to be kept for diagnostics
+     * @param resultPrefixes Prefixes of lines with PIDs
+     */
+    public ScriptOutputSink(int tailSize, String ... resultPrefixes) {
+        this(tailSize, Integer.MAX_VALUE, resultPrefixes);
+    }
+
+    /**
+     * Constructs sink.
+     * @param tailSize Number of last bytes to be kept for diagnostics
+     * @param maxValues Maximum number of values to be stored for each prefix
+     * @param resultPrefixes Prefixes of lines with PIDs
+     */
+    public ScriptOutputSink(int tailSize, int maxValues, String ... resultPrefixes) {
+        this.tail = new byte[tailSize];
+        this.maxValues = maxValues;
+        this.prefixes = new byte[resultPrefixes.length][];
+        this.values = new int[resultPrefixes.length][];
+        this.valueCounts = new int[resultPrefixes.length];
+        this.matching = new boolean[resultPrefixes.length];
+        for (int i = 0; i < resultPrefixes.length; i++) {
+            prefixes[i] = resultPrefixes[i].getBytes();
+            values[i] = new int[Math.min(16, maxValues)];
+        }
+    }
+
+    @Override
+    public synchronized void write(int b) {
+        byte value = (byte) b;
+        if (size < HEAD_SIZE) {
+            head[(int) size] = value;
+        }
+        if (tail.length != 0) {
+            tail[(int) (size % tail.length)] = value;
+        }
+        size++;
+        parse(value);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+        for (int i = off; i < off + len; i++) {
+            write(b[i]);
+        }
+    }
+
+    private void parse(byte b) {
+        boolean endOfLine = b == '\n' || b == '\r';
+        if (activePrefix != NO_PREFIX) {
+            if (endOfLine || b == ' ' || b == '\t') {
+                completeValue();
+            } else if (b >= '0' && b <= '9' && !malformedValue) {
+                currentValue = (currentValue == NO_VALUE ? 0 : currentValue * 10) + (b - '0');
+                malformedValue = currentValue > Integer.MAX_VALUE;
+            } else {
+                malformedValue = true; // Skip malformed entries
+            }
+        } else if (!skipLine && !endOfLine) {
+            matchPrefix(b);
+        }
+
+        if (endOfLine) {
+            linePos = 0;
+            activePrefix = NO_PREFIX;
+            skipLine = false;
+        } else {
+            linePos++;
+        }
+    }
+
+    private void matchPrefix(byte b) {
+        boolean candidate = false;
+        for (int i = 0; i < prefixes.length; i++) {
+            byte[] prefix = prefixes[i];
+            matching[i] = (linePos == 0 || matching[i]) && linePos < prefix.length && prefix[linePos] == b;
+            if (matching[i]) {
+                if (linePos == prefix.length - 1) {
+                    activePrefix = i;
+                    return;
+                }
+                candidate = true;
+            }
+        }
+        skipLine = !candidate;
+    }
+
+    private void completeValue() {
+        if (currentValue != NO_VALUE && !malformedValue) {
+            int count = valueCounts[activePrefix];
+            if (count < maxValues) {
+                int[] list = values[activePrefix];
+                if (count == list.length) {
+                    list = values[activePrefix] = Arrays.copyOf(list, (int) Math.min(maxValues, 2L * list.length));
+                }
+                list[count] = (int) currentValue;
+            }
+            if (count < Integer.MAX_VALUE) {
+                valueCounts[activePrefix]++;
+            }
+        }
+        currentValue = NO_VALUE;
+        malformedValue = false;
+    }
+
+    /**
+     * Gets values, which have been reported in lines with the prefix.
+     * @param prefix One of result prefixes
+     * @return List of values. Values beyond the limit are not included
+     */
+    public synchronized int[] getValues(String prefix) {
+        int i = indexOf(prefix);
+        int stored = Math.min(valueCounts[i], maxValues);
+        // The output may end with an unterminated value
+        boolean pending = isPending(i) && stored < maxValues;
+        int[] res = Arrays.copyOf(values[i], stored + (pending ? 1 : 0));
+        if (pending) {
+            res[res.length - 1] = (int) currentValue;
+        }
+        return res;
+    }
+
+    /**
+     * Gets number of values, which have been reported in lines with the prefix.
+     * @param prefix One of result prefixes
+     * @return Number of values including ones beyond the limit
+     */
+    public synchronized int getValueCount(String prefix) {
+        int i = indexOf(prefix);
+        return isPending(i) && valueCounts[i] < Integer.MAX_VALUE ? valueCounts[i] + 1 : valueCounts[i];
+    }
+
+    private boolean isPending(int prefixIndex) {
+        return activePrefix == prefixIndex && currentValue != NO_VALUE && !malformedValue;
+    }
+
+    private int indexOf(String prefix) {
+        for (int i = 0; i < prefixes.length; i++) {
+            if (Arrays.equals(prefixes[i], prefix.getBytes())) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown result prefix: " + prefix);
+    }
+
+    /**
+     * Checks the beginning of the output.
+     * @param prefix Expected prefix, which should not exceed the head size
+     * @return true if the output starts with the prefix
+     */
+    public synchronized boolean startsWith(String prefix) {
+        byte[] expected = prefix.getBytes();
+        if (expected.length > size || expected.length > HEAD_SIZE) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (head[i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets total number of received bytes.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Gets the last part of the output.
+     * @return Output. Skipped bytes are being reported at the beginning
+     */
+    public synchronized String getTail() {
+        if (size <= tail.length) {
+            return new String(tail, 0, (int) size);
+        }
+        if (size <= HEAD_SIZE) {
+            return new String(head, 0, (int) size);
+        }
+        if (tail.length == 0) {
+            return "[... " + size + " bytes skipped]";
+        }
+
+        int start = (int) (size % tail.length);
+        byte[] res = new byte[tail.length];
+        System.arraycopy(tail, start, res, 0, tail.length - start);
+        System.arraycopy(tail, 0, res, tail.length - start, start);
+        return "[... " + (size - tail.length) + " bytes skipped]\n" + new String(res);
+    }
+
+    @Override
+    public String toString() {
+        return getTail();
+    }
+}
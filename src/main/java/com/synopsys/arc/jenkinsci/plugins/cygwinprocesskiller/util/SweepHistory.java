@@ -0,0 +1,69 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Recent results of orphan sweeps.
+ * Size of the history can be changed by the {@code maxRecords} system
+ * property with the class name prefix.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+@ExportedBean
+public class SweepHistory {
+    private static final SweepHistory INSTANCE = new SweepHistory(
+            Integer.getInteger(SweepHistory.class.getName() + ".maxRecords", 100));
+
+    private final int maxRecords;
+    private final LinkedList<SweepRecord> records = new LinkedList<SweepRecord>();
+
+    public SweepHistory(int maxRecords) {
+        this.maxRecords = Math.max(1, maxRecords);
+    }
+
+    public static SweepHistory getInstance() {
+        return INSTANCE;
+    }
+
+    public synchronized void add(SweepRecord record) {
+        records.addFirst(record);
+        while (records.size() > maxRecords) {
+            records.removeLast();
+        }
+    }
+
+    /**
+     * Gets recent records.
+     * @return Records, the newest one goes first
+     */
+    @Exported(inline = true)
+    public synchronized List<SweepRecord> getRecords() {
+        return new ArrayList<SweepRecord>(records);
+    }
+}
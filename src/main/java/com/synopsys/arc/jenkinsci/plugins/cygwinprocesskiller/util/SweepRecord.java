@@ -0,0 +1,116 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util;
+
+import java.util.Date;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Result of the orphan sweep on a single node.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+@ExportedBean
+public class SweepRecord {
+    private static final String[] NO_PROCESSES = new String[0];
+
+    private final String nodeName;
+    private final long timestamp;
+    private final long durationMs;
+    private final int snapshotSize;
+    private final String[] reaped;
+    private final int survivors;
+    private final String error;
+
+    /**
+     * Constructs record.
+     * @param nodeName Name of the node
+     * @param timestamp Start time of the sweep
+     * @param durationMs Duration of the sweep
+     * @param snapshotSize Number of processes in the snapshot
+     * @param reaped Descriptions of signalled processes
+     * @param survivors Number of processes, which are alive after the kill
+     * @param error Error message or null if the sweep has succeeded
+     */
+    public SweepRecord(String nodeName, long timestamp, long durationMs, int snapshotSize, 
+            String[] reaped, int survivors, String error) {
+        this.nodeName = nodeName;
+        this.timestamp = timestamp;
+        this.durationMs = durationMs;
+        this.snapshotSize = snapshotSize;
+        this.reaped = reaped != null ? reaped : NO_PROCESSES;
+        this.survivors = survivors;
+        this.error = error;
+    }
+
+    /**
+     * Constructs record of the failed sweep.
+     */
+    public static SweepRecord failure(String nodeName, long timestamp, String error) {
+        return new SweepRecord(nodeName, timestamp, System.currentTimeMillis() - timestamp, 0, null, 0, error);
+    }
+
+    @Exported
+    public String getNode() {
+        return nodeName;
+    }
+
+    @Exported
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public Date getTime() {
+        return new Date(timestamp);
+    }
+
+    @Exported
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    @Exported
+    public int getSnapshotSize() {
+        return snapshotSize;
+    }
+
+    /**
+     * Gets signalled processes.
+     * @return Descriptions in the {@code command (PID/WINPID)} format
+     */
+    @Exported
+    public String[] getReaped() {
+        return reaped.clone();
+    }
+
+    @Exported
+    public int getSurvivors() {
+        return survivors;
+    }
+
+    @Exported
+    public String getError() {
+        return error;
+    }
+}
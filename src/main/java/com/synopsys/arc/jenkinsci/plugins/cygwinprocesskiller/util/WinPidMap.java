@@ -0,0 +1,182 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util;
+
+import java.util.Arrays;
+
+/**
+ * Immutable mapping between Windows PIDs and Cygwin PIDs of a node.
+ * Jenkins identifies processes by Windows PIDs, but Cygwin's {@code kill}
+ * expects Cygwin PIDs, which usually differ.
+ * Both directions are stored as sorted primitive arrays, so lookups do not
+ * allocate memory.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+public class WinPidMap {
+    public static final int NO_PID = -1;
+    private static final int PS_WINPID_COLUMN = 3;
+
+    private final int[] winPids;
+    private final int[] cygwinPidsByWinPid;
+    private final int[] cygwinPids;
+    private final int[] winPidsByCygwinPid;
+    private final long timestamp;
+
+    private WinPidMap(long[] byWinPid, long[] byCygwinPid, long timestamp) {
+        this.winPids = new int[byWinPid.length];
+        this.cygwinPidsByWinPid = new int[byWinPid.length];
+        unpack(byWinPid, winPids, cygwinPidsByWinPid);
+        this.cygwinPids = new int[byCygwinPid.length];
+        this.winPidsByCygwinPid = new int[byCygwinPid.length];
+        unpack(byCygwinPid, cygwinPids, winPidsByCygwinPid);
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Builds map from PID pairs.
+     * @param pids Cygwin PIDs
+     * @param winPids Windows PIDs with the same indexes
+     * @param size Number of pairs
+     * @return Map
+     */
+    public static WinPidMap build(int[] pids, int[] winPids, int size) {
+        long[] byWinPid = new long[size];
+        long[] byCygwinPid = new long[size];
+        for (int i = 0; i < size; i++) {
+            byWinPid[i] = pack(winPids[i], pids[i]);
+            byCygwinPid[i] = pack(pids[i], winPids[i]);
+        }
+        Arrays.sort(byWinPid);
+        Arrays.sort(byCygwinPid);
+        return new WinPidMap(byWinPid, byCygwinPid, System.currentTimeMillis());
+    }
+
+    /**
+     * Parses output of Cygwin's {@code ps}.
+     * Columns are {@code PID PPID PGID WINPID ...}. The first column may
+     * contain a status flag, so the first character of each line is skipped.
+     * @param output Output of the command
+     * @return Map
+     */
+    public static WinPidMap parsePsOutput(CharSequence output) {
+        int capacity = 256;
+        int[] pids = new int[capacity];
+        int[] winPids = new int[capacity];
+        int size = 0;
+
+        int length = output.length();
+        long[] columns = new long[PS_WINPID_COLUMN + 1];
+        int lineStart = 0;
+        while (lineStart < length) {
+            int lineEnd = lineStart;
+            while (lineEnd < length && output.charAt(lineEnd) != '\n') {
+                lineEnd++;
+            }
+
+            // The leading columns should be numeric, the header line is skipped
+            int pos = lineStart + 1;
+            int column = 0;
+            while (pos < lineEnd && column < columns.length) {
+                char c = output.charAt(pos);
+                if (Character.isWhitespace(c)) {
+                    pos++;
+                    continue;
+                }
+
+                long value = 0;
+                while (pos < lineEnd && !Character.isWhitespace(c = output.charAt(pos))) {
+                    if (value >= 0 && c >= '0' && c <= '9' && value <= Integer.MAX_VALUE) {
+                        value = value * 10 + (c - '0');
+                    } else {
+                        value = NO_PID;
+                    }
+                    pos++;
+                }
+                if (value < 0 || value > Integer.MAX_VALUE) {
+                    break;
+                }
+                columns[column++] = value;
+            }
+
+            if (column == columns.length) {
+                if (size == capacity) {
+                    capacity *= 2;
+                    pids = Arrays.copyOf(pids, capacity);
+                    winPids = Arrays.copyOf(winPids, capacity);
+                }
+                pids[size] = (int) columns[0];
+                winPids[size] = (int) columns[PS_WINPID_COLUMN];
+                size++;
+            }
+            lineStart = lineEnd + 1;
+        }
+        return build(pids, winPids, size);
+    }
+
+    /**
+     * Translates Windows PID.
+     * @param winPid Windows PID
+     * @return Cygwin PID or {@link #NO_PID} if the process is not known
+     */
+    public int toCygwinPid(int winPid) {
+        int index = Arrays.binarySearch(winPids, winPid);
+        return index >= 0 ? cygwinPidsByWinPid[index] : NO_PID;
+    }
+
+    /**
+     * Translates Cygwin PID.
+     * @param cygwinPid Cygwin PID
+     * @return Windows PID or {@link #NO_PID} if the process is not known
+     */
+    public int toWinPid(int cygwinPid) {
+        int index = Arrays.binarySearch(cygwinPids, cygwinPid);
+        return index >= 0 ? winPidsByCygwinPid[index] : NO_PID;
+    }
+
+    /**
+     * Gets number of processes in the map.
+     */
+    public int size() {
+        return winPids.length;
+    }
+
+    /**
+     * Gets creation time of the map.
+     * @return Time in milliseconds
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    private static long pack(int key, int value) {
+        return ((long) key << 32) | (value & 0xFFFFFFFFL);
+    }
+
+    private static void unpack(long[] packed, int[] keys, int[] values) {
+        for (int i = 0; i < packed.length; i++) {
+            keys[i] = (int) (packed[i] >>> 32);
+            values[i] = (int) packed[i];
+        }
+    }
+}
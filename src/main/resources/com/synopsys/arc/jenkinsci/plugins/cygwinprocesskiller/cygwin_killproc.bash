@@ -4,69 +4,282 @@
 # In order to work properly, script should be launched by Cygwin DLL, which
 # executes target script.
 #
+# Process list is retrieved once, then the whole tree is signalled by a single
+# kill command. Forks are expensive on Cygwin, so the script avoids spawning
+# processes per tree level or per PID.
+# In the process group and session modes, groups are signalled by a single
+# kill -- -PGID, so deep trees do not need thousands of signals.
+# Processes, which have escaped from the tree, may be found by environment
+# cookies. Environments are scanned in a single pass over /proc.
+# The script never signals itself and its parents (e.g. the helper shell).
+#
 # License: cc-wiki with attribution required
 # Code source: http://stackoverflow.com/questions/523878/how-to-terminate-scripts-process-tree-in-cygwin-bash-from-bash-script
 # Authors: Adam Rosenfield, Barry Kelly
 ###
 function usage
 {
-    echo "usage: $(basename $0) [-c] [-<sigspec>] <pid>..."
+    echo "usage: $(basename $0) [-c] [-n] [-p|-s] [-e <NAME=VALUE>]... [-g <seconds>] [-<sigspec>] <pid>..."
     echo "Recursively kill the process tree(s) rooted by <pid>."
     echo "Options:"
     echo "  -c        Only kill children; don't kill root"
+    echo "  -n        Don't walk process trees; signal the given PIDs in the given order"
+    echo "  -p        Signal whole process groups, whose leaders are in the kill list"
+    echo "  -s        Signal process groups of sessions, whose leaders are in the kill list"
+    echo "  -e <var>  Also kill processes, which have the NAME=VALUE variable in the environment"
+    echo "  -g <sec>  Send SIGTERM first and wait up to <sec> seconds before sending <sigspec>"
     echo "  <sigspec> Arbitrary argument to pass to kill, expected to be signal specification"
     exit 1
 }
 
 kill_parent=1
+walk_tree=1
+snapshot_taken=0
 sig_spec=-9
+grace_period=0
+# /proc attribute, which identifies process groups or sessions to be signalled at once
+group_attr=""
+
+# Parent PID => space-separated list of child PIDs
+declare -A children
+# PIDs, which have been already added to the kill list
+declare -A visited
+# Environment variables (NAME=VALUE), which identify processes to be killed
+declare -A cookies
+# Pending kill list (children go before parents)
+targets=()
 
-function do_kill # <pid>...
+function take_snapshot
 {
-    kill "$sig_spec" "$@"
+    local line uid pid ppid rest
+    # The first column of Cygwin's "ps -f" may contain a status flag, which is
+    # glued to UID. UID is not used, so the first character is just dropped.
+    while IFS= read -r line; do
+        read -r uid pid ppid rest <<< "${line:1}"
+        [[ "$pid" =~ ^[0-9]+$ && "$ppid" =~ ^[0-9]+$ ]] || continue
+        children[$ppid]="${children[$ppid]} $pid"
+    done < <(ps -f)
+}
+
+function protect_ancestors # marks the script and its parents as visited
+{
+    local pid=$PPID ppid stat
+    visited[$$]=1
+    while (( pid > 1 )) && [ -z "${visited[$pid]}" ]; do
+        visited[$pid]=1
+        ppid=""
+        if ! { read -r ppid < /proc/$pid/ppid; } 2>/dev/null; then
+            # Linux layout: "pid (comm) state ppid ..."
+            stat=""
+            { read -r stat < /proc/$pid/stat; } 2>/dev/null
+            stat="${stat##*) }"
+            ppid="${stat#* }"
+            ppid="${ppid%% *}"
+        fi
+        [[ "$ppid" =~ ^[0-9]+$ ]] || break
+        pid=$ppid
+    done
 }
 
-function kill_children # pid
+function collect_children # pid
 {
-    local target=$1
-    local pid=
-    local ppid=
-    local i
-    # Returns alternating ids: first is pid, second is parent
-    for i in $(ps -f | tail --lines=+2 | cut -b 10-24); do
-        if [ ! -n "$pid" ]; then
-            # first in pair
-            pid=$i
+    local child
+    for child in ${children[$1]}; do
+        (( child == $$ )) && continue
+        [ -n "${visited[$child]}" ] && continue
+        visited[$child]=1
+        collect_children $child
+        targets+=($child)
+    done
+}
+
+function collect_cookie_matches # adds processes with cookies in the environment to the kill list
+{
+    local environ pid var
+    for environ in /proc/[0-9]*/environ; do
+        pid="${environ#/proc/}"
+        pid="${pid%/environ}"
+        (( pid == $$ )) && continue
+        [ -n "${visited[$pid]}" ] && continue
+        while IFS= read -r -d '' var; do
+            if [ -n "${cookies[$var]}" ]; then
+                visited[$pid]=1
+                targets+=($pid)
+                break
+            fi
+        done 2>/dev/null < "$environ"
+    done
+}
+
+function filter_alive # keeps only running processes in the kill list
+{
+    local pid alive=()
+    for pid in "${targets[@]}"; do
+        kill -0 $pid 2>/dev/null && alive+=($pid)
+    done
+    targets=("${alive[@]}")
+}
+
+function read_group_ids # <pid>; sets id (group or session) and pgid of the process
+{
+    id="" pgid=""
+    { read -r id < /proc/$1/$group_attr; read -r pgid < /proc/$1/pgid; } 2>/dev/null && return
+    # Linux layout: "pid (comm) state ppid pgrp session ..."
+    local stat="" fields
+    { read -r stat < /proc/$1/stat; } 2>/dev/null
+    [ -n "$stat" ] || return
+    read -r -a fields <<< "${stat##*) }"
+    pgid="${fields[2]}"
+    if [ "$group_attr" = sid ]; then
+        id="${fields[3]}"
+    else
+        id="$pgid"
+    fi
+}
+
+function send_signal # <sigspec>; signals the kill list
+{
+    if [ -z "$group_attr" ]; then
+        kill "$1" "${targets[@]}"
+        return
+    fi
+
+    # A group or session is signalled at once if its leader is in the kill list.
+    # Other processes have escaped from groups of the tree, they are signalled separately
+    local pid id pgid own_id own_pgid res=0 singles=()
+    local -A leaders groups
+    read_group_ids $$
+    own_id=$id own_pgid=$pgid
+    for pid in "${targets[@]}"; do
+        leaders[$pid]=1
+    done
+    for pid in "${targets[@]}"; do
+        read_group_ids $pid
+        if [[ -n "$id" && -n "$pgid" && -n "${leaders[$id]}" && "$id" != "$own_id" && "$pgid" != "$own_pgid" ]]; then
+            groups[$pgid]=1
         else
-            # second in pair
-            ppid=$i
-            (( ppid == target && pid != $$ )) && {
-                kill_children $pid
-                do_kill $pid
-            }
-            # reset pid for next pair
-            pid=
+            singles+=($pid)
         fi
     done
+    for pgid in "${!groups[@]}"; do
+        kill "$1" -- -$pgid || res=1
+    done
+    if (( ${#singles[@]} )); then
+        kill "$1" "${singles[@]}" || res=1
+    fi
+    return $res
+}
 
+function terminate_gracefully # sends SIGTERM and waits for the grace period
+{
+    local deadline=$(( SECONDS + grace_period ))
+    send_signal -TERM 2>/dev/null
+    filter_alive
+    while (( ${#targets[@]} && SECONDS < deadline )); do
+        sleep 0.5
+        filter_alive
+    done
+}
+
+function report_survivors # reports processes, which have not been terminated by SIGKILL
+{
+    case "$sig_spec" in
+        -9|-KILL|-SIGKILL) ;;
+        *) return ;;
+    esac
+    filter_alive
+    if (( ${#targets[@]} )); then
+        # Signal delivery is asynchronous, so give processes a moment to exit
+        sleep 0.1
+        filter_alive
+    fi
+
+    local pid stat survivors=()
+    for pid in "${targets[@]}"; do
+        # Zombies are terminated, they just wait for their parents
+        stat=""
+        [ -r /proc/$pid/stat ] && read -r stat < /proc/$pid/stat 2>/dev/null
+        [[ "${stat##*) }" == Z* ]] || survivors+=($pid)
+    done
+    if (( ${#survivors[@]} )); then
+        echo "SURVIVORS ${survivors[*]}"
+    fi
+}
+
+function do_kill # flushes the pending kill list
+{
+    local res=0
+    # Requested processes may have already exited, they are neither signalled nor reported
+    (( ${#targets[@]} )) && filter_alive
+    if (( ${#targets[@]} )); then
+        # Reported PIDs allow the plugin to skip requests for already killed processes
+        echo "SIGNALLED ${targets[*]}"
+        (( grace_period > 0 )) && terminate_gracefully
+        if (( ${#targets[@]} )); then
+            send_signal "$sig_spec"
+            res=$?
+            report_survivors
+        fi
+    fi
+    targets=()
+    return $res
 }
 
 test -n "$1" || usage
 
+exit_code=0
+protect_ancestors
+
 while [ -n "$1" ]; do
     case "$1" in
         -c)
             kill_parent=0
             ;;
 
+        -n)
+            walk_tree=0
+            ;;
+
+        -p)
+            group_attr=pgid
+            ;;
+
+        -s)
+            group_attr=sid
+            ;;
+
+        -g)
+            shift
+            grace_period="$1"
+            ;;
+
+        -e)
+            shift
+            cookies[$1]=1
+            ;;
+
         -*)
+            do_kill || exit_code=1
             sig_spec="$1"
             ;;
 
         *)
-            kill_children $1
-            (( kill_parent )) && do_kill $1
+            if (( walk_tree )); then
+                if (( ! snapshot_taken )); then
+                    take_snapshot
+                    snapshot_taken=1
+                fi
+                collect_children $1
+            fi
+            if (( kill_parent )) && [ -z "${visited[$1]}" ]; then
+                visited[$1]=1
+                targets+=($1)
+            fi
             ;;
     esac
     shift
-done
\ No newline at end of file
+done
+
+(( ${#cookies[@]} )) && collect_cookie_matches
+do_kill || exit_code=1
+exit $exit_code
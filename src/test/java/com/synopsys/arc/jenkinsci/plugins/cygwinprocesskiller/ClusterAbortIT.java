@@ -0,0 +1,235 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller;
+
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.CygwinProcessKiller.KillReport;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.CygwinProcessKiller.KillerRemoteCall;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.CygwinKillerException;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.KillScheduler;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.LatencyHistogram;
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.NodeCapabilityCache;
+import hudson.remoting.Callable;
+import hudson.remoting.VirtualChannel;
+import hudson.slaves.DumbSlave;
+import hudson.slaves.SlaveComputer;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import static org.junit.Assert.*;
+
+/**
+ * Load test of concurrent aborts across many agents.
+ * Agents are local processes of the test harness. Cygwin capabilities of each
+ * agent point to {@link StandInCygwin}, which shows a synthetic process tree.
+ * Each abort requests the kill of a single process from the agent, like the
+ * killer does on Windows agents, so requests go through the master's
+ * {@link KillerRemoteCall}, the coalescer, the scheduler and the kill script.
+ * The test checks that all processes are killed and master threads do not leak.
+ * Timings are only logged. Scale can be changed by system properties with the class name prefix.
+ * Run: mvn -Pintegration-tests verify
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+public class ClusterAbortIT {
+    private static final Logger LOGGER = Logger.getLogger(ClusterAbortIT.class.getName());
+    private static final String PROPERTY_PREFIX = ClusterAbortIT.class.getName() + ".";
+    private static final int AGENTS = Integer.getInteger(PROPERTY_PREFIX + "agents", 24);
+    /**
+     * Number of processes in the tree of each agent. All processes of the tree are aborted.
+     */
+    private static final int TREE_SIZE = Integer.getInteger(PROPERTY_PREFIX + "treeSize", 100);
+    /**
+     * Number of concurrent aborts.
+     */
+    private static final int THREADS = Integer.getInteger(PROPERTY_PREFIX + "threads", 64);
+    private static final int ROUNDS = 2;
+    private static final long WARM_UP_TIMEOUT_MS = 60000;
+    private static final String PLUGIN_CONFIG =
+            "<?xml version='1.0' encoding='UTF-8'?>\n"
+            + "<com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.CygwinProcessKillerPlugin>\n"
+            + "  <enableProcessKiller>true</enableProcessKiller>\n"
+            + "</com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.CygwinProcessKillerPlugin>\n";
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private StandInCygwin cygwin;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue(StandInCygwin.isSupported());
+        cygwin = StandInCygwin.create();
+        enableKiller();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        if (cygwin != null) {
+            cygwin.delete();
+        }
+    }
+
+    @Test
+    public void concurrentAbortsAcrossAgents() throws Exception {
+        List<DumbSlave> agents = new ArrayList<DumbSlave>(AGENTS);
+        for (int i = 0; i < AGENTS; i++) {
+            agents.add(j.createOnlineSlave());
+        }
+        // Connections drop cached capabilities, so the stand-in is configured after warm-ups of agents
+        awaitWarmUp();
+        List<VirtualChannel> channels = new ArrayList<VirtualChannel>(AGENTS);
+        for (DumbSlave agent : agents) {
+            cygwin.configure(NodeCapabilityCache.getInstance().get(agent), TREE_SIZE, false);
+            channels.add(agent.getChannel());
+        }
+
+        // Threads of the test are started in advance, so they are not counted as master threads
+        ThreadPoolExecutor pool = (ThreadPoolExecutor) Executors.newFixedThreadPool(THREADS);
+        pool.prestartAllCoreThreads();
+        executor = pool;
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        int baseThreads = threads.getThreadCount();
+        threads.resetPeakThreadCount();
+        int[] remainingThreads = new int[ROUNDS];
+        for (int round = 0; round < ROUNDS; round++) {
+            abortAll(channels);
+            remainingThreads[round] = threads.getThreadCount();
+        }
+
+        int threadGrowth = threads.getPeakThreadCount() - baseThreads;
+        LOGGER.log(Level.INFO, "{0} script launches, peak master threads +{1}, remaining threads after rounds {2}", 
+                new Object[] {cygwin.getInvocations("bash").size(), threadGrowth, Arrays.toString(remainingThreads)});
+        // Waiting requests and running scripts occupy remoting threads, but the killer should not add threads per request
+        int maxThreadGrowth = THREADS + KillScheduler.getInstance().getMaxConcurrent() + AGENTS;
+        assertTrue("Master threads have grown by " + threadGrowth, threadGrowth <= maxThreadGrowth);
+        // Pools are already started by the first round, so the next rounds should not leave threads behind
+        int leakedThreads = remainingThreads[ROUNDS - 1] - remainingThreads[0];
+        assertTrue("Threads have leaked: +" + leakedThreads, leakedThreads <= AGENTS);
+    }
+
+    /**
+     * Aborts all processes of all agents and checks that every process has been killed.
+     */
+    private void abortAll(List<VirtualChannel> channels) throws Exception {
+        final LatencyHistogram latency = new LatencyHistogram(LatencyHistogram.LATENCY_BOUNDS_MS);
+        List<Future<KillReport>> aborts = new ArrayList<Future<KillReport>>(channels.size() * TREE_SIZE);
+        long startTime = System.currentTimeMillis();
+
+        // Jenkins requests kills of all processes of the build one by one
+        for (int i = 0; i < TREE_SIZE; i++) {
+            for (final VirtualChannel channel : channels) {
+                final int pid = StandInCygwin.ROOT_PID + i;
+                aborts.add(executor.submit(new java.util.concurrent.Callable<KillReport>() {
+                    public KillReport call() throws Exception {
+                        long requestTime = System.currentTimeMillis();
+                        KillReport report = channel.call(new AbortCall(pid));
+                        latency.record(System.currentTimeMillis() - requestTime);
+                        return report;
+                    }
+                }));
+            }
+        }
+        for (Future<KillReport> abort : aborts) {
+            KillReport report = abort.get();
+            assertTrue(report.toString(), report.isKilledSuccessfully());
+        }
+
+        long duration = Math.max(1, System.currentTimeMillis() - startTime);
+        LOGGER.log(Level.INFO, "{0} aborts on {1} agents: {2} aborts/s, p50/p99/max latency {3}/{4}/{5} ms", 
+                new Object[] {aborts.size(), channels.size(), aborts.size() * 1000L / duration, 
+                latency.getP50(), latency.getP99(), latency.getMax()});
+    }
+
+    /**
+     * Waits till warm-ups of connected agents finish.
+     */
+    private static void awaitWarmUp() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WARM_UP_TIMEOUT_MS;
+        while (NodeWarmer.getPendingCount() > 0) {
+            assertTrue("Warm-up of agents has not finished", System.currentTimeMillis() < deadline);
+            Thread.sleep(100);
+        }
+    }
+
+    /**
+     * Enables the killer through the stored configuration of the plugin.
+     */
+    private void enableKiller() throws Exception {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(
+                new File(j.jenkins.getRootDir(), "cygwin-process-killer.xml")), "UTF-8");
+        try {
+            writer.write(PLUGIN_CONFIG);
+        } finally {
+            writer.close();
+        }
+        CygwinProcessKillerPlugin.Instance().start();
+        assertTrue(CygwinProcessKillerPlugin.Instance().isEnableProcessKiller());
+    }
+
+    /**
+     * Requests the kill from the agent.
+     * The killer checks the platform before the request, so the call skips the check on Linux agents.
+     */
+    private static class AbortCall implements Callable<KillReport, IOException> {
+        private final int pid;
+
+        public AbortCall(int pid) {
+            this.pid = pid;
+        }
+
+        @Override
+        public KillReport call() throws IOException {
+            try {
+                return SlaveComputer.getChannelToMaster().call(new KillerRemoteCall(pid, null));
+            } catch (CygwinKillerException ex) {
+                throw new IOException(ex.getMessage(), ex);
+            } catch (InterruptedException ex) {
+                throw new InterruptedIOException(ex.getMessage());
+            }
+        }
+    }
+}
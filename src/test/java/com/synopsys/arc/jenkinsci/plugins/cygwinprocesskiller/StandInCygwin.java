@@ -0,0 +1,293 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller;
+
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util.NodeCapabilityCache;
+import hudson.FilePath;
+import hudson.util.IOUtils;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Stand-in for a Cygwin installation, which runs on Linux.
+ * The installation's bin directory contains shell scripts, which imitate
+ * Cygwin's {@code uname} and {@code bash}. The {@code ps} script prints a
+ * synthetic process tree in the {@code ps -f} format or in the default format
+ * with Windows PIDs. By default signals are not
+ * delivered, because {@code kill} is overridden by a shell function, which
+ * reports signalled processes as terminated.
+ * Invocations of {@code bash}, {@code ps} and {@code kill} are written to the
+ * invocation log, so tests can count script launches and check their arguments.
+ * Used by tests and benchmarks.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+public class StandInCygwin {
+    public static final int ROOT_PID = 100000;
+    public static final int DEFAULT_FANOUT = 4;
+    /**
+     * Difference between Windows and Cygwin PIDs of the synthetic tree.
+     */
+    public static final int WINPID_OFFSET = 400000;
+    private static final String LOG_FILE = "invocations.log";
+
+    private static final String UNAME =
+            "#!/bin/bash\n"
+            + "echo 'CYGWIN_NT-6.1 standin 1.7.25(0.270/5/3) 2013-08-31 20:39 x86_64 Cygwin'\n";
+    private static final String BASH =
+            "#!/bin/bash\n"
+            + "[ -n \"$STANDIN_LOG\" ] && echo \"bash $*\" >> \"$STANDIN_LOG\"\n"
+            + "exec /bin/bash \"$@\"\n";
+    private static final String PS =
+            "#!/bin/bash\n"
+            + "[ -n \"$STANDIN_LOG\" ] && echo \"ps $*\" >> \"$STANDIN_LOG\"\n"
+            + "size=${STANDIN_TREE_SIZE:-10}\n"
+            + "root=${STANDIN_ROOT_PID:-" + ROOT_PID + "}\n"
+            + "fanout=${STANDIN_FANOUT:-" + DEFAULT_FANOUT + "}\n"
+            + "if [ \"$1\" = -f ]; then\n"
+            + "    echo '      UID     PID    PPID  TTY        STIME COMMAND'\n"
+            + "    printf ' %9s %7d %7d %4s %8s %s\\n' builder $root 1 pty0 10:00:00 /usr/bin/make\n"
+            + "    for (( i = 1; i < size; i++ )); do\n"
+            + "        printf ' %9s %7d %7d %4s %8s %s\\n' builder $(( root + i )) $(( root + (i - 1) / fanout )) pty0 10:00:00 /usr/bin/gcc\n"
+            + "    done\n"
+            + "else\n"
+            + "    echo '      PID    PPID    PGID     WINPID   TTY         UID    STIME COMMAND'\n"
+            + "    printf ' %9d %7d %7d %10d %5s %11d %8s %s\\n' $root 1 $root $(( root + " + WINPID_OFFSET + " )) pty0 1000 10:00:00 /usr/bin/make\n"
+            + "    for (( i = 1; i < size; i++ )); do\n"
+            + "        printf ' %9d %7d %7d %10d %5s %11d %8s %s\\n' $(( root + i )) $(( root + (i - 1) / fanout )) $root $(( root + i + " + WINPID_OFFSET + " )) pty0 1000 10:00:00 /usr/bin/gcc\n"
+            + "    done\n"
+            + "fi\n";
+    // Signalled processes are reported as terminated, other PIDs are reported as running
+    private static final String FAKE_KILL_ENV =
+            "declare -A standin_killed\n"
+            + "function kill {\n"
+            + "    [ -n \"$STANDIN_LOG\" ] && echo \"kill $*\" >> \"$STANDIN_LOG\"\n"
+            + "    if [ \"$1\" = -0 ]; then\n"
+            + "        [ -z \"${standin_killed[$2]}\" ]\n"
+            + "        return\n"
+            + "    fi\n"
+            + "    local arg\n"
+            + "    for arg in \"$@\"; do\n"
+            + "        [[ \"$arg\" =~ ^[0-9]+$ ]] && standin_killed[$arg]=1\n"
+            + "    done\n"
+            + "    return 0\n"
+            + "}\n";
+    // Signals are delivered by the builtin
+    private static final String REAL_KILL_ENV =
+            "function kill {\n"
+            + "    [ -n \"$STANDIN_LOG\" ] && [ \"$1\" != -0 ] && echo \"kill $*\" >> \"$STANDIN_LOG\"\n"
+            + "    builtin kill \"$@\"\n"
+            + "}\n";
+
+    private final File home;
+
+    private StandInCygwin(File home) {
+        this.home = home;
+    }
+
+    /**
+     * Creates the stand-in installation in a temporary directory.
+     * @return Created installation
+     */
+    public static StandInCygwin create() throws IOException, InterruptedException {
+        File home = File.createTempFile("cygwin-standin", "");
+        if (!home.delete() || !home.mkdirs()) {
+            throw new IOException("Cannot create directory " + home);
+        }
+
+        StandInCygwin cygwin = new StandInCygwin(home);
+        cygwin.writeExecutable("bin/uname.exe", UNAME);
+        cygwin.writeExecutable("bin/bash.exe", BASH);
+        cygwin.writeExecutable("bin/ps", PS);
+        cygwin.writeExecutable("bin/ps.exe", PS);
+        cygwin.writeExecutable("fake_kill_env", FAKE_KILL_ENV);
+        cygwin.writeExecutable("real_kill_env", REAL_KILL_ENV);
+        new File(home, "tmp").mkdirs();
+        return cygwin;
+    }
+
+    /**
+     * Checks that the stand-in can run on the current host.
+     */
+    public static boolean isSupported() {
+        return File.pathSeparatorChar == ':' && new File("/bin/bash").canExecute();
+    }
+
+    /**
+     * Creates node capabilities, which point to the stand-in installation.
+     * Signals are not delivered.
+     * @param nodeName Name of the node
+     * @param treeSize Number of processes in the synthetic tree
+     * @return Pre-resolved capabilities
+     */
+    public NodeCapabilityCache.Entry createCapabilities(String nodeName, int treeSize) {
+        return createCapabilities(nodeName, treeSize, false);
+    }
+
+    /**
+     * Creates node capabilities, which point to the stand-in installation.
+     * @param nodeName Name of the node
+     * @param treeSize Number of processes in the synthetic tree
+     * @param deliverSignals Deliver signals to real processes.
+     *      Otherwise signalled processes are just reported as terminated
+     * @return Pre-resolved capabilities
+     */
+    public NodeCapabilityCache.Entry createCapabilities(String nodeName, int treeSize, boolean deliverSignals) {
+        NodeCapabilityCache.Entry entry = new NodeCapabilityCache.Entry(nodeName);
+        configure(entry, treeSize, deliverSignals);
+        return entry;
+    }
+
+    /**
+     * Points cached capabilities of the node to the stand-in installation.
+     * Used for nodes of the Jenkins test harness, so kills on these nodes do
+     * not resolve the Windows layout of the Cygwin installation.
+     * @param entry Capabilities of the node
+     * @param treeSize Number of processes in the synthetic tree
+     * @param deliverSignals Deliver signals to real processes.
+     *      Otherwise signalled processes are just reported as terminated
+     */
+    public void configure(NodeCapabilityCache.Entry entry, int treeSize, boolean deliverSignals) {
+        File bin = new File(home, "bin");
+        entry.setCygwinHome(new FilePath(home));
+        entry.setBinPath(bin.getAbsolutePath() + File.separator);
+        entry.setTmpDir(new FilePath(new File(home, "tmp")));
+
+        Map<String, String> envVars = new TreeMap<String, String>();
+        envVars.put("PATH", bin.getAbsolutePath() + File.pathSeparator + "/usr/bin" + File.pathSeparator + "/bin");
+        envVars.put("CYGWIN_HOME", home.getAbsolutePath());
+        envVars.put("BASH_ENV", new File(home, deliverSignals ? "real_kill_env" : "fake_kill_env").getAbsolutePath());
+        envVars.put("STANDIN_TREE_SIZE", Integer.toString(treeSize));
+        envVars.put("STANDIN_LOG", getLogFile().getAbsolutePath());
+        entry.setEnvVars(envVars);
+    }
+
+    /**
+     * Reads the default kill script of the plugin.
+     */
+    public static String getDefaultKillScript() throws IOException {
+        return readResource("/com/synopsys/arc/jenkinsci/plugins/cygwinprocesskiller/cygwin_killproc.bash");
+    }
+
+    /**
+     * Reads the resource as a string.
+     * @param name Absolute name of the resource
+     */
+    public static String readResource(String name) throws IOException {
+        InputStream str = StandInCygwin.class.getResourceAsStream(name);
+        if (str == null) {
+            throw new IOException("Resource " + name + " does not exist");
+        }
+        try {
+            StringWriter writer = new StringWriter();
+            IOUtils.copy(str, writer);
+            return writer.toString();
+        } finally {
+            str.close();
+        }
+    }
+
+    public File getHome() {
+        return home;
+    }
+
+    public File getLogFile() {
+        return new File(home, LOG_FILE);
+    }
+
+    /**
+     * Gets logged invocations.
+     * @return Lines in the {@code COMMAND ARGS...} format
+     */
+    public List<String> getInvocations() throws IOException {
+        List<String> res = new ArrayList<String>();
+        File log = getLogFile();
+        if (!log.exists()) {
+            return res;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(log), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                res.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return res;
+    }
+
+    /**
+     * Gets logged invocations of the command.
+     * @param command Command name ({@code bash}, {@code ps} or {@code kill})
+     * @return Arguments of invocations
+     */
+    public List<String> getInvocations(String command) throws IOException {
+        List<String> res = new ArrayList<String>();
+        for (String line : getInvocations()) {
+            if (line.equals(command)) {
+                res.add("");
+            } else if (line.startsWith(command + " ")) {
+                res.add(line.substring(command.length() + 1));
+            }
+        }
+        return res;
+    }
+
+    public void clearInvocations() {
+        getLogFile().delete();
+    }
+
+    /**
+     * Replaces a command of the installation, e.g. in order to imitate broken nodes.
+     * @param command Name of the command without the extension
+     * @param script Bash script, which implements the command. Null removes the command
+     */
+    public void overrideCommand(String command, String script) throws IOException, InterruptedException {
+        if (script != null) {
+            writeExecutable("bin/" + command + ".exe", script);
+        } else {
+            new File(home, "bin/" + command + ".exe").delete();
+        }
+    }
+
+    public void delete() throws IOException, InterruptedException {
+        new FilePath(home).deleteRecursive();
+    }
+
+    private void writeExecutable(String path, String content) throws IOException, InterruptedException {
+        FilePath file = new FilePath(new File(home, path));
+        file.getParent().mkdirs();
+        file.write(content, null);
+        file.chmod(0755);
+    }
+}
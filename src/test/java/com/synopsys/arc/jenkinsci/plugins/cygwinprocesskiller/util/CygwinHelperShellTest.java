@@ -0,0 +1,188 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util;
+
+import hudson.Launcher;
+import hudson.Proc;
+import hudson.model.TaskListener;
+import hudson.util.StreamTaskListener;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.output.NullOutputStream;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link CygwinHelperShell}.
+ * Bash of the test host stands in for the Cygwin's one.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+public class CygwinHelperShellTest {
+    private static final String BASH = "/bin/bash";
+
+    private BashFactory factory;
+    private CygwinHelperShell shell;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(new File(BASH).canExecute());
+        factory = new BashFactory();
+        shell = new CygwinHelperShell("test", factory, CygwinHelperShell.DEFAULT_QUEUE_SIZE);
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        if (shell != null) {
+            shell.close();
+        }
+    }
+
+    @Test
+    public void executesCommandsInSingleProcess() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(0, shell.exec("echo hello; echo world >&2", out, 10, TimeUnit.SECONDS));
+        assertEquals("hello\nworld\n", out.toString());
+        assertEquals(3, shell.exec("exit_code() { return 3; }; exit_code", new NullOutputStream(), 10, TimeUnit.SECONDS));
+        assertTrue(shell.isHealthy());
+        assertEquals("Started shells", 1, factory.started);
+    }
+
+    @Test
+    public void timeoutIncludesTimeInQueue() throws Exception {
+        Future<Integer> slow = execAsync("exec sleep 30", 60);
+        Thread.sleep(100); // Let the shell take the slow command
+
+        long startTime = System.currentTimeMillis();
+        try {
+            shell.exec("true", new NullOutputStream(), 500, TimeUnit.MILLISECONDS);
+            fail("Command should time out in the queue");
+        } catch (IOException ex) {
+            // Expected
+        }
+        assertTrue("Caller should not wait for the slow command", System.currentTimeMillis() - startTime < 5000);
+
+        // The stuck shell is being restarted
+        try {
+            slow.get(10, TimeUnit.SECONDS);
+            fail("Slow command should be terminated with the shell");
+        } catch (ExecutionException ex) {
+            // Expected
+        }
+        assertEquals(0, shell.exec("true", new NullOutputStream(), 10, TimeUnit.SECONDS));
+        assertEquals("Started shells", 2, factory.started);
+    }
+
+    @Test
+    public void timeoutRestartsShell() throws Exception {
+        try {
+            // Replaces the shell, so the termination of the shell's process closes the output
+            shell.exec("exec sleep 30", new NullOutputStream(), 500, TimeUnit.MILLISECONDS);
+            fail("Command should time out");
+        } catch (IOException ex) {
+            // Expected
+        }
+        assertEquals(0, shell.exec("true", new NullOutputStream(), 10, TimeUnit.SECONDS));
+        assertEquals("Started shells", 2, factory.started);
+    }
+
+    @Test
+    public void cancelledCommandDoesNotAffectOtherCallers() throws Exception {
+        File marker = File.createTempFile("helper-shell", ".marker");
+        marker.delete();
+        try {
+            Future<Integer> running = execAsync("sleep 1", 10);
+            Thread.sleep(100);
+            Future<Integer> queued = execAsync("touch '" + marker.getAbsolutePath() + "'", 10);
+            Thread.sleep(100);
+
+            // Interruption of the queued command should not terminate the running one
+            queued.cancel(true);
+            assertEquals(0, running.get(10, TimeUnit.SECONDS).intValue());
+            assertEquals(0, shell.exec("true", new NullOutputStream(), 10, TimeUnit.SECONDS));
+            assertFalse("Cancelled command should not be executed", marker.exists());
+            assertEquals("Started shells", 1, factory.started);
+        } finally {
+            marker.delete();
+        }
+    }
+
+    @Test
+    public void restartsShellWhichHasDiedBetweenCommands() throws Exception {
+        assertEquals(0, shell.exec("true", new NullOutputStream(), 10, TimeUnit.SECONDS));
+        factory.last.kill();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(0, shell.exec("echo ok", out, 10, TimeUnit.SECONDS));
+        assertEquals("ok\n", out.toString());
+        assertEquals("Started shells", 2, factory.started);
+    }
+
+    @Test
+    public void disposedEntryDoesNotCreateShell() {
+        NodeCapabilityCache.Entry entry = new NodeCapabilityCache.Entry("test");
+        entry.dispose();
+        assertNull(entry.getShell(factory));
+    }
+
+    private Future<Integer> execAsync(final String commandLine, final int timeoutSec) {
+        return executor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return shell.exec(commandLine, new NullOutputStream(), timeoutSec, TimeUnit.SECONDS);
+            }
+        });
+    }
+
+    /**
+     * Starts bash of the test host and counts started processes.
+     */
+    private static class BashFactory implements CygwinHelperShell.ProcessFactory {
+        private final TaskListener listener = StreamTaskListener.fromStdout();
+        volatile int started;
+        volatile Proc last;
+
+        @Override
+        public Proc start() throws IOException, InterruptedException {
+            started++;
+            last = new Launcher.LocalLauncher(listener).launch().cmds(BASH, "--noprofile", "--norc")
+                    .readStdout().writeStdin().stderr(listener.getLogger()).start();
+            return last;
+        }
+    }
+}
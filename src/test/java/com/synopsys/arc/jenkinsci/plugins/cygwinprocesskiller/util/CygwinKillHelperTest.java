@@ -0,0 +1,487 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util;
+
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.StandInCygwin;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import hudson.util.IOUtils;
+import hudson.util.StreamTaskListener;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link CygwinKillHelper} and the default kill script against {@link StandInCygwin}.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+public class CygwinKillHelperTest {
+    private StandInCygwin cygwin;
+    private NodeCapabilityCache.Entry capabilities;
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue(StandInCygwin.isSupported());
+        cygwin = StandInCygwin.create();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (capabilities != null) {
+            capabilities.dispose();
+        }
+        if (cygwin != null) {
+            cygwin.delete();
+        }
+    }
+
+    @Test
+    public void killsTreeFromSingleSnapshot() throws Exception {
+        int treeSize = 300;
+        CygwinKillHelper helper = createHelper(treeSize, null);
+
+        KillResult result = helper.kill(StandInCygwin.ROOT_PID);
+
+        assertTrue(result.getErrorMessage(), result.isSuccess());
+        assertEquals(treeSize, result.getSignalledPIDs().length);
+        assertEquals(0, result.getSurvivorPIDs().length);
+        assertEquals("Script launches", 1, cygwin.getInvocations("bash").size());
+        assertEquals("Snapshots", 1, cygwin.getInvocations("ps").size());
+
+        List<String> kills = getSignals();
+        assertEquals("Batched kills " + kills, 1, kills.size());
+        assertKillOrder(kills.get(0), treeSize);
+    }
+
+    @Test
+    public void killsSeveralTreesFromSingleSnapshot() throws Exception {
+        CygwinKillHelper helper = createHelper(100, null);
+
+        KillResult result = helper.kill(StandInCygwin.ROOT_PID + 1, StandInCygwin.ROOT_PID + 2);
+
+        assertTrue(result.getErrorMessage(), result.isSuccess());
+        assertEquals(getSubtreeSize(1, 100) + getSubtreeSize(2, 100), result.getSignalledPIDs().length);
+        assertFalse(result.isSignalled(StandInCygwin.ROOT_PID));
+        assertTrue(result.isSignalled(StandInCygwin.ROOT_PID + 5));
+        assertEquals("Snapshots", 1, cygwin.getInvocations("ps").size());
+        assertEquals("Batched kills", 1, getSignals().size());
+    }
+
+    @Test
+    public void snapshotCostDoesNotDependOnTreeDepth() throws Exception {
+        // Fan-out of 1 produces a chain, the old script forked ps per level
+        capabilities = cygwin.createCapabilities("test", 200);
+        Map<String, String> envVars = new HashMap<String, String>(capabilities.getEnvVars());
+        envVars.put("STANDIN_FANOUT", "1");
+        capabilities.setEnvVars(envVars);
+        CygwinKillHelper helper = createHelper(capabilities, StandInCygwin.getDefaultKillScript(), null, 
+                new KillTimeouts(60, 60, 0));
+
+        KillResult result = helper.kill(StandInCygwin.ROOT_PID);
+
+        assertTrue(result.getErrorMessage(), result.isSuccess());
+        assertEquals(200, result.getSignalledPIDs().length);
+        assertEquals("Snapshots", 1, cygwin.getInvocations("ps").size());
+        assertEquals("Batched kills", 1, getSignals().size());
+    }
+
+    @Test
+    public void restagesRemovedScript() throws Exception {
+        CygwinKillHelper helper = createHelper(10, null);
+        assertTrue(helper.kill(StandInCygwin.ROOT_PID).isSuccess());
+        FilePath staged = capabilities.getTmpDir().child(
+                CygwinKillHelper.getScriptFileName(StandInCygwin.getDefaultKillScript()));
+        assertTrue(staged.exists());
+
+        // E.g. the temporary directory has been cleaned up
+        staged.delete();
+        KillResult result = helper.kill(StandInCygwin.ROOT_PID);
+
+        assertTrue(result.getErrorMessage(), result.isSuccess());
+        assertEquals(10, result.getSignalledPIDs().length);
+        assertTrue("Script should be staged again", staged.exists());
+    }
+
+    @Test
+    public void killsLongProcessListsInBatches() throws Exception {
+        CygwinKillHelper helper = createHelper(1, null);
+        int[] pids = new int[4500];
+        for (int i = 0; i < pids.length; i++) {
+            pids[i] = StandInCygwin.ROOT_PID + i;
+        }
+
+        KillResult result = helper.killProcesses(pids);
+
+        assertTrue(result.getErrorMessage(), result.isSuccess());
+        assertEquals(pids.length, result.getSignalledPIDs().length);
+        assertEquals("Script launches", 3, cygwin.getInvocations("bash").size());
+    }
+
+    @Test
+    public void reportsOnlySignalledProcesses() throws Exception {
+        capabilities = cygwin.createCapabilities("test", 1, true);
+        CygwinKillHelper helper = createHelper(capabilities, StandInCygwin.getDefaultKillScript(), null, 
+                new KillTimeouts(60, 60, 0));
+        int exited = startProcess("true");
+        assertTrue("Process " + exited + " should exit", waitForExit(exited));
+        int pid = startSleep();
+        try {
+            KillResult result = helper.killProcesses(exited, pid);
+
+            assertTrue(result.getErrorMessage(), result.isSuccess());
+            assertArrayEquals(new int[] {pid}, result.getSignalledPIDs());
+            assertTrue("Process " + pid + " should be killed", waitForExit(pid));
+        } finally {
+            new ProcessBuilder("kill", "-9", Integer.toString(pid)).start().waitFor();
+        }
+    }
+
+    @Test
+    public void legacyCustomScriptKillsProcess() throws Exception {
+        // Copies of the default script from older versions are treated as custom scripts,
+        // so the plugin passes no grace period to them
+        String legacyScript = StandInCygwin.readResource(
+                "/com/synopsys/arc/jenkinsci/plugins/cygwinprocesskiller/util/legacy_killproc.bash");
+        capabilities = cygwin.createCapabilities("test", 1, true);
+        CygwinKillHelper helper = createHelper(capabilities, legacyScript, null, new KillTimeouts(60, 60, 0));
+        int pid = startSleep();
+        try {
+            KillResult result = helper.kill(pid);
+
+            assertTrue(result.getErrorMessage(), result.isSuccess());
+            List<String> launches = cygwin.getInvocations("bash");
+            assertEquals("Script launches", 1, launches.size());
+            assertFalse("Legacy script does not support the grace period: " + launches.get(0), 
+                    launches.get(0).contains(" -g "));
+            assertTrue("Process " + pid + " should be killed", waitForExit(pid));
+        } finally {
+            new ProcessBuilder("kill", "-9", Integer.toString(pid)).start().waitFor();
+        }
+    }
+
+    @Test
+    public void killsEscapedProcessesByCookie() throws Exception {
+        Assume.assumeTrue(new File("/proc/self/environ").canRead());
+        String cookie = "JENKINS_NODE_COOKIE=" + Long.toHexString(System.nanoTime());
+        capabilities = cygwin.createCapabilities("test", 1, true);
+        CygwinKillHelper helper = createHelper(capabilities, StandInCygwin.getDefaultKillScript(), null,
+                new KillTimeouts(60, 60, 0));
+        int root = startSleep();
+        // The process has escaped from the tree, but it has inherited the build cookie
+        int escaped = startProcess(cookie + " sleep 600");
+        int bystander = startProcess("JENKINS_NODE_COOKIE=other sleep 600");
+        try {
+            KillResult result = helper.kill(new int[] {root}, Collections.singleton(cookie));
+
+            assertTrue(result.getErrorMessage(), result.isSuccess());
+            assertTrue(result.isSignalled(root));
+            assertTrue("Process with the cookie should be signalled", result.isSignalled(escaped));
+            assertFalse("Process with another cookie should not be signalled", result.isSignalled(bystander));
+            assertEquals("Script launches", 1, cygwin.getInvocations("bash").size());
+            assertTrue(cygwin.getInvocations("bash").get(0).contains(" -e " + cookie + " "));
+            assertTrue("Process " + root + " should be killed", waitForExit(root));
+            assertTrue("Process " + escaped + " should be killed", waitForExit(escaped));
+            assertTrue("Process " + bystander + " should survive", new File("/proc/" + bystander).exists());
+        } finally {
+            for (int pid : new int[] {root, escaped, bystander}) {
+                new ProcessBuilder("kill", "-9", Integer.toString(pid)).start().waitFor();
+            }
+        }
+    }
+
+    @Test
+    public void strategyOptionIsPassedToScript() throws Exception {
+        for (KillStrategy strategy : KillStrategy.values()) {
+            cygwin.clearInvocations();
+            capabilities = cygwin.createCapabilities("test", 10);
+            CygwinKillHelper helper = createHelper(capabilities, StandInCygwin.getDefaultKillScript(), null, 
+                    strategy, new KillTimeouts(60, 60, 0));
+
+            KillResult result = helper.kill(StandInCygwin.ROOT_PID);
+
+            assertTrue(result.getErrorMessage(), result.isSuccess());
+            assertEquals("Synthetic processes are signalled separately", 10, result.getSignalledPIDs().length);
+            String launch = cygwin.getInvocations("bash").get(0);
+            for (KillStrategy other : KillStrategy.values()) {
+                if (other.getScriptOption() != null) {
+                    assertEquals(strategy + ": " + launch, other == strategy, 
+                            launch.contains(" " + other.getScriptOption() + " "));
+                }
+            }
+            capabilities.dispose();
+        }
+    }
+
+    @Test
+    public void sessionIsSignalledByLeader() throws Exception {
+        Assume.assumeTrue(new File("/proc/self/stat").canRead() && new File("/usr/bin/setsid").canExecute());
+        capabilities = cygwin.createCapabilities("test", 1, true);
+        CygwinKillHelper helper = createHelper(capabilities, StandInCygwin.getDefaultKillScript(), null, 
+                KillStrategy.SESSION, new KillTimeouts(60, 60, 0));
+        // Members of the session are not in the synthetic tree, so only the session kill reaches them
+        int leader = startProcess("setsid bash -c 'sleep 600 & sleep 600 & wait'");
+        List<Integer> members = getSessionMembers(leader, 3);
+        try {
+            KillResult result = helper.kill(leader);
+
+            assertTrue(result.getErrorMessage(), result.isSuccess());
+            assertTrue(result.isSignalled(leader));
+            assertEquals(Collections.singletonList("-9 -- -" + leader), getSignals());
+            for (int pid : members) {
+                assertTrue("Process " + pid + " should be killed", waitForExit(pid));
+            }
+        } finally {
+            new ProcessBuilder("kill", "-9", "--", "-" + leader).start().waitFor();
+        }
+    }
+
+    @Test
+    public void processOutsideOfLeadersGroupIsSignalledSeparately() throws Exception {
+        Assume.assumeTrue(new File("/proc/self/stat").canRead() && new File("/usr/bin/setsid").canExecute());
+        capabilities = cygwin.createCapabilities("test", 1, true);
+        CygwinKillHelper helper = createHelper(capabilities, StandInCygwin.getDefaultKillScript(), null, 
+                KillStrategy.PROCESS_GROUP, new KillTimeouts(60, 60, 0));
+        int leader = startProcess("setsid bash -c 'sleep 600 & sleep 600 & wait'");
+        List<Integer> members = getSessionMembers(leader, 3);
+        int target = members.get(members.size() - 1);
+        try {
+            // The group leader is not requested, so the group is not signalled
+            KillResult result = helper.kill(target);
+
+            assertTrue(result.getErrorMessage(), result.isSuccess());
+            assertEquals(Collections.singletonList("-9 " + target), getSignals());
+            assertTrue("Process " + target + " should be killed", waitForExit(target));
+            for (int pid : members) {
+                if (pid != target) {
+                    assertTrue("Process " + pid + " should survive", new File("/proc/" + pid).exists());
+                }
+            }
+        } finally {
+            new ProcessBuilder("kill", "-9", "--", "-" + leader).start().waitFor();
+        }
+    }
+
+    @Test
+    public void otherPlatformIsNotCygwin() throws Exception {
+        cygwin.overrideCommand("uname", "#!/bin/bash\necho 'Linux standin 3.2.0 x86_64 GNU/Linux'\n");
+        CygwinKillHelper helper = createHelper(1, null);
+
+        assertFalse(helper.isCygwin());
+        assertEquals(Boolean.FALSE, capabilities.isCygwin());
+    }
+
+    @Test
+    public void failedProbeIsReported() throws Exception {
+        cygwin.overrideCommand("uname", null);
+        CygwinKillHelper helper = createHelper(1, null);
+
+        try {
+            helper.isCygwin();
+            fail("Probe, which cannot be launched, should not be reported as another platform");
+        } catch (IOException ex) {
+            // Expected
+        }
+        assertNull("Failed probe should not be cached", capabilities.isCygwin());
+    }
+
+    @Test
+    public void unsuccessfulProbeIsRepeated() throws Exception {
+        cygwin.overrideCommand("uname", "#!/bin/bash\necho \"uname $*\" >> \"$STANDIN_LOG\"\nexit 1\n");
+        CygwinKillHelper helper = createHelper(1, null);
+        assertProbeFails(helper);
+
+        // The node has recovered
+        cygwin.overrideCommand("uname", "#!/bin/bash\necho \"uname $*\" >> \"$STANDIN_LOG\"\necho CYGWIN_NT-6.1\n");
+        assertTrue(helper.isCygwin());
+        assertEquals("Probes", 2, cygwin.getInvocations("uname").size());
+    }
+
+    @Test
+    public void timedOutProbeIsNotCached() throws Exception {
+        cygwin.overrideCommand("uname", "#!/bin/bash\nexec sleep 30\n");
+        capabilities = cygwin.createCapabilities("test", 1);
+        CygwinKillHelper helper = createHelper(capabilities, StandInCygwin.getDefaultKillScript(), null,
+                new KillTimeouts(1, 60, 0));
+
+        long startTime = System.currentTimeMillis();
+        assertProbeFails(helper);
+        assertTrue("Probe should be stopped by the deadline", System.currentTimeMillis() - startTime < 20000);
+    }
+
+    private void assertProbeFails(CygwinKillHelper helper) throws Exception {
+        try {
+            helper.isCygwin();
+            fail("Unsuccessful probe should not be reported as another platform");
+        } catch (IOException ex) {
+            // Expected
+        }
+        assertNull("Unsuccessful probe should not be cached", capabilities.isCygwin());
+    }
+
+    private CygwinKillHelper createHelper(int treeSize, ProcessSnapshotSource snapshotSource) throws Exception {
+        capabilities = cygwin.createCapabilities("test", treeSize);
+        return createHelper(capabilities, StandInCygwin.getDefaultKillScript(), snapshotSource, 
+                new KillTimeouts(60, 60, 0));
+    }
+
+    static CygwinKillHelper createHelper(NodeCapabilityCache.Entry capabilities, String killScript, 
+            ProcessSnapshotSource snapshotSource, KillTimeouts timeouts) {
+        return createHelper(capabilities, killScript, snapshotSource, KillStrategy.TREE, timeouts);
+    }
+
+    static CygwinKillHelper createHelper(NodeCapabilityCache.Entry capabilities, String killScript, 
+            ProcessSnapshotSource snapshotSource, KillStrategy killStrategy, KillTimeouts timeouts) {
+        TaskListener listener = StreamTaskListener.fromStdout();
+        return new CygwinKillHelper(listener, new Launcher.LocalLauncher(listener), capabilities, killScript, 
+                false, snapshotSource, null, killStrategy, timeouts);
+    }
+
+    /**
+     * Starts a background process, which does not belong to the test JVM.
+     * @return PID of the process
+     */
+    private static int startSleep() throws Exception {
+        return startProcess("sleep 600");
+    }
+
+    /**
+     * Starts a background process by bash.
+     * @param command Command to be started
+     * @return PID of the process. The process may have already exited
+     */
+    private static int startProcess(String command) throws Exception {
+        Process proc = new ProcessBuilder("/bin/bash", "-c", command + " >/dev/null 2>&1 & echo $!").start();
+        String pid = IOUtils.toString(proc.getInputStream()).trim();
+        assertEquals(0, proc.waitFor());
+        return Integer.parseInt(pid);
+    }
+
+    /**
+     * Waits till the session has the expected number of processes.
+     * @param sid Session ID, which is the PID of its leader
+     * @param count Expected number of processes
+     * @return PIDs of the session's processes, the leader goes first
+     */
+    private static List<Integer> getSessionMembers(int sid, int count) throws Exception {
+        List<Integer> res = new ArrayList<Integer>();
+        for (int attempt = 0; attempt < 50 && res.size() < count; attempt++) {
+            if (attempt > 0) {
+                Thread.sleep(100);
+            }
+            res.clear();
+            res.add(sid);
+            File[] entries = new File("/proc").listFiles();
+            for (File entry : entries != null ? entries : new File[0]) {
+                if (!entry.getName().matches("[0-9]+") || entry.getName().equals(Integer.toString(sid))) {
+                    continue;
+                }
+                String stat;
+                try {
+                    FileInputStream str = new FileInputStream(new File(entry, "stat"));
+                    try {
+                        stat = IOUtils.toString(str);
+                    } finally {
+                        str.close();
+                    }
+                } catch (IOException ex) {
+                    continue; // The process has exited
+                }
+                // "pid (comm) state ppid pgrp session ..."
+                String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+                if (fields.length > 3 && fields[3].equals(Integer.toString(sid))) {
+                    res.add(Integer.parseInt(entry.getName()));
+                }
+            }
+        }
+        assertEquals("Processes of session " + sid, count, res.size());
+        return res;
+    }
+
+    private static boolean waitForExit(int pid) throws InterruptedException {
+        File proc = new File("/proc/" + pid);
+        for (int i = 0; i < 50 && proc.exists(); i++) {
+            Thread.sleep(100);
+        }
+        return !proc.exists();
+    }
+
+    /**
+     * Gets size of the synthetic subtree.
+     * @param index Index of the subtree root in the synthetic tree
+     * @param treeSize Size of the synthetic tree
+     */
+    private static int getSubtreeSize(int index, int treeSize) {
+        int res = 1;
+        for (int child = index * StandInCygwin.DEFAULT_FANOUT + 1; 
+                child < Math.min(treeSize, (index + 1) * StandInCygwin.DEFAULT_FANOUT + 1); child++) {
+            res += getSubtreeSize(child, treeSize);
+        }
+        return res;
+    }
+
+    /**
+     * Gets arguments of kill commands, which have delivered signals.
+     * Liveness checks are skipped.
+     */
+    private List<String> getSignals() throws Exception {
+        List<String> res = new ArrayList<String>();
+        for (String args : cygwin.getInvocations("kill")) {
+            if (!args.startsWith("-0 ")) {
+                res.add(args);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Checks that the kill command signals the whole synthetic tree, children before parents.
+     */
+    private static void assertKillOrder(String killArgs, int treeSize) {
+        String[] args = killArgs.split(" ");
+        assertEquals("-9", args[0]);
+        assertEquals("Signalled processes", treeSize, args.length - 1);
+
+        Map<Integer, Integer> positions = new HashMap<Integer, Integer>();
+        for (int i = 1; i < args.length; i++) {
+            positions.put(Integer.parseInt(args[i]), i);
+        }
+        for (int i = 1; i < treeSize; i++) {
+            int pid = StandInCygwin.ROOT_PID + i;
+            int parent = StandInCygwin.ROOT_PID + (i - 1) / StandInCygwin.DEFAULT_FANOUT;
+            assertTrue("Process " + pid + " should be signalled before its parent", 
+                    positions.get(pid) < positions.get(parent));
+        }
+    }
+}
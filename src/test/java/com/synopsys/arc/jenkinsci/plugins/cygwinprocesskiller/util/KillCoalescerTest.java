@@ -0,0 +1,274 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util;
+
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.StandInCygwin;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link KillCoalescer}.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+public class KillCoalescerTest {
+    private static final String NODE = "test";
+    private static final int TREE_SIZE = 200;
+
+    private StandInCygwin cygwin;
+    private NodeCapabilityCache.Entry capabilities;
+    private ExecutorService executor;
+
+    @After
+    public void tearDown() throws Exception {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        if (capabilities != null) {
+            capabilities.dispose();
+        }
+        if (cygwin != null) {
+            cygwin.delete();
+        }
+    }
+
+    @Test
+    public void sequentialRequestsForTreeCauseSingleLaunch() throws Exception {
+        KillCoalescer.BatchKiller killer = createStandInKiller();
+        KillCoalescer coalescer = new KillCoalescer(new KillScheduler(16, 4), 50, 5000);
+
+        // Jenkins invokes the killer for each process of the build one by one
+        for (int i = 0; i < TREE_SIZE; i++) {
+            KillResult result = coalescer.kill(NODE, StandInCygwin.ROOT_PID + i, killer);
+            assertTrue(result.getErrorMessage(), result.isSuccess());
+        }
+
+        assertEquals("Script launches", 1, cygwin.getInvocations("bash").size());
+    }
+
+    @Test
+    public void concurrentRequestsForTreeCauseSingleLaunch() throws Exception {
+        final KillCoalescer.BatchKiller killer = createStandInKiller();
+        final KillCoalescer coalescer = new KillCoalescer(new KillScheduler(16, 4), 500, 5000);
+        List<Integer> pids = new ArrayList<Integer>();
+        for (int i = 0; i < TREE_SIZE; i++) {
+            pids.add(StandInCygwin.ROOT_PID + i);
+        }
+        Collections.shuffle(pids);
+
+        executor = Executors.newFixedThreadPool(TREE_SIZE);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<KillResult>> results = new ArrayList<Future<KillResult>>();
+        for (final int pid : pids) {
+            results.add(executor.submit(new Callable<KillResult>() {
+                @Override
+                public KillResult call() throws Exception {
+                    start.await();
+                    return coalescer.kill(NODE, pid, killer);
+                }
+            }));
+        }
+        start.countDown();
+
+        for (Future<KillResult> result : results) {
+            KillResult res = result.get(60, TimeUnit.SECONDS);
+            assertTrue(res.getErrorMessage(), res.isSuccess());
+        }
+        assertEquals("Script launches", 1, cygwin.getInvocations("bash").size());
+    }
+
+    @Test
+    public void waitingRequestsDoNotHoldSchedulerSlots() throws Exception {
+        KillScheduler scheduler = new KillScheduler(1, 1);
+        KillCoalescer coalescer = new KillCoalescer(scheduler, 0, 0);
+        BlockingKiller killer = new BlockingKiller();
+
+        Future<KillResult> first = coalescer.submit(NODE, 1, null, killer);
+        killer.awaitStarted(1);
+
+        // The node's only slot is busy, requests join the single pending batch
+        List<Future<KillResult>> waiting = new ArrayList<Future<KillResult>>();
+        for (int pid = 2; pid <= 50; pid++) {
+            waiting.add(coalescer.submit(NODE, pid, null, killer));
+        }
+        assertEquals("Pending scheduler tasks", 1, scheduler.getQueued());
+
+        killer.release();
+        assertTrue(first.get(10, TimeUnit.SECONDS).isSuccess());
+        for (Future<KillResult> result : waiting) {
+            assertTrue(result.get(10, TimeUnit.SECONDS).isSuccess());
+        }
+        assertEquals("Batches", 2, killer.getBatches().size());
+        assertEquals("Merged requests", 49, killer.getBatches().get(1).length);
+    }
+
+    @Test
+    public void collectingBatchDoesNotHoldSchedulerSlot() throws Exception {
+        KillScheduler scheduler = new KillScheduler(1, 1);
+        KillCoalescer coalescer = new KillCoalescer(scheduler, 500, 0);
+        BlockingKiller killer = new BlockingKiller();
+        killer.release();
+
+        Future<KillResult> request = coalescer.submit(NODE, 1, null, killer);
+        assertEquals("Running scheduler tasks", 0, scheduler.getRunning());
+        assertEquals("Pending scheduler tasks", 0, scheduler.getQueued());
+
+        assertTrue(request.get(10, TimeUnit.SECONDS).isSuccess());
+        assertEquals("Batches", 1, killer.getBatches().size());
+    }
+
+    @Test
+    public void idleNodesAreDropped() throws Exception {
+        KillCoalescer coalescer = new KillCoalescer(new KillScheduler(1, 1), 0, 1000);
+        BlockingKiller killer = new BlockingKiller();
+        killer.release();
+
+        assertTrue(coalescer.submit(NODE, 1, null, killer).get(10, TimeUnit.SECONDS).isSuccess());
+        assertTrue(coalescer.submit("other", 2, null, killer).get(10, TimeUnit.SECONDS).isSuccess());
+        assertEquals("Nodes", 2, coalescer.getNodeCount());
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (coalescer.getNodeCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("Nodes", 0, coalescer.getNodeCount());
+
+        // Requests for dropped nodes open new batches
+        assertTrue(coalescer.submit(NODE, 1, null, killer).get(10, TimeUnit.SECONDS).isSuccess());
+        assertEquals("Batches", 3, killer.getBatches().size());
+    }
+
+    @Test
+    public void cancelledRequestIsRemovedFromBatch() throws Exception {
+        KillCoalescer coalescer = new KillCoalescer(new KillScheduler(1, 1), 200, 0);
+        BlockingKiller killer = new BlockingKiller();
+        killer.release();
+
+        Future<KillResult> kept = coalescer.submit(NODE, 1, null, killer);
+        Future<KillResult> cancelled = coalescer.submit(NODE, 2, null, killer);
+        assertTrue(cancelled.cancel(true));
+
+        assertTrue(kept.get(10, TimeUnit.SECONDS).isSuccess());
+        assertTrue(cancelled.isCancelled());
+        assertEquals("Batches", 1, killer.getBatches().size());
+        assertArrayEquals(new int[] {1}, killer.getBatches().get(0));
+    }
+
+    @Test
+    public void cancelledBatchIsNotExecuted() throws Exception {
+        KillScheduler scheduler = new KillScheduler(1, 1);
+        KillCoalescer coalescer = new KillCoalescer(scheduler, 200, 0);
+        BlockingKiller killer = new BlockingKiller();
+        killer.release();
+
+        Future<KillResult> request = coalescer.submit(NODE, 1, null, killer);
+        assertTrue(request.cancel(true));
+
+        // The next request opens a new batch
+        assertTrue(coalescer.submit(NODE, 2, null, killer).get(10, TimeUnit.SECONDS).isSuccess());
+        assertEquals("Batches", 1, killer.getBatches().size());
+        assertArrayEquals(new int[] {2}, killer.getBatches().get(0));
+    }
+
+    @Test
+    public void notApplicableResultIsDeliveredToAllRequests() throws Exception {
+        KillCoalescer coalescer = new KillCoalescer(new KillScheduler(1, 1), 100, 0);
+        KillCoalescer.BatchKiller killer = new KillCoalescer.BatchKiller() {
+            @Override
+            public KillResult kill(int[] pids, Set<String> cookies) throws Exception {
+                return KillResult.notApplicable("Cygwin is not installed");
+            }
+        };
+
+        Future<KillResult> first = coalescer.submit(NODE, 1, null, killer);
+        Future<KillResult> second = coalescer.submit(NODE, 2, null, killer);
+        for (Future<KillResult> request : new Future[] {first, second}) {
+            KillResult result = request.get(10, TimeUnit.SECONDS);
+            assertFalse(result.isSuccess());
+            assertTrue("Result should not be a failure of the killer", result.isNotApplicable());
+        }
+    }
+
+    private KillCoalescer.BatchKiller createStandInKiller() throws Exception {
+        Assume.assumeTrue(StandInCygwin.isSupported());
+        cygwin = StandInCygwin.create();
+        capabilities = cygwin.createCapabilities(NODE, TREE_SIZE);
+        final CygwinKillHelper helper = CygwinKillHelperTest.createHelper(capabilities, 
+                StandInCygwin.getDefaultKillScript(), null, new KillTimeouts(60, 60, 0));
+        return new KillCoalescer.BatchKiller() {
+            @Override
+            public KillResult kill(int[] pids, Set<String> cookies) throws Exception {
+                return helper.kill(pids);
+            }
+        };
+    }
+
+    /**
+     * Records batches and blocks them till the release.
+     */
+    private static class BlockingKiller implements KillCoalescer.BatchKiller {
+        private final CountDownLatch released = new CountDownLatch(1);
+        private final AtomicInteger started = new AtomicInteger();
+        private final List<int[]> batches = Collections.synchronizedList(new ArrayList<int[]>());
+
+        @Override
+        public KillResult kill(int[] pids, Set<String> cookies) throws Exception {
+            batches.add(pids);
+            synchronized (started) {
+                started.incrementAndGet();
+                started.notifyAll();
+            }
+            released.await();
+            return new KillResult(true, null, pids);
+        }
+
+        void awaitStarted(int count) throws InterruptedException {
+            synchronized (started) {
+                while (started.get() < count) {
+                    started.wait();
+                }
+            }
+        }
+
+        void release() {
+            released.countDown();
+        }
+
+        List<int[]> getBatches() {
+            return batches;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link KillHistory}.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+public class KillHistoryTest {
+    private static final int HEADER_COUNT = 16;
+    private static final int MAX_NAME_BYTES = 34;
+
+    private File path;
+    private KillHistory history;
+
+    @Before
+    public void setUp() throws Exception {
+        path = File.createTempFile("kill-history", ".bin");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (history != null) {
+            history.close();
+        }
+        path.delete();
+    }
+
+    @Test
+    public void oldestEventsAreOverwritten() throws Exception {
+        history = new KillHistory(path, 4);
+        for (int pid = 0; pid < 10; pid++) {
+            history.append(createEvent("node", pid));
+        }
+
+        assertEquals(4, history.size());
+        assertPids(history.getLast(null, 100), 9, 8, 7, 6);
+        assertPids(history.getLast(null, 2), 9, 8);
+        assertEquals("File should not grow", 5 * KillHistory.RECORD_SIZE, path.length());
+    }
+
+    @Test
+    public void overwrittenEventsAreRemovedFromNodeIndexes() throws Exception {
+        history = new KillHistory(path, 3);
+        history.append(createEvent("a", 1));
+        history.append(createEvent("a", 2));
+        history.append(createEvent("b", 3));
+        history.append(createEvent("a", 4));
+        assertEquals(Arrays.asList("a", "b"), history.getNodes());
+        assertPids(history.getLast("a", 10), 4, 2);
+
+        history.append(createEvent("b", 5));
+        history.append(createEvent("b", 6));
+
+        assertEquals(Arrays.asList("a", "b"), history.getNodes());
+        assertPids(history.getLast("a", 10), 4);
+        history.append(createEvent("b", 7));
+        assertEquals("Node without events should be dropped", Arrays.asList("b"), history.getNodes());
+        assertTrue(history.getLast("a", 10).isEmpty());
+        assertPids(history.getLast("b", 10), 7, 6, 5);
+    }
+
+    @Test
+    public void indexIsRebuiltOnReopen() throws Exception {
+        history = new KillHistory(path, 5);
+        for (int pid = 0; pid < 7; pid++) {
+            history.append(createEvent(pid % 2 == 0 ? "even" : "odd", pid));
+        }
+        List<KillEvent> before = history.getLast(null, 10);
+        history.close();
+
+        history = new KillHistory(path, 5);
+
+        assertEquals(5, history.size());
+        assertEquals(Arrays.asList("even", "odd"), history.getNodes());
+        assertPids(history.getLast(null, 10), 6, 5, 4, 3, 2);
+        assertPids(history.getLast("even", 10), 6, 4, 2);
+        assertPids(history.getLast("odd", 10), 5, 3);
+        for (int i = 0; i < before.size(); i++) {
+            assertEquals(before.get(i).getTimestamp(), history.getLast(null, 10).get(i).getTimestamp());
+        }
+
+        // Appends continue the sequence, timestamps do not decrease
+        KillEvent appended = history.append(createEvent("odd", 7));
+        assertTrue(appended.getTimestamp() >= before.get(0).getTimestamp());
+        assertPids(history.getLast(null, 10), 7, 6, 5, 4, 3);
+        assertPids(history.getLast("even", 10), 6, 4);
+    }
+
+    @Test
+    public void historyWithOtherCapacityIsRecreated() throws Exception {
+        history = new KillHistory(path, 5);
+        history.append(createEvent("node", 1));
+        history.close();
+
+        history = new KillHistory(path, 10);
+
+        assertEquals(0, history.size());
+        assertEquals(KillHistory.RECORD_SIZE, path.length());
+    }
+
+    @Test
+    public void headerAheadOfWrittenRecordsCausesRecreation() throws Exception {
+        history = new KillHistory(path, 4);
+        history.append(createEvent("node", 1));
+        history.append(createEvent("node", 2));
+        history.close();
+        history = null;
+        // E.g. records have been lost after a crash, the header states a wrapped history
+        writeHeaderCount(8);
+
+        history = new KillHistory(path, 4);
+
+        assertEquals(0, history.size());
+        assertTrue(history.getNodes().isEmpty());
+        history.append(createEvent("node", 3));
+        history.close();
+        history = new KillHistory(path, 4);
+        assertPids(history.getLast(null, 10), 3);
+    }
+
+    @Test
+    public void completeWrappedHistoryIsLoaded() throws Exception {
+        history = new KillHistory(path, 4);
+        for (int pid = 0; pid < 4; pid++) {
+            history.append(createEvent("node", pid));
+        }
+        history.close();
+        // All slots are written, so the count may be anywhere ahead
+        writeHeaderCount(8);
+
+        history = new KillHistory(path, 4);
+
+        assertEquals(4, history.size());
+        assertPids(history.getLast(null, 10), 3, 2, 1, 0);
+    }
+
+    @Test
+    public void longNamesAreTruncatedOnCharacterBoundaries() throws Exception {
+        StringBuilder ascii = new StringBuilder();
+        StringBuilder cyrillic = new StringBuilder("a");
+        for (int i = 0; i < 40; i++) {
+            ascii.append('n');
+            cyrillic.append('\u0443'); // Two bytes in UTF-8
+        }
+        String longName = ascii.toString();
+        String otherLongName = longName + "-other";
+        String nonAsciiName = cyrillic.toString();
+        history = new KillHistory(path, 10);
+        history.append(createEvent(longName, 1));
+        history.append(createEvent(otherLongName, 2));
+        history.append(createEvent(nonAsciiName, 3));
+
+        // Full names are known within the session
+        assertEquals(longName, history.getLast(longName, 10).get(0).getNode());
+        assertPids(history.getLast(longName, 10), 1);
+        assertPids(history.getLast(otherLongName, 10), 2);
+        assertEquals(nonAsciiName, history.getLast(nonAsciiName, 10).get(0).getNode());
+        history.close();
+
+        history = new KillHistory(path, 10);
+
+        // Names sharing the stored prefix are distinguished by hashes of full names
+        assertPids(history.getLast(longName, 10), 1);
+        assertPids(history.getLast(otherLongName, 10), 2);
+        assertEquals(longName.substring(0, MAX_NAME_BYTES), history.getLast(longName, 10).get(0).getNode());
+        // "a" and 16 two-byte characters, the 17th character does not fit
+        assertEquals(nonAsciiName.substring(0, 17), history.getLast(nonAsciiName, 10).get(0).getNode());
+        assertPids(history.getLast(nonAsciiName, 10), 3);
+    }
+
+    @Test
+    public void rangeBoundsAreInclusive() throws Exception {
+        history = new KillHistory(path, 10);
+        long[] timestamps = new long[5];
+        for (int pid = 0; pid < timestamps.length; pid++) {
+            timestamps[pid] = appendWithNewTimestamp(pid % 2 == 0 ? "even" : "odd", pid);
+        }
+
+        assertPids(history.getRange(null, timestamps[1], timestamps[3], 10), 3, 2, 1);
+        assertPids(history.getRange(null, timestamps[1], timestamps[3], 2), 3, 2);
+        assertPids(history.getRange("even", timestamps[1], timestamps[4], 10), 4, 2);
+        assertPids(history.getRange(null, timestamps[4], Long.MAX_VALUE, 10), 4);
+        assertPids(history.getRange(null, 0, timestamps[0], 10), 0);
+        assertPids(history.getRange(null, 0, timestamps[0] - 1, 10));
+        assertPids(history.getRange(null, timestamps[4] + 1, Long.MAX_VALUE, 10));
+        assertPids(history.getRange(null, timestamps[3], timestamps[1], 10));
+        assertPids(history.getRange("unknown", 0, Long.MAX_VALUE, 10));
+    }
+
+    /**
+     * Appends event with a timestamp, which differs from the previous one.
+     */
+    private long appendWithNewTimestamp(String node, int pid) throws Exception {
+        long previous = history.size() > 0 ? history.getLast(null, 1).get(0).getTimestamp() : 0;
+        while (System.currentTimeMillis() <= previous) {
+            Thread.sleep(1);
+        }
+        return history.append(createEvent(node, pid)).getTimestamp();
+    }
+
+    private void writeHeaderCount(long count) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(path, "rw");
+        try {
+            file.seek(HEADER_COUNT);
+            file.writeLong(count);
+        } finally {
+            file.close();
+        }
+    }
+
+    private static KillEvent createEvent(String node, int pid) {
+        return new KillEvent(0, node, pid, 1, 10, 0, KillOutcome.KILLED);
+    }
+
+    private static void assertPids(List<KillEvent> events, int ... pids) {
+        int[] actual = new int[events.size()];
+        for (int i = 0; i < actual.length; i++) {
+            actual[i] = events.get(i).getPid();
+        }
+        assertArrayEquals(pids, actual);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link KillScheduler}.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+public class KillSchedulerTest {
+
+    @Test
+    public void limitsTasksPerNode() throws Exception {
+        KillScheduler scheduler = new KillScheduler(4, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger executed = new AtomicInteger();
+
+        Future<Integer> first = scheduler.submit("a", new BlockingTask(release, executed));
+        Future<Integer> second = scheduler.submit("a", new BlockingTask(release, executed));
+        Future<Integer> other = scheduler.submit("b", new BlockingTask(release, executed));
+
+        assertEquals(2, scheduler.getRunning());
+        assertEquals(1, scheduler.getQueued());
+        release.countDown();
+        first.get(10, TimeUnit.SECONDS);
+        second.get(10, TimeUnit.SECONDS);
+        other.get(10, TimeUnit.SECONDS);
+        assertEquals(3, executed.get());
+    }
+
+    @Test
+    public void cancelledTasksLeaveQueue() throws Exception {
+        KillScheduler scheduler = new KillScheduler(1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger executed = new AtomicInteger();
+
+        Future<Integer> running = scheduler.submit("a", new BlockingTask(release, executed));
+        Future<Integer> cancelled = scheduler.submit("a", new BlockingTask(release, executed));
+        Future<Integer> otherNode = scheduler.submit("b", new BlockingTask(release, executed));
+        Future<Integer> pending = scheduler.submit("a", new BlockingTask(release, executed));
+        assertEquals(3, scheduler.getQueued());
+
+        assertTrue(cancelled.cancel(false));
+        assertTrue(otherNode.cancel(false));
+        assertEquals("Cancelled tasks should not be counted", 1, scheduler.getQueued());
+        assertEquals("Node without pending tasks", 1, scheduler.getNodes().size());
+        assertEquals(1, scheduler.getNodes().get(0).getQueued());
+
+        release.countDown();
+        running.get(10, TimeUnit.SECONDS);
+        pending.get(10, TimeUnit.SECONDS);
+        assertEquals(2, executed.get());
+        assertEquals(0, scheduler.getQueued());
+    }
+
+    /**
+     * Counts executions and blocks till the release.
+     */
+    private static class BlockingTask implements Callable<Integer> {
+        private final CountDownLatch release;
+        private final AtomicInteger executed;
+
+        BlockingTask(CountDownLatch release, AtomicInteger executed) {
+            this.release = release;
+            this.executed = executed;
+        }
+
+        @Override
+        public Integer call() throws Exception {
+            release.await();
+            return executed.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link KillTimeouts}.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+public class KillTimeoutsTest {
+    private static final String NODE = "timeouts-test";
+
+    @Before
+    @After
+    public void resetMetrics() {
+        KillMetrics.getInstance().reset();
+    }
+
+    @Test
+    public void fixedTotalIsUsedWithoutSamples() {
+        KillTimeouts timeouts = new KillTimeouts(30, 60, 5, true, 5, 3);
+        KillMetrics.NodeMetrics metrics = KillMetrics.getInstance().forNode(NODE);
+
+        assertEquals(95, timeouts.getTotalDeadlineSec(metrics, false));
+        assertEquals("Cached probe is skipped", 65, timeouts.getTotalDeadlineSec(metrics, true));
+    }
+
+    @Test
+    public void adaptiveTotalIsSumOfPhaseDeadlines() {
+        KillTimeouts timeouts = new KillTimeouts(30, 60, 5, true, 5, 3);
+        KillMetrics.NodeMetrics metrics = KillMetrics.getInstance().forNode(NODE);
+        for (int i = 0; i < KillTimeouts.MIN_ADAPTIVE_SAMPLES; i++) {
+            metrics.getModel(KillPhase.EXECUTION).record(4000);
+        }
+
+        // The probe has no samples, so its configured timeout is used till it gets cached
+        int scriptDeadlineSec = timeouts.getScriptDeadlineSec(metrics);
+        assertTrue("Adaptive script deadline", scriptDeadlineSec < timeouts.getScriptTimeoutSec());
+        assertEquals(30 + scriptDeadlineSec, timeouts.getTotalDeadlineSec(metrics, false));
+        assertEquals(scriptDeadlineSec, timeouts.getTotalDeadlineSec(metrics, true));
+    }
+
+    @Test
+    public void totalIsLimitedByConfiguredTimeouts() {
+        KillTimeouts timeouts = new KillTimeouts(30, 60, 5, true, 5, 3);
+        KillMetrics.NodeMetrics metrics = KillMetrics.getInstance().forNode(NODE);
+        for (int i = 0; i < KillTimeouts.MIN_ADAPTIVE_SAMPLES; i++) {
+            metrics.getModel(KillPhase.PROBE).record(60000);
+            metrics.getModel(KillPhase.EXECUTION).record(60000);
+        }
+
+        assertEquals(timeouts.getTotalTimeoutSec(), timeouts.getTotalDeadlineSec(metrics, false));
+    }
+
+    @Test
+    public void fixedTimeoutsIgnoreSamples() {
+        KillTimeouts timeouts = new KillTimeouts(30, 60, 5);
+        KillMetrics.NodeMetrics metrics = KillMetrics.getInstance().forNode(NODE);
+        for (int i = 0; i < KillTimeouts.MIN_ADAPTIVE_SAMPLES; i++) {
+            metrics.getModel(KillPhase.EXECUTION).record(1000);
+        }
+
+        assertEquals(95, timeouts.getTotalDeadlineSec(metrics, false));
+        assertEquals(65, timeouts.getTotalDeadlineSec(metrics, true));
+    }
+}
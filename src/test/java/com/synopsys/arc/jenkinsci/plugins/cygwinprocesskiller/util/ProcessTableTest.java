@@ -0,0 +1,155 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of searches for orphaned processes in {@link ProcessTable}.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+public class ProcessTableTest {
+    private static final int USER = 1000;
+    private static final int OTHER_USER = 18;
+    private static final int AGENT_WINPID = 7000;
+    private static final List<String> ALLOWLIST = Arrays.asList("cygrunsrv", "sshd");
+
+    /**
+     * Stand-in process table of an agent, which has been started by a service.
+     * <pre>
+     * 100 cygrunsrv          (allowed)
+     * +- 110 sshd            (allowed)
+     * |  +- 111 bash
+     * |     +- 112 make      (orphan in the allowed subtree)
+     * +- 120 bash
+     *    +- 121 java         (agent's JVM)
+     *       +- 122 bash      (helper shell)
+     * 200 make               (orphan)
+     * +- 201 gcc
+     *    +- 202 cc1
+     * 300 sshd               (allowed, owned by another user)
+     * 400 sleep              (owned by another user)
+     * </pre>
+     */
+    private static ProcessTable createTable(int agentUid) {
+        int[] pids =     {100,         110,    111,    112,    120,    121,          122,    200,    201,   202,   300,        400};
+        int[] ppids =    {1,           100,    110,    111,    100,    120,          121,    1,      200,   201,   1,          1};
+        int[] winPids =  {5000,        5100,   5110,   5120,   5200,   AGENT_WINPID, 7100,   8000,   8010,  8020,  9000,       9100};
+        int[] uids =     {agentUid,    USER,   USER,   USER,   USER,   USER,         USER,   USER,   USER,  USER,  OTHER_USER, OTHER_USER};
+        String[] cmds =  {"/usr/bin/cygrunsrv", "/usr/sbin/sshd", "/usr/bin/bash", "/usr/bin/make", "/usr/bin/bash",
+                "/cygdrive/c/Java/bin/java.exe", "/usr/bin/bash", "/usr/bin/make", "/usr/bin/gcc", "/usr/bin/cc1", 
+                "/usr/sbin/sshd", "/usr/bin/sleep"};
+        return ProcessTable.build(pids, ppids, winPids, uids, cmds, pids.length);
+    }
+
+    @Test
+    public void findsOnlyUnprotectedProcessesOfUser() {
+        int[] orphans = createTable(USER).findUnprotected(ALLOWLIST, AGENT_WINPID, USER);
+
+        assertArrayEquals(new int[] {202, 201, 200}, orphans);
+    }
+
+    @Test
+    public void subtreesOfAllowedProcessesAreProtected() {
+        // The agent's JVM is not listed, so only the allowlist protects the service tree
+        int[] orphans = createTable(USER).findUnprotected(ALLOWLIST, ProcessTable.NO_PID, USER);
+
+        assertArrayEquals(new int[] {202, 201, 200}, orphans);
+        for (int pid : new int[] {100, 110, 111, 112, 120, 121, 122}) {
+            assertFalse("Process " + pid + " is in the allowed subtree", contains(orphans, pid));
+        }
+    }
+
+    @Test
+    public void agentJvmAndItsAncestorsAreProtected() {
+        int[] orphans = createTable(USER).findUnprotected(Collections.<String>emptyList(), AGENT_WINPID, USER);
+
+        for (int pid : new int[] {121, 120, 100}) {
+            assertFalse("Process " + pid + " runs the agent", contains(orphans, pid));
+        }
+        // Descendants of the JVM are not protected by the walk
+        assertTrue(contains(orphans, 122));
+        assertTrue(contains(orphans, 112));
+    }
+
+    @Test
+    public void ancestorsOfJvmAreProtectedAboveAllowedSubtrees() {
+        // The JVM has been started from a shell of an allowed daemon
+        int[] pids = {10, 11, 12, 13};
+        int[] ppids = {1, 10, 11, 12};
+        int[] winPids = {100, 110, AGENT_WINPID, 130};
+        int[] uids = {USER, USER, USER, USER};
+        String[] cmds = {"bash", "sshd", "java", "sleep"};
+        ProcessTable table = ProcessTable.build(pids, ppids, winPids, uids, cmds, pids.length);
+
+        int[] orphans = table.findUnprotected(ALLOWLIST, AGENT_WINPID, USER);
+
+        assertArrayEquals("Parent of the daemon runs the agent", new int[0], orphans);
+    }
+
+    @Test
+    public void processesOfOtherUsersAreNotKilled() {
+        // Service is owned by the system account
+        int[] orphans = createTable(OTHER_USER).findUnprotected(Collections.<String>emptyList(), 
+                ProcessTable.NO_PID, USER);
+
+        assertFalse(contains(orphans, 100));
+        assertFalse(contains(orphans, 300));
+        assertFalse(contains(orphans, 400));
+        assertTrue("Descendants of the user should be found", contains(orphans, 110));
+    }
+
+    @Test
+    public void nothingIsFoundForUnknownUser() {
+        int[] orphans = createTable(USER).findUnprotected(ALLOWLIST, AGENT_WINPID, ProcessTable.NO_UID);
+
+        assertEquals(0, orphans.length);
+    }
+
+    @Test
+    public void parsesOwnersFromPsOutput() {
+        ProcessTable table = ProcessTable.parsePsOutput(
+                "      PID    PPID    PGID     WINPID   TTY         UID    STIME COMMAND\n"
+                + "      512       1     512        512  ?          18 10:00:00 /usr/sbin/sshd\n"
+                + "S    2044     512    2044       6740  pty0      1000   Oct 17 /usr/bin/make\n");
+
+        assertEquals(18, table.getUid(512));
+        assertEquals(USER, table.getUid(2044));
+        assertEquals(ProcessTable.NO_UID, table.getUid(3000));
+        assertEquals("make", table.getCommand(2044));
+    }
+
+    private static boolean contains(int[] pids, int pid) {
+        for (int value : pids) {
+            if (value == pid) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link ProcessTreeIndex} on generated process lists.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+public class ProcessTreeIndexTest {
+    private static final int SIZE = 100000;
+    private static final int ROOT_PID = 1000;
+
+    @Test
+    public void killOrderCoversRandomTree() {
+        int[] ppids = generateRandomTree(SIZE, new Random(42));
+        ProcessTreeIndex index = build(ppids);
+
+        int[] order = index.getKillOrder(ROOT_PID);
+
+        assertEquals(SIZE, order.length);
+        assertEquals("Root should be the last one", ROOT_PID, order[order.length - 1]);
+        assertChildrenFirst(order, ppids);
+    }
+
+    @Test
+    public void killOrderOfDeepChain() {
+        int[] ppids = new int[SIZE];
+        ppids[0] = 1;
+        for (int i = 1; i < SIZE; i++) {
+            ppids[i] = ROOT_PID + i - 1;
+        }
+        ProcessTreeIndex index = build(ppids);
+
+        int[] order = index.getKillOrder(ROOT_PID);
+
+        assertEquals(SIZE, order.length);
+        for (int i = 0; i < SIZE; i++) {
+            assertEquals(ROOT_PID + SIZE - 1 - i, order[i]);
+        }
+    }
+
+    @Test
+    public void overlappingTreesAreListedOnce() {
+        int[] ppids = generateRandomTree(SIZE, new Random(7));
+        ProcessTreeIndex index = build(ppids);
+        int inner = ROOT_PID + 10;
+        int innerSize = index.getSubtree(inner).length;
+
+        // The inner tree goes first, then the outer one
+        int[] order = index.getKillOrder(inner, ROOT_PID, inner);
+
+        assertEquals(SIZE, order.length);
+        assertEquals(inner, order[innerSize - 1]);
+        assertChildrenFirst(order, ppids);
+    }
+
+    @Test
+    public void missingRootsAreListedAsIs() {
+        ProcessTreeIndex index = build(generateRandomTree(SIZE, new Random(1)));
+        int leaf = findLeaf(index);
+
+        assertArrayEquals(new int[] {leaf, 5, 7}, index.getKillOrder(leaf, 5, 7, 5));
+        assertArrayEquals(new int[] {5}, index.getSubtree(5));
+    }
+
+    @Test
+    public void subtreesOfLargeIndex() {
+        int[] ppids = generateRandomTree(SIZE, new Random(3));
+        ProcessTreeIndex index = build(ppids);
+
+        // Results of small subtrees are not padded with the index size
+        int leaf = findLeaf(index);
+        assertArrayEquals(new int[] {leaf}, index.getSubtree(leaf));
+        int parent = index.getParent(leaf);
+        int[] subtree = index.getSubtree(parent);
+        assertEquals(countSubtree(ppids, parent - ROOT_PID), subtree.length);
+        assertEquals(parent, subtree[subtree.length - 1]);
+    }
+
+    @Test
+    public void parsesGeneratedPsOutput() {
+        int[] ppids = generateRandomTree(SIZE, new Random(11));
+        StringBuilder b = new StringBuilder("      UID     PID    PPID  TTY        STIME COMMAND\n");
+        for (int i = 0; i < SIZE; i++) {
+            // Status flag is glued to UID, user names may contain spaces
+            b.append(i % 3 == 0 ? "I" : " ").append(i % 5 == 0 ? "build user" : "builder")
+                    .append(' ').append(ROOT_PID + i).append(' ').append(ppids[i])
+                    .append(" pty0 10:00:00 /usr/bin/gcc -O2 42 43\n");
+        }
+        b.append(" builder 99999999999 1 pty0 10:00:00 /usr/bin/overflow");
+
+        ProcessTreeIndex index = ProcessTreeIndex.parsePsOutput(b);
+
+        assertEquals(SIZE, index.size());
+        for (int i = 0; i < SIZE; i += 97) {
+            assertEquals(ppids[i], index.getParent(ROOT_PID + i));
+        }
+        assertEquals(SIZE, index.getKillOrder(ROOT_PID).length);
+    }
+
+    @Test
+    public void duplicatedPidsAreIgnored() {
+        ProcessTreeIndex index = ProcessTreeIndex.build(
+                new int[] {10, 11, 11, 12}, new int[] {1, 10, 10, 11}, 4);
+
+        assertEquals(3, index.size());
+        assertArrayEquals(new int[] {11}, index.getChildren(10));
+        assertArrayEquals(new int[] {12, 11, 10}, index.getKillOrder(10));
+    }
+
+    /**
+     * Generates parents of a random tree. Process i has PID {@code ROOT_PID + i},
+     * its parent is one of the previous processes.
+     */
+    private static int[] generateRandomTree(int size, Random random) {
+        int[] ppids = new int[size];
+        ppids[0] = 1;
+        for (int i = 1; i < size; i++) {
+            // Prefer recent parents, so the tree is deep as well as wide
+            int parent = random.nextBoolean() ? i - 1 - random.nextInt(Math.min(i, 10)) : random.nextInt(i);
+            ppids[i] = ROOT_PID + parent;
+        }
+        return ppids;
+    }
+
+    private static ProcessTreeIndex build(int[] ppids) {
+        // Snapshots are not sorted
+        int[] pids = new int[ppids.length];
+        int[] shuffledPpids = new int[ppids.length];
+        Random random = new Random(ppids.length);
+        for (int i = 0; i < ppids.length; i++) {
+            int j = random.nextInt(i + 1);
+            pids[i] = pids[j];
+            shuffledPpids[i] = shuffledPpids[j];
+            pids[j] = ROOT_PID + i;
+            shuffledPpids[j] = ppids[i];
+        }
+        return ProcessTreeIndex.build(pids, shuffledPpids, ppids.length);
+    }
+
+    private static int findLeaf(ProcessTreeIndex index) {
+        for (int pid = ROOT_PID + index.size() - 1; pid >= ROOT_PID; pid--) {
+            if (index.getChildren(pid).length == 0 && index.getChildren(index.getParent(pid)).length > 1) {
+                return pid;
+            }
+        }
+        throw new AssertionError("Tree has no leaves with siblings");
+    }
+
+    private static int countSubtree(int[] ppids, int rootIndex) {
+        // Parents always precede children in generated trees
+        boolean[] inSubtree = new boolean[ppids.length];
+        inSubtree[rootIndex] = true;
+        int res = 1;
+        for (int i = rootIndex + 1; i < ppids.length; i++) {
+            int parent = ppids[i] - ROOT_PID;
+            if (parent >= 0 && inSubtree[parent]) {
+                inSubtree[i] = true;
+                res++;
+            }
+        }
+        return res;
+    }
+
+    private static void assertChildrenFirst(int[] order, int[] ppids) {
+        Map<Integer, Integer> positions = new HashMap<Integer, Integer>();
+        for (int i = 0; i < order.length; i++) {
+            assertNull("Process " + order[i] + " is listed twice", positions.put(order[i], i));
+        }
+        for (int i = 1; i < ppids.length; i++) {
+            assertTrue("Process " + (ROOT_PID + i) + " should precede its parent",
+                    positions.get(ROOT_PID + i) < positions.get(ppids[i]));
+        }
+    }
+}
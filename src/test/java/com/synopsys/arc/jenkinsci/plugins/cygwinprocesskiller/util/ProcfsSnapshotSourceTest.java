@@ -0,0 +1,152 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util;
+
+import hudson.FilePath;
+import java.io.File;
+import java.io.IOException;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link ProcfsSnapshotSource} on synthetic procfs directories.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+public class ProcfsSnapshotSourceTest {
+    private static final int SIZE = 1000;
+    private static final int ROOT_PID = 100;
+
+    private FilePath procRoot;
+
+    @Before
+    public void setUp() throws Exception {
+        File dir = File.createTempFile("procfs", "");
+        if (!dir.delete() || !dir.mkdirs()) {
+            throw new IOException("Cannot create directory " + dir);
+        }
+        procRoot = new FilePath(dir);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (procRoot != null) {
+            procRoot.deleteRecursive();
+        }
+    }
+
+    @Test
+    public void readsCygwinLayout() throws Exception {
+        for (int i = 0; i < SIZE; i++) {
+            FilePath process = procRoot.child(Integer.toString(ROOT_PID + i));
+            process.child("ppid").write(getParent(i) + "\n", null);
+            process.child("winpid").write((5000 + i) + "\n", null);
+            process.child("exename").write("/usr/bin/gcc" + i + "\n", null);
+        }
+        addNonProcessEntries();
+
+        ProcessTreeIndex index = ProcfsSnapshotSource.takeSnapshot(procRoot);
+
+        assertEquals(SIZE, index.size());
+        assertEquals(SIZE, index.getKillOrder(ROOT_PID).length);
+        assertEquals(getParent(500), index.getParent(ROOT_PID + 500));
+
+        ProcfsSnapshotSource source = new ProcfsSnapshotSource(procRoot.getRemote());
+        CygwinKillHelper helper = createHelper();
+        WinPidMap winPids = source.takeWinPidSnapshot(helper);
+        assertEquals(SIZE, winPids.size());
+        assertEquals(ROOT_PID + 42, winPids.toCygwinPid(5042));
+        assertEquals(5042, winPids.toWinPid(ROOT_PID + 42));
+
+        ProcessTable table = source.takeProcessTable(helper);
+        assertEquals(SIZE, table.size());
+        assertEquals(5042, table.getWinPid(ROOT_PID + 42));
+        // Commands are reduced to base names
+        assertEquals("gcc42", table.getCommand(ROOT_PID + 42));
+    }
+
+    @Test
+    public void readsLinuxLayout() throws Exception {
+        for (int i = 0; i < SIZE; i++) {
+            FilePath process = procRoot.child(Integer.toString(ROOT_PID + i));
+            // Commands may contain spaces and brackets
+            process.child("stat").write((ROOT_PID + i) + " (cc1 (x) " + i + ") S " + getParent(i) + " 1 1 0 -1\n", null);
+            process.child("comm").write("cc1\n", null);
+        }
+        addNonProcessEntries();
+
+        ProcessTreeIndex index = ProcfsSnapshotSource.takeSnapshot(procRoot);
+
+        assertEquals(SIZE, index.size());
+        assertEquals(getParent(777), index.getParent(ROOT_PID + 777));
+        ProcessTable table = new ProcfsSnapshotSource(procRoot.getRemote()).takeProcessTable(createHelper());
+        assertEquals("cc1", table.getCommand(ROOT_PID + 1));
+        assertEquals(ProcessTable.NO_PID, table.getWinPid(ROOT_PID + 1));
+    }
+
+    @Test
+    public void skipsExitedProcesses() throws Exception {
+        procRoot.child(Integer.toString(ROOT_PID)).child("ppid").write("1\n", null);
+        procRoot.child(Integer.toString(ROOT_PID + 1)).child("ppid").write(ROOT_PID + "\n", null);
+        // The process has exited during the scan, its directory is empty
+        procRoot.child(Integer.toString(ROOT_PID + 2)).mkdirs();
+
+        ProcessTreeIndex index = ProcfsSnapshotSource.takeSnapshot(procRoot);
+
+        assertEquals(2, index.size());
+        assertFalse(index.contains(ROOT_PID + 2));
+        assertArrayEquals(new int[] {ROOT_PID + 1, ROOT_PID}, index.getKillOrder(ROOT_PID));
+    }
+
+    @Test
+    public void readsProcfsOfHost() throws Exception {
+        File self = new File("/proc/self");
+        Assume.assumeTrue(self.exists());
+        int pid = Integer.parseInt(self.getCanonicalFile().getName());
+
+        ProcessTreeIndex index = ProcfsSnapshotSource.takeSnapshot(new FilePath(new File("/proc")));
+
+        assertTrue(index.contains(pid));
+        int parent = index.getParent(pid);
+        assertTrue("Parent of the test JVM should be in the snapshot", parent <= 1 || index.contains(parent));
+    }
+
+    private void addNonProcessEntries() throws Exception {
+        procRoot.child("self").mkdirs();
+        procRoot.child("cpuinfo").write("processor : 0\n", null);
+        procRoot.child("99999999999").mkdirs();
+    }
+
+    private CygwinKillHelper createHelper() {
+        NodeCapabilityCache.Entry capabilities = new NodeCapabilityCache.Entry("test");
+        capabilities.setTmpDir(procRoot);
+        return CygwinKillHelperTest.createHelper(capabilities, "", null, new KillTimeouts(60, 60, 0));
+    }
+
+    private static int getParent(int index) {
+        return index == 0 ? 1 : ROOT_PID + (index - 1) / 3;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link ScriptOutputSink}.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+public class ScriptOutputSinkTest {
+    private static final String SIGNALLED = "SIGNALLED";
+    private static final String SURVIVORS = "SURVIVORS";
+
+    @Test
+    public void parsesValuesOfResultLines() {
+        ScriptOutputSink sink = new ScriptOutputSink(16, SIGNALLED, SURVIVORS);
+        write(sink, "Killing 1\nSIGNALLED 10 11 x12 13\nSURVIVORS 11\nSIGNALLED 14");
+
+        assertArrayEquals(new int[] {10, 11, 13, 14}, sink.getValues(SIGNALLED));
+        assertArrayEquals(new int[] {11}, sink.getValues(SURVIVORS));
+        assertEquals(4, sink.getValueCount(SIGNALLED));
+    }
+
+    @Test
+    public void storedValuesAreLimited() {
+        ScriptOutputSink sink = new ScriptOutputSink(16, 100, SIGNALLED, SURVIVORS);
+        StringBuilder output = new StringBuilder(SIGNALLED);
+        for (int pid = 0; pid < 1000; pid++) {
+            output.append(' ').append(pid);
+        }
+        write(sink, output.append("\nSURVIVORS 5 6\n").toString());
+
+        int[] signalled = sink.getValues(SIGNALLED);
+        assertEquals(100, signalled.length);
+        assertEquals(99, signalled[99]);
+        assertEquals("All values are counted", 1000, sink.getValueCount(SIGNALLED));
+        assertArrayEquals(new int[] {5, 6}, sink.getValues(SURVIVORS));
+    }
+
+    @Test
+    public void unterminatedValueIsLimited() {
+        ScriptOutputSink sink = new ScriptOutputSink(16, 2, SIGNALLED);
+        write(sink, "SIGNALLED 1 2 3");
+
+        assertArrayEquals(new int[] {1, 2}, sink.getValues(SIGNALLED));
+        assertEquals(3, sink.getValueCount(SIGNALLED));
+    }
+
+    private static void write(ScriptOutputSink sink, String output) {
+        byte[] bytes = output.getBytes();
+        sink.write(bytes, 0, bytes.length);
+    }
+}
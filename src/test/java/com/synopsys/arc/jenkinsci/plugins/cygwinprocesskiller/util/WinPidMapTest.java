@@ -0,0 +1,128 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.util;
+
+import com.synopsys.arc.jenkinsci.plugins.cygwinprocesskiller.StandInCygwin;
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import hudson.util.StreamTaskListener;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the translation between Windows and Cygwin PIDs.
+ * @author Oleg Nenashev <nenashev@synopsys.com>, Synopsys Inc.
+ */
+public class WinPidMapTest {
+    // Cygwin's ps marks processes with status flags in the first column
+    private static final String PS_OUTPUT =
+            "      PID    PPID    PGID     WINPID   TTY         UID    STIME COMMAND\n"
+            + "      512       1     512        512  ?         1000 10:00:00 /usr/bin/bash\n"
+            + "S    2044     512    2044       6740  pty0      1000 10:00:01 /usr/bin/make\n"
+            + "I    2100    2044    2044        612  pty0      1000   Oct 17 /cygdrive/c/Program Files/gcc\n"
+            + "     2208    2100    2044    4294967  pty0      1000 10:00:02 /usr/bin/sleep\n";
+
+    private StandInCygwin cygwin;
+    private NodeCapabilityCache.Entry capabilities;
+
+    @After
+    public void tearDown() throws Exception {
+        if (capabilities != null) {
+            capabilities.dispose();
+        }
+        if (cygwin != null) {
+            cygwin.delete();
+        }
+    }
+
+    @Test
+    public void translatesPsOutputInBothDirections() {
+        WinPidMap map = WinPidMap.parsePsOutput(PS_OUTPUT);
+
+        assertEquals(4, map.size());
+        assertEquals(512, map.toCygwinPid(512));
+        assertEquals(2044, map.toCygwinPid(6740));
+        assertEquals(2100, map.toCygwinPid(612));
+        assertEquals(2208, map.toCygwinPid(4294967));
+        assertEquals(6740, map.toWinPid(2044));
+        assertEquals(612, map.toWinPid(2100));
+        assertEquals(WinPidMap.NO_PID, map.toCygwinPid(2044));
+        assertEquals(WinPidMap.NO_PID, map.toWinPid(6740));
+    }
+
+    @Test
+    public void processTableProvidesMapAndTreesOfSameSnapshot() {
+        ProcessTable table = ProcessTable.parsePsOutput(PS_OUTPUT);
+        WinPidMap map = table.getWinPidMap();
+        WinPidMap parsed = WinPidMap.parsePsOutput(PS_OUTPUT);
+
+        for (int pid : new int[] {512, 2044, 2100, 2208}) {
+            assertEquals(parsed.toWinPid(pid), map.toWinPid(pid));
+            assertEquals(pid, map.toCygwinPid(map.toWinPid(pid)));
+        }
+        int root = map.toCygwinPid(6740);
+        assertArrayEquals(new int[] {2208, 2100, 2044}, table.getTreeIndex().getKillOrder(root));
+    }
+
+    @Test
+    public void processesWithoutWindowsPidsAreNotMapped() {
+        ProcessTable table = ProcessTable.build(new int[] {10, 11}, new int[] {1, 10}, 
+                new int[] {7000, ProcessTable.NO_PID}, new int[] {1000, 1000}, new String[] {"bash", "sleep"}, 2);
+
+        WinPidMap map = table.getWinPidMap();
+
+        assertEquals(1, map.size());
+        assertEquals(10, map.toCygwinPid(7000));
+        assertEquals(WinPidMap.NO_PID, map.toWinPid(11));
+    }
+
+    @Test
+    public void killTranslatesPidsFromSingleProcessList() throws Exception {
+        Assume.assumeTrue(StandInCygwin.isSupported());
+        int treeSize = 50;
+        cygwin = StandInCygwin.create();
+        capabilities = cygwin.createCapabilities("test", treeSize);
+        TaskListener listener = StreamTaskListener.fromStdout();
+        PsSnapshotSource source = new PsSnapshotSource();
+        CygwinKillHelper helper = new CygwinKillHelper(listener, new Launcher.LocalLauncher(listener), 
+                capabilities, StandInCygwin.getDefaultKillScript(), false, source, source, KillStrategy.TREE, 
+                new KillTimeouts(60, 60, 0));
+
+        KillResult result = helper.kill(StandInCygwin.ROOT_PID + StandInCygwin.WINPID_OFFSET);
+
+        assertTrue(result.getErrorMessage(), result.isSuccess());
+        int[] signalled = result.getSignalledPIDs();
+        Arrays.sort(signalled);
+        assertEquals(treeSize, signalled.length);
+        for (int i = 0; i < treeSize; i++) {
+            assertEquals(StandInCygwin.ROOT_PID + StandInCygwin.WINPID_OFFSET + i, signalled[i]);
+        }
+        assertEquals("Process list launches", 1, cygwin.getInvocations("ps").size());
+        assertEquals(StandInCygwin.ROOT_PID, capabilities.getWinPidMap().toCygwinPid(
+                StandInCygwin.ROOT_PID + StandInCygwin.WINPID_OFFSET));
+    }
+}